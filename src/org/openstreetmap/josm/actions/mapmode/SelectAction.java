@@ -191,6 +191,7 @@ public class SelectAction extends MapMode implements SelectionEnded {
         double dy = mouseEN.north() - mouseStartEN.north();
         if (dx == 0 && dy == 0)
             return;
+        mv.markInteraction();
 
         if (virtualWays.size() > 0) {
             Collection<Command> virtualCmds = new LinkedList<Command>();
@@ -0,0 +1,199 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.coor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.projection.Projection;
+
+/**
+ * Spatial index over objects at a single position each, like the markers or
+ * the photos of a layer.
+ *
+ * The positions are sorted into a tree of quads: a quad with more than
+ * {@link #BUCKET_SIZE} objects is divided into four at its center, similar to
+ * the buckets of {@link org.openstreetmap.josm.data.osm.QuadBuckets}. Objects
+ * without position are left out. The tree is built when it is searched the
+ * first time.
+ *
+ * The index is not updated when objects are added, removed or moved; create
+ * a new one in that case. The positions are projected with the projection that
+ * was current when the index was created, see {@link #isUpToDate()}.
+ */
+public abstract class EastNorthIndex<T> {
+
+    public static final int BUCKET_SIZE = 32;
+
+    private static class Quad {
+        double minEast, minNorth, maxEast, maxNorth;
+        /** the range of the objects in this quad, in tree order */
+        int from, to;
+        /** null for a bucket */
+        Quad[] children;
+    }
+
+    private final Projection projection;
+    private final List<T> objects;
+
+    /** the index in <code>objects</code>, for every position in tree order */
+    private int[] order;
+    private double[] east;
+    private double[] north;
+    private Quad root;
+
+    public EastNorthIndex(Collection<? extends T> objects) {
+        this.projection = Main.proj;
+        this.objects = new ArrayList<T>(objects);
+    }
+
+    /**
+     * @return the position of an object, null if it has none
+     */
+    protected abstract EastNorth getEastNorth(T object);
+
+    /**
+     * @return the number of objects, including the ones without position
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * @return false, if the projection has changed since the index has been created
+     */
+    public boolean isUpToDate() {
+        return projection == Main.proj;
+    }
+
+    private void build() {
+        int size = 0;
+        order = new int[objects.size()];
+        east = new double[objects.size()];
+        north = new double[objects.size()];
+        for (int i = 0; i < objects.size(); i++) {
+            EastNorth en = getEastNorth(objects.get(i));
+            if (en == null || Double.isNaN(en.east()) || Double.isNaN(en.north())) {
+                continue;
+            }
+            order[size] = i;
+            east[size] = en.east();
+            north[size] = en.north();
+            size++;
+        }
+        root = build(0, size);
+    }
+
+    private Quad build(int from, int to) {
+        Quad q = new Quad();
+        q.from = from;
+        q.to = to;
+        q.minEast = q.minNorth = Double.POSITIVE_INFINITY;
+        q.maxEast = q.maxNorth = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            q.minEast = Math.min(q.minEast, east[i]);
+            q.maxEast = Math.max(q.maxEast, east[i]);
+            q.minNorth = Math.min(q.minNorth, north[i]);
+            q.maxNorth = Math.max(q.maxNorth, north[i]);
+        }
+        if (to - from <= BUCKET_SIZE)
+            return q;
+        double centerEast = (q.minEast + q.maxEast) / 2;
+        double centerNorth = (q.minNorth + q.maxNorth) / 2;
+        // west | east, then south | north within both halves
+        int splitEast = partition(from, to, east, centerEast);
+        int[] bounds = new int[] {from, partition(from, splitEast, north, centerNorth), splitEast,
+                partition(splitEast, to, north, centerNorth), to};
+        for (int k = 0; k < 4; k++) {
+            if (bounds[k + 1] - bounds[k] == to - from)
+                // all at (almost) the same position, can not be divided further
+                return q;
+        }
+        q.children = new Quad[4];
+        for (int k = 0; k < 4; k++) {
+            q.children[k] = build(bounds[k], bounds[k + 1]);
+        }
+        return q;
+    }
+
+    /**
+     * Moves the positions with <code>values[i] &lt; center</code> to the front.
+     * @return the index of the first position that has not been moved
+     */
+    private int partition(int from, int to, double[] values, double center) {
+        int split = from;
+        for (int i = from; i < to; i++) {
+            if (values[i] < center) {
+                swap(i, split);
+                split++;
+            }
+        }
+        return split;
+    }
+
+    private void swap(int i, int j) {
+        int o = order[i];
+        order[i] = order[j];
+        order[j] = o;
+        double e = east[i];
+        east[i] = east[j];
+        east[j] = e;
+        double n = north[i];
+        north[i] = north[j];
+        north[j] = n;
+    }
+
+    /**
+     * Finds the objects within a rectangle (including the border).
+     * @return the objects, in the order of the collection the index has been created with
+     */
+    public List<T> search(EastNorth min, EastNorth max) {
+        if (root == null) {
+            build();
+        }
+        Hits hits = new Hits();
+        search(root, min.east(), min.north(), max.east(), max.north(), hits);
+        Arrays.sort(hits.found, 0, hits.count);
+        List<T> result = new ArrayList<T>(hits.count);
+        for (int i = 0; i < hits.count; i++) {
+            result.add(objects.get(hits.found[i]));
+        }
+        return result;
+    }
+
+    private static class Hits {
+        int[] found = new int[16];
+        int count = 0;
+
+        void add(int i) {
+            if (count == found.length) {
+                found = Arrays.copyOf(found, count * 2);
+            }
+            found[count++] = i;
+        }
+    }
+
+    private void search(Quad q, double minEast, double minNorth, double maxEast, double maxNorth, Hits hits) {
+        if (q.from == q.to || q.maxEast < minEast || q.minEast > maxEast
+                || q.maxNorth < minNorth || q.minNorth > maxNorth)
+            return;
+        if (q.minEast >= minEast && q.maxEast <= maxEast && q.minNorth >= minNorth && q.maxNorth <= maxNorth) {
+            // completely inside
+            for (int i = q.from; i < q.to; i++) {
+                hits.add(order[i]);
+            }
+        } else if (q.children == null) {
+            for (int i = q.from; i < q.to; i++) {
+                if (east[i] >= minEast && east[i] <= maxEast && north[i] >= minNorth && north[i] <= maxNorth) {
+                    hits.add(order[i]);
+                }
+            }
+        } else {
+            for (Quad child : q.children) {
+                search(child, minEast, minNorth, maxEast, maxNorth, hits);
+            }
+        }
+    }
+}
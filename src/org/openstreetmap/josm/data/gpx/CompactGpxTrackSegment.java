@@ -0,0 +1,336 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+/**
+ * A read-only track segment that keeps its points in arrays of primitives.
+ *
+ * A {@link WayPoint} with its attribute map, cached coordinates and paint
+ * state takes a few hundred bytes. This segment stores latitude, longitude,
+ * time, elevation and hdop of every point in arrays, about 40 bytes per
+ * point. The <code>time</code> and <code>ele</code> strings are recreated from
+ * the numbers if that gives exactly the original text; all other attributes,
+ * and strings that can not be recreated, are kept in a map for only the points
+ * that have them.
+ *
+ * {@link #getWayPoints()} creates new way points on every access, so changes
+ * to them are not stored in the segment. Code that walks many points should
+ * use the accessors for single values instead.
+ */
+public class CompactGpxTrackSegment implements GpxTrackSegment {
+
+    private static final ThreadLocal<DateFormat[]> timeFormats = new ThreadLocal<DateFormat[]>() {
+        @Override protected DateFormat[] initialValue() {
+            DateFormat[] formats = {
+                    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"),
+                    new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'")
+            };
+            for (DateFormat f : formats) {
+                f.setTimeZone(TimeZone.getTimeZone("UTC"));
+            }
+            return formats;
+        }
+    };
+
+    private final int size;
+    private final double[] lat;
+    private final double[] lon;
+    /** seconds since the epoch, 0 if unknown (see {@link WayPoint#time}) */
+    private final double[] time;
+    /** true, if the time attribute is recreated from {@link #time} */
+    private final boolean[] hasTime;
+    /** NaN if the elevation is unknown or kept as string in the attributes */
+    private final double[] ele;
+    /** NaN if unknown */
+    private final float[] hdop;
+    /** the remaining attributes of the points that have any */
+    private final Map<Integer, Map<String, Object>> attributes;
+    private final Bounds bounds;
+    private final double length;
+
+    public CompactGpxTrackSegment(Collection<WayPoint> wayPoints) {
+        this(createBuilder(wayPoints));
+    }
+
+    private static Builder createBuilder(Collection<WayPoint> wayPoints) {
+        Builder builder = new Builder(wayPoints.size());
+        for (WayPoint wpt : wayPoints) {
+            builder.add(wpt);
+        }
+        return builder;
+    }
+
+    private CompactGpxTrackSegment(Builder builder) {
+        size = builder.size;
+        lat = Arrays.copyOf(builder.lat, size);
+        lon = Arrays.copyOf(builder.lon, size);
+        time = Arrays.copyOf(builder.time, size);
+        hasTime = Arrays.copyOf(builder.hasTime, size);
+        ele = Arrays.copyOf(builder.ele, size);
+        hdop = Arrays.copyOf(builder.hdop, size);
+        attributes = builder.attributes;
+        bounds = calculateBounds();
+        length = calculateLength();
+    }
+
+    /**
+     * Collects the points of a segment one after the other, e.g. while reading
+     * a file. Every point is copied into the arrays when it is added, so the
+     * way points need not be kept until the segment is complete.
+     */
+    public static class Builder {
+        private int size;
+        private double[] lat;
+        private double[] lon;
+        private double[] time;
+        private boolean[] hasTime;
+        private double[] ele;
+        private float[] hdop;
+        private Map<Integer, Map<String, Object>> attributes = new HashMap<Integer, Map<String, Object>>();
+
+        public Builder() {
+            this(64);
+        }
+
+        public Builder(int capacity) {
+            capacity = Math.max(capacity, 1);
+            lat = new double[capacity];
+            lon = new double[capacity];
+            time = new double[capacity];
+            hasTime = new boolean[capacity];
+            ele = new double[capacity];
+            hdop = new float[capacity];
+        }
+
+        private void ensureCapacity() {
+            if (size < lat.length)
+                return;
+            int capacity = lat.length * 2;
+            lat = Arrays.copyOf(lat, capacity);
+            lon = Arrays.copyOf(lon, capacity);
+            time = Arrays.copyOf(time, capacity);
+            hasTime = Arrays.copyOf(hasTime, capacity);
+            ele = Arrays.copyOf(ele, capacity);
+            hdop = Arrays.copyOf(hdop, capacity);
+        }
+
+        /**
+         * Adds a point at the end of the segment.
+         */
+        public void add(WayPoint wpt) {
+            ensureCapacity();
+            int i = size++;
+            LatLon ll = wpt.getCoor();
+            lat[i] = ll.lat();
+            lon[i] = ll.lon();
+            time[i] = wpt.time;
+            hasTime[i] = false;
+            ele[i] = Double.NaN;
+            hdop[i] = Float.NaN;
+            Map<String, Object> rest = null;
+            for (Map.Entry<String, Object> e : wpt.attr.entrySet()) {
+                String key = e.getKey();
+                Object value = e.getValue();
+                if (key.equals("time") && value.equals(formatTime(wpt.time))) {
+                    hasTime[i] = true;
+                } else if (key.equals("ele") && value instanceof String && parseEle((String) value, i)) {
+                    // stored in ele
+                } else if (key.equals("hdop") && value instanceof Float && !((Float) value).isNaN()) {
+                    hdop[i] = (Float) value;
+                } else {
+                    if (rest == null) {
+                        rest = new HashMap<String, Object>(4);
+                    }
+                    rest.put(key, value);
+                }
+            }
+            if (rest != null) {
+                attributes.put(i, rest);
+            }
+        }
+
+        private boolean parseEle(String s, int i) {
+            try {
+                double d = Double.parseDouble(s);
+                if (s.equals(formatEle(d))) {
+                    ele[i] = d;
+                    return true;
+                }
+            } catch (NumberFormatException e) {
+            }
+            return false;
+        }
+
+        /**
+         * @return the number of points added so far
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return a segment with the points added so far
+         */
+        public CompactGpxTrackSegment build() {
+            CompactGpxTrackSegment segment = new CompactGpxTrackSegment(this);
+            attributes = new HashMap<Integer, Map<String, Object>>(attributes);
+            return segment;
+        }
+    }
+
+    private static String formatEle(double d) {
+        if (d == Math.rint(d) && Math.abs(d) < 1e15)
+            return Long.toString((long) d);
+        return Double.toString(d);
+    }
+
+    private static String formatTime(double time) {
+        long ms = Math.round(time * 1000);
+        return timeFormats.get()[ms % 1000 == 0 ? 0 : 1].format(new Date(ms));
+    }
+
+    private Bounds calculateBounds() {
+        Bounds result = null;
+        for (int i = 0; i < size; i++) {
+            if (result == null) {
+                result = new Bounds(lat[i], lon[i], lat[i], lon[i]);
+            } else {
+                result.extend(new LatLon(lat[i], lon[i]));
+            }
+        }
+        return result;
+    }
+
+    private double calculateLength() {
+        double result = 0.0; // in meters
+        for (int i = 1; i < size; i++) {
+            double d = new LatLon(lat[i - 1], lon[i - 1]).greatCircleDistance(new LatLon(lat[i], lon[i]));
+            if (!Double.isNaN(d) && !Double.isInfinite(d)) {
+                result += d;
+            }
+        }
+        return result;
+    }
+
+    public Bounds getBounds() {
+        if (bounds == null)
+            return null;
+        else
+            return new Bounds(bounds);
+    }
+
+    /**
+     * @return new way points with the data of the points of this segment
+     */
+    public List<WayPoint> getWayPoints() {
+        return new AbstractList<WayPoint>() {
+            @Override
+            public WayPoint get(int index) {
+                return getWayPoint(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * @return a new way point with the data of point <code>i</code>
+     */
+    public WayPoint getWayPoint(int i) {
+        if (i < 0 || i >= size)
+            throw new IndexOutOfBoundsException(Integer.toString(i));
+        WayPoint wpt = new WayPoint(new LatLon(lat[i], lon[i]));
+        wpt.time = time[i];
+        Map<String, Object> rest = attributes.get(i);
+        if (rest != null) {
+            wpt.attr.putAll(rest);
+        }
+        if (hasTime[i]) {
+            wpt.attr.put("time", formatTime(time[i]));
+        }
+        if (!Double.isNaN(ele[i])) {
+            wpt.attr.put("ele", formatEle(ele[i]));
+        }
+        if (!Float.isNaN(hdop[i])) {
+            wpt.attr.put("hdop", hdop[i]);
+        }
+        return wpt;
+    }
+
+    /**
+     * @return the number of points
+     */
+    public int size() {
+        return size;
+    }
+
+    public double getLat(int i) {
+        return lat[i];
+    }
+
+    public double getLon(int i) {
+        return lon[i];
+    }
+
+    /**
+     * @return the time of point <code>i</code> in seconds since the epoch, 0 if unknown
+     */
+    public double getTime(int i) {
+        return time[i];
+    }
+
+    /**
+     * @return true, if the time attribute of point <code>i</code> is given by {@link #getTime(int)};
+     * otherwise it may still be one of the remaining attributes
+     */
+    public boolean hasTime(int i) {
+        return hasTime[i];
+    }
+
+    /**
+     * @return the elevation of point <code>i</code>; NaN if unknown or if the <code>ele</code> attribute
+     * is one of the remaining attributes
+     */
+    public double getElevation(int i) {
+        return ele[i];
+    }
+
+    /**
+     * @return the attribute <code>key</code> of point <code>i</code>, if it is not stored in the arrays
+     */
+    public Object getAttribute(int i, String key) {
+        Map<String, Object> rest = attributes.get(i);
+        return rest == null ? null : rest.get(key);
+    }
+
+    /**
+     * @return the hdop of point <code>i</code>, NaN if unknown
+     */
+    public float getHdop(int i) {
+        return hdop[i];
+    }
+
+    public double length() {
+        return length;
+    }
+
+    public int getUpdateCount() {
+        return 0;
+    }
+}
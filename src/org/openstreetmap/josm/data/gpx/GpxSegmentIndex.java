@@ -0,0 +1,393 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.awt.Color;
+import java.util.Arrays;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.projection.Projection;
+
+/**
+ * Spatial index over the points of one track segment, and the state needed
+ * to paint them.
+ *
+ * The points are divided into chunks of {@link #CHUNK_SIZE} consecutive
+ * points, and the chunks into groups of {@link #GROUP_SIZE} chunks. For every
+ * chunk and group the bounding box is kept, so the parts of a long segment
+ * that touch the viewport are found without looking at every point.
+ *
+ * Every chunk also covers the last point of the chunk before it. The line
+ * between two consecutive points is therefore always within the box of one
+ * chunk, and a line crossing the viewport is found even if none of its end
+ * points is visible.
+ *
+ * The coordinates, time and hdop of the points are read from the arrays of a
+ * {@link CompactGpxTrackSegment} directly; for other segments they are taken
+ * from the way points once. The projected coordinates are kept in arrays and
+ * computed again when the projection changes. The line style of every point
+ * (color, whether a line leads to it and its direction) is computed by the
+ * layer, possibly in a background thread, and published as {@link LineStyles}.
+ *
+ * For small scales the index provides simplified versions of the segment,
+ * see {@link #getSimplified(double)}.
+ *
+ * The index is not updated when the segment changes; compare
+ * {@link #getUpdateCount()} to the segment and create a new index if needed.
+ */
+public class GpxSegmentIndex {
+
+    public static final int CHUNK_SIZE = 64;
+    public static final int GROUP_SIZE = 64;
+
+    private final GpxTrackSegment segment;
+    private final int updateCount;
+    private final int size;
+    /** the segment, if it is compact */
+    private final CompactGpxTrackSegment compact;
+    /** the points, if the segment is not compact */
+    private final WayPoint[] points;
+    /** min lat, min lon, max lat, max lon of every chunk */
+    private final double[] chunkBounds;
+    /** min lat, min lon, max lat, max lon of every group */
+    private final double[] groupBounds;
+
+    private Projection projection;
+    private double[] east;
+    private double[] north;
+
+    private volatile LineStyles lineStyles;
+
+    /** number of detail levels, level <code>l</code> drops points closer than 2^l meters */
+    private static final int LEVELS = 24;
+    private final int[][] levels = new int[LEVELS][];
+
+    public GpxSegmentIndex(GpxTrackSegment segment) {
+        this.segment = segment;
+        this.updateCount = segment.getUpdateCount();
+        if (segment instanceof CompactGpxTrackSegment) {
+            compact = (CompactGpxTrackSegment) segment;
+            points = null;
+            size = compact.size();
+        } else {
+            compact = null;
+            points = segment.getWayPoints().toArray(new WayPoint[0]);
+            size = points.length;
+        }
+        int chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        int groups = (chunks + GROUP_SIZE - 1) / GROUP_SIZE;
+        chunkBounds = new double[chunks * 4];
+        groupBounds = new double[groups * 4];
+        Arrays.fill(groupBounds, Double.NaN);
+        for (int c = 0; c < chunks; c++) {
+            int from = Math.max(0, c * CHUNK_SIZE - 1);
+            int to = Math.min(size, (c + 1) * CHUNK_SIZE);
+            double minLat = Double.NaN, minLon = Double.NaN, maxLat = Double.NaN, maxLon = Double.NaN;
+            for (int i = from; i < to; i++) {
+                double lat = getLat(i), lon = getLon(i);
+                if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                    continue;
+                }
+                if (Double.isNaN(minLat)) {
+                    minLat = maxLat = lat;
+                    minLon = maxLon = lon;
+                } else {
+                    minLat = Math.min(minLat, lat);
+                    maxLat = Math.max(maxLat, lat);
+                    minLon = Math.min(minLon, lon);
+                    maxLon = Math.max(maxLon, lon);
+                }
+            }
+            setBounds(chunkBounds, c, minLat, minLon, maxLat, maxLon);
+            extendBounds(groupBounds, c / GROUP_SIZE, minLat, minLon, maxLat, maxLon);
+        }
+    }
+
+    private static void setBounds(double[] bounds, int i, double minLat, double minLon, double maxLat, double maxLon) {
+        bounds[i * 4] = minLat;
+        bounds[i * 4 + 1] = minLon;
+        bounds[i * 4 + 2] = maxLat;
+        bounds[i * 4 + 3] = maxLon;
+    }
+
+    private static void extendBounds(double[] bounds, int i, double minLat, double minLon, double maxLat, double maxLon) {
+        if (Double.isNaN(minLat))
+            return;
+        if (Double.isNaN(bounds[i * 4])) {
+            setBounds(bounds, i, minLat, minLon, maxLat, maxLon);
+        } else {
+            setBounds(bounds, i, Math.min(bounds[i * 4], minLat), Math.min(bounds[i * 4 + 1], minLon),
+                    Math.max(bounds[i * 4 + 2], maxLat), Math.max(bounds[i * 4 + 3], maxLon));
+        }
+    }
+
+    /**
+     * NaN bounds (a chunk without valid points) never intersect.
+     */
+    private static boolean intersects(double[] bounds, int i, double minLat, double minLon, double maxLat, double maxLon) {
+        return bounds[i * 4] <= maxLat && bounds[i * 4 + 2] >= minLat
+        && bounds[i * 4 + 1] <= maxLon && bounds[i * 4 + 3] >= minLon;
+    }
+
+    public GpxTrackSegment getSegment() {
+        return segment;
+    }
+
+    /**
+     * @return the update count of the segment when the index was created
+     */
+    public int getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return true, if the segment has not changed since the index was created
+     */
+    public boolean isUpToDate() {
+        return segment.getUpdateCount() == updateCount;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public double getLat(int i) {
+        return compact != null ? compact.getLat(i) : points[i].getCoor().lat();
+    }
+
+    public double getLon(int i) {
+        return compact != null ? compact.getLon(i) : points[i].getCoor().lon();
+    }
+
+    /**
+     * @return the time of point <code>i</code> in seconds since the epoch, 0 if unknown
+     */
+    public double getTime(int i) {
+        return compact != null ? compact.getTime(i) : points[i].time;
+    }
+
+    /**
+     * @return the hdop of point <code>i</code>, NaN if unknown
+     */
+    public float getHdop(int i) {
+        if (compact != null)
+            return compact.getHdop(i);
+        Object hdop = points[i].attr.get("hdop");
+        return hdop instanceof Float ? (Float) hdop : Float.NaN;
+    }
+
+    private void project() {
+        if (projection == Main.proj)
+            return;
+        projection = Main.proj;
+        east = new double[size];
+        north = new double[size];
+        for (int i = 0; i < size; i++) {
+            double lat = getLat(i), lon = getLon(i);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                east[i] = north[i] = Double.NaN;
+            } else {
+                EastNorth en = projection.latlon2eastNorth(new LatLon(lat, lon));
+                east[i] = en.east();
+                north[i] = en.north();
+            }
+        }
+    }
+
+    /**
+     * @return the east coordinate of point <code>i</code> in the current projection, NaN if the point has no
+     * valid position
+     */
+    public double getEast(int i) {
+        project();
+        return east[i];
+    }
+
+    /**
+     * @return the north coordinate of point <code>i</code> in the current projection, NaN if the point has no
+     * valid position
+     */
+    public double getNorth(int i) {
+        project();
+        return north[i];
+    }
+
+    /**
+     * @return the line styles of the points, null if not yet computed
+     */
+    public LineStyles getLineStyles() {
+        return lineStyles;
+    }
+
+    /**
+     * Replaces the line styles of the points. May be called from any thread.
+     */
+    public void setLineStyles(LineStyles lineStyles) {
+        if (lineStyles.colors.length != size)
+            throw new IllegalArgumentException();
+        this.lineStyles = lineStyles;
+    }
+
+    /**
+     * How the points of a segment are painted. Filled in once and not changed
+     * after it is passed to {@link GpxSegmentIndex#setLineStyles(LineStyles)}.
+     */
+    public static class LineStyles {
+        private final Color[] colors;
+        private final boolean[] drawLine;
+        private final byte[] dir;
+
+        public LineStyles(int size) {
+            colors = new Color[size];
+            drawLine = new boolean[size];
+            dir = new byte[size];
+        }
+
+        /**
+         * Sets how point <code>i</code> is painted.
+         *
+         * @param color the color of the point and the line leading to it
+         * @param line true, if a line is drawn from the previous point
+         * @param direction the direction of the line, as index into the arrow lookup table of the layer
+         */
+        public void set(int i, Color color, boolean line, int direction) {
+            colors[i] = color;
+            drawLine[i] = line;
+            dir[i] = (byte) direction;
+        }
+
+        public Color getColor(int i) {
+            return colors[i];
+        }
+
+        public boolean isDrawLine(int i) {
+            return drawLine[i];
+        }
+
+        public int getDir(int i) {
+            return dir[i];
+        }
+    }
+
+    /**
+     * Returns the points needed to paint the segment, when distances below
+     * <code>tolerance</code> can not be seen. The points of the detail levels
+     * are computed when they are used the first time.
+     *
+     * A point is dropped if it is nearer than the tolerance of the level to the
+     * last point that is kept (radial distance). As every level is computed from
+     * the finer one, the simplified line deviates from the original by less than
+     * twice the tolerance of the level; the coarsest level for which this is at
+     * most <code>tolerance</code> is used. The first and the last point are
+     * always kept, points without valid coordinates never.
+     *
+     * The line styles of the dropped points are not carried over to the points
+     * that are kept: a gap in the lines (no line leading to a dropped point) is
+     * not painted, and the color of a kept point is the one computed from its
+     * original predecessor, e.g. the velocity of its last piece of the track.
+     *
+     * @param tolerance the distance in meters that need not be distinguished,
+     * e.g. the size of a pixel
+     * @return the indices of the points to paint in ascending order, or null if
+     * all points are needed
+     */
+    public int[] getSimplified(double tolerance) {
+        int level = -1;
+        // level l deviates by less than 2^(l+1) meters
+        while (level + 1 < LEVELS && (1 << (level + 2)) <= tolerance) {
+            level++;
+        }
+        return level < 0 ? null : getLevel(level);
+    }
+
+    private int[] getLevel(int level) {
+        if (levels[level] == null) {
+            // every level refines the level before it
+            levels[level] = simplify(level == 0 ? null : getLevel(level - 1), 1 << level);
+        }
+        return levels[level];
+    }
+
+    private int[] simplify(int[] points, double tolerance) {
+        int n = points == null ? size : points.length;
+        int[] result = new int[Math.min(n, 16)];
+        int count = 0;
+        // the last point kept and the last valid point
+        int kept = -1, last = -1;
+        double keptLat = 0, keptLon = 0, cos = 0;
+        double latFactor = 111320 / tolerance;
+        for (int k = 0; k < n; k++) {
+            int i = points == null ? k : points[k];
+            double lat = getLat(i), lon = getLon(i);
+            if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                continue;
+            }
+            last = i;
+            if (kept >= 0) {
+                // in units of the tolerance, good enough for short distances
+                double dy = (lat - keptLat) * latFactor;
+                double dx = (lon - keptLon) * latFactor * cos;
+                if (dx * dx + dy * dy < 1) {
+                    continue;
+                }
+            }
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count * 2);
+            }
+            result[count++] = i;
+            kept = i;
+            keptLat = lat;
+            keptLon = lon;
+            cos = Math.cos(Math.toRadians(lat));
+        }
+        if (last != kept) {
+            if (count == result.length) {
+                result = Arrays.copyOf(result, count + 1);
+            }
+            result[count++] = last;
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Finds the points that may be visible in <code>box</code>.
+     *
+     * @param box the visible area
+     * @return ranges of point indices, as pairs of the first index and the index after the last
+     * point, in ascending order. A range that does not start at the beginning of the segment
+     * starts with the point before the first visible line.
+     */
+    public int[] getVisibleRanges(Bounds box) {
+        double minLat = box.getMin().lat(), minLon = box.getMin().lon();
+        double maxLat = box.getMax().lat(), maxLon = box.getMax().lon();
+        int[] ranges = new int[8];
+        int count = 0;
+        int chunks = chunkBounds.length / 4;
+        for (int gr = 0; gr < groupBounds.length / 4; gr++) {
+            if (!intersects(groupBounds, gr, minLat, minLon, maxLat, maxLon)) {
+                continue;
+            }
+            int lastChunk = Math.min(chunks, (gr + 1) * GROUP_SIZE);
+            for (int c = gr * GROUP_SIZE; c < lastChunk; c++) {
+                if (!intersects(chunkBounds, c, minLat, minLon, maxLat, maxLon)) {
+                    continue;
+                }
+                int from = Math.max(0, c * CHUNK_SIZE - 1);
+                int to = Math.min(size, (c + 1) * CHUNK_SIZE);
+                if (count > 0 && ranges[count - 1] >= from) {
+                    // continues the previous chunk
+                    ranges[count - 1] = to;
+                } else {
+                    if (count == ranges.length) {
+                        ranges = Arrays.copyOf(ranges, count * 2);
+                    }
+                    ranges[count++] = from;
+                    ranges[count++] = to;
+                }
+            }
+        }
+        return Arrays.copyOf(ranges, count);
+    }
+}
@@ -18,16 +18,27 @@ public class ImmutableGpxTrack implements GpxTrack {
     private final Bounds bounds;
 
     public ImmutableGpxTrack(Collection<Collection<WayPoint>> trackSegs, Map<String, Object> attributes) {
+        this(attributes, createSegments(trackSegs));
+    }
+
+    /**
+     * Creates a track of existing segments, e.g. {@link CompactGpxTrackSegment}s.
+     */
+    public ImmutableGpxTrack(Map<String, Object> attributes, Collection<? extends GpxTrackSegment> segments) {
+        this.attributes = Collections.unmodifiableMap(new HashMap<String, Object>(attributes));
+        this.segments = Collections.unmodifiableCollection(new ArrayList<GpxTrackSegment>(segments));
+        this.length = calculateLength();
+        this.bounds = calculateBounds();
+    }
+
+    private static List<GpxTrackSegment> createSegments(Collection<Collection<WayPoint>> trackSegs) {
         List<GpxTrackSegment> newSegments = new ArrayList<GpxTrackSegment>();
         for (Collection<WayPoint> trackSeg: trackSegs) {
             if (trackSeg != null && !trackSeg.isEmpty()) {
                 newSegments.add(new ImmutableGpxTrackSegment(trackSeg));
             }
         }
-        this.attributes = Collections.unmodifiableMap(new HashMap<String, Object>(attributes));
-        this.segments = Collections.unmodifiableCollection(newSegments);
-        this.length = calculateLength();
-        this.bounds = calculateBounds();
+        return newSegments;
     }
 
     private double calculateLength(){
@@ -14,6 +14,7 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -110,6 +111,8 @@ public class DataSet implements Cloneable {
     private final List<AbstractDatasetChangedEvent> cachedEvents = new ArrayList<AbstractDatasetChangedEvent>();
 
     private int highlightUpdateCount;
+    private final Set<OsmPrimitive> highlightedPrimitives = new LinkedHashSet<OsmPrimitive>();
+    private int filterUpdateCount;
 
     private final ReadWriteLock lock = new ReentrantReadWriteLock();
     private final Object selectionLock = new Object();
@@ -127,6 +130,15 @@ public class DataSet implements Cloneable {
         return highlightUpdateCount;
     }
 
+    /**
+     * This method can be used to detect changes in the disabled state of primitives, i.e. filter changes.
+     * If the disabled state was changed then the method will return different number.
+     * @return
+     */
+    public int getFilterUpdateCount() {
+        return filterUpdateCount;
+    }
+
     /**
      * Maintain a list of used tags for autocompletion
      */
@@ -945,6 +957,38 @@ public class DataSet implements Cloneable {
 
     void fireHighlightingChanged(OsmPrimitive primitive) {
         highlightUpdateCount++;
+        synchronized (highlightedPrimitives) {
+            if (primitive.isHighlighted()) {
+                highlightedPrimitives.add(primitive);
+            } else {
+                highlightedPrimitives.remove(primitive);
+            }
+        }
+    }
+
+    /**
+     * Replies the primitives of this dataset that are currently highlighted.
+     * May be empty, but not null.
+     *
+     * @return a copy of the highlighted primitives
+     */
+    public Collection<OsmPrimitive> getHighlighted() {
+        synchronized (highlightedPrimitives) {
+            List<OsmPrimitive> result = new ArrayList<OsmPrimitive>(highlightedPrimitives.size());
+            for (Iterator<OsmPrimitive> it = highlightedPrimitives.iterator(); it.hasNext();) {
+                OsmPrimitive osm = it.next();
+                if (osm.getDataSet() != this) {
+                    it.remove();
+                } else {
+                    result.add(osm);
+                }
+            }
+            return result;
+        }
+    }
+
+    void fireFilterChanged(OsmPrimitive primitive) {
+        filterUpdateCount++;
     }
 
     public void cleanupDeletedPrimitives() {
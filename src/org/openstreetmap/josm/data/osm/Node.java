@@ -52,6 +52,7 @@ public final class Node extends OsmPrimitive {
      * To be used only by Dataset.reindexNode
      */
     protected void setCoorInternal(LatLon coor, EastNorth eastNorth) {
+        mappaintViewCode = 0;
         if(this.coor == null) {
             if (eastNorth == null) {
                 this.coor = new CachedLatLon(coor);
@@ -67,6 +68,20 @@ public final class Node extends OsmPrimitive {
         }
     }
 
+    /* mappaint data */
+    /**
+     * Screen position of this node for the view transform identified by
+     * {@link #mappaintViewCode}. Maintained by the map painters, see
+     * {@link org.openstreetmap.josm.data.osm.visitor.paint.ScreenPointCache}.
+     */
+    public int mappaintX, mappaintY;
+    public int mappaintViewCode = 0;
+    /* end of mappaint data */
+    @Override public void clearCached() {
+        super.clearCached();
+        mappaintViewCode = 0;
+    }
+
     protected Node(long id, boolean allowNegative) {
         super(id, allowNegative);
     }
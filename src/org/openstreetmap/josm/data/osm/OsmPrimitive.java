@@ -622,7 +622,12 @@ abstract public class OsmPrimitive implements Comparable<OsmPrimitive>, Tagged,
             int oldFlags = flags;
             updateFlagsNoLock(FLAG_DISABLED, true);
             updateFlagsNoLock(FLAG_HIDE_IF_DISABLED, hide);
-            return oldFlags != flags;
+            if (oldFlags == flags)
+                return false;
+            if (dataSet != null) {
+                dataSet.fireFilterChanged(this);
+            }
+            return true;
         } finally {
             writeUnlock(locked);
         }
@@ -638,7 +643,12 @@ abstract public class OsmPrimitive implements Comparable<OsmPrimitive>, Tagged,
         try {
             int oldFlags = flags;
             updateFlagsNoLock(FLAG_DISABLED + FLAG_HIDE_IF_DISABLED, false);
-            return oldFlags != flags;
+            if (oldFlags == flags)
+                return false;
+            if (dataSet != null) {
+                dataSet.fireFilterChanged(this);
+            }
+            return true;
         } finally {
             writeUnlock(locked);
         }
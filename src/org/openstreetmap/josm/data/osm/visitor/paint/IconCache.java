@@ -0,0 +1,135 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.GrayFilter;
+import javax.swing.ImageIcon;
+
+import org.openstreetmap.josm.tools.ImageProvider;
+
+/**
+ * Ready to draw variants of the icons of the map paint styles.
+ *
+ * The icons of the styles are toolkit images. Painting one of them with a
+ * gray filter, rotated or scaled means producing a new image on every paint.
+ * This cache keeps every variant that is actually drawn (normal or disabled,
+ * optionally rotated and scaled) as image compatible with the graphics
+ * device, so the painter draws a node icon with a single
+ * {@link Graphics2D#drawImage(Image, int, int, java.awt.image.ImageObserver)}
+ * and Java2D may keep the image in video memory.
+ *
+ * The cache is shared by all paints. The variants are kept per graphics
+ * configuration, as the layer images and the map view buffer may differ, and
+ * rotations are rounded to {@link #ANGLE_STEP} degrees. Must be used in the
+ * event dispatch thread only.
+ */
+public class IconCache {
+
+    private static final int MAX_IMAGES = 2000;
+
+    /** rotations are rounded to this many degrees */
+    private static final int ANGLE_STEP = 2;
+
+    private static class Key {
+        private final GraphicsConfiguration gc;
+        private final Image image;
+        private final boolean disabled;
+        private final int angle;
+        private final int size;
+
+        public Key(GraphicsConfiguration gc, Image image, boolean disabled, int angle, int size) {
+            this.gc = gc;
+            this.image = image;
+            this.disabled = disabled;
+            this.angle = angle;
+            this.size = size;
+        }
+
+        @Override
+        public int hashCode() {
+            return (System.identityHashCode(image) * 31 + System.identityHashCode(gc)) * 31
+            + (disabled ? 1 : 0) + angle * 17 + size;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return image == other.image && gc == other.gc && disabled == other.disabled
+            && angle == other.angle && size == other.size;
+        }
+    }
+
+    private static final Map<Key, BufferedImage> images = new LinkedHashMap<Key, BufferedImage>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, BufferedImage> eldest) {
+            return size() > MAX_IMAGES;
+        }
+    };
+
+    /**
+     * Replies the image to draw for a node icon.
+     *
+     * @param g the graphics the image will be drawn on
+     * @param icon the icon of the style
+     * @param disabled true for the grayed variant
+     */
+    public static BufferedImage getImage(Graphics2D g, ImageIcon icon, boolean disabled) {
+        return getImage(g, icon, disabled, 0, 0);
+    }
+
+    /**
+     * Replies the image to draw for a rotated and scaled icon, like the icon of a turn restriction.
+     *
+     * @param g the graphics the image will be drawn on
+     * @param icon the icon of the style
+     * @param disabled true for the grayed variant
+     * @param angle the rotation in degrees
+     * @param size the width and height of the image, 0 to keep the size of the icon
+     */
+    public static BufferedImage getImage(Graphics2D g, ImageIcon icon, boolean disabled, double angle, int size) {
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        int steps = (int) Math.round(angle / ANGLE_STEP) % (360 / ANGLE_STEP);
+        if (steps < 0) {
+            steps += 360 / ANGLE_STEP;
+        }
+        Key key = new Key(gc, icon.getImage(), disabled, steps * ANGLE_STEP, size);
+        BufferedImage image = images.get(key);
+        if (image == null) {
+            image = createImage(gc, icon, disabled, key.angle, size);
+            images.put(key, image);
+        }
+        return image;
+    }
+
+    private static BufferedImage createImage(GraphicsConfiguration gc, ImageIcon icon, boolean disabled,
+            double angle, int size) {
+        ImageIcon variant = icon;
+        if (disabled) {
+            variant = new ImageIcon(GrayFilter.createDisabledImage(variant.getImage()));
+        }
+        if (angle != 0 || size != 0) {
+            variant = ImageProvider.createRotatedImage(null, variant, angle);
+        }
+        if (size != 0) {
+            variant = new ImageIcon(variant.getImage().getScaledInstance(size, size, Image.SCALE_SMOOTH));
+        }
+        int w = Math.max(1, variant.getIconWidth());
+        int h = Math.max(1, variant.getIconHeight());
+        BufferedImage image = gc == null
+        ? new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB)
+        : gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT);
+        Graphics2D g = image.createGraphics();
+        g.drawImage(variant.getImage(), 0, 0, null);
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,149 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.font.FontRenderContext;
+import java.awt.font.TextLayout;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text layout and placement of the labels drawn by the {@link MapPainter}.
+ *
+ * The layout of a label text is kept in a small LRU cache shared by all
+ * paints, so the names of the visible primitives are laid out only once
+ * while the font and rendering hints stay the same.
+ *
+ * An instance records the screen area taken by the labels of one paint in a
+ * grid of cells. A label that would overlap a label drawn before is skipped.
+ */
+public class LabelCache {
+
+    /**
+     * A laid out label text.
+     */
+    public static class Label {
+        private final TextLayout layout;
+        private final Rectangle2D bounds;
+
+        private Label(TextLayout layout) {
+            this.layout = layout;
+            // same as FontMetrics.getStringBounds()
+            float ascent = layout.getAscent();
+            this.bounds = new Rectangle2D.Float(0, -ascent, layout.getAdvance(),
+                    ascent + layout.getDescent() + layout.getLeading());
+        }
+
+        /**
+         * @return the logical bounds of the text, relative to the start of the base line
+         */
+        public Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        public void draw(Graphics2D g, int x, int y) {
+            layout.draw(g, x, y);
+        }
+    }
+
+    private static final int MAX_LABELS = 5000;
+    private static final int CELL_SIZE = 64;
+
+    private static Font cachedFont;
+    private static FontRenderContext cachedFrc;
+    private static final Map<String, Label> labels = new LinkedHashMap<String, Label>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Label> eldest) {
+            return size() > MAX_LABELS;
+        }
+    };
+
+    /**
+     * Replies the layout of <code>text</code>. Must be called in the event dispatch thread.
+     *
+     * @return the label or null, if <code>text</code> is empty
+     */
+    public static Label getLabel(String text, Font font, FontRenderContext frc) {
+        if (text.length() == 0)
+            return null;
+        if (!font.equals(cachedFont) || !frc.equals(cachedFrc)) {
+            labels.clear();
+            cachedFont = font;
+            cachedFrc = frc;
+        }
+        Label label = labels.get(text);
+        if (label == null) {
+            label = new Label(new TextLayout(text, font, frc));
+            labels.put(text, label);
+        }
+        return label;
+    }
+
+    private final boolean avoidOverlap;
+    private final int columns;
+    private final int rows;
+    private final List<List<Rectangle>> cells;
+
+    /**
+     * @param width the width of the screen
+     * @param height the height of the screen
+     * @param avoidOverlap false, if labels should be drawn even if they overlap
+     */
+    public LabelCache(int width, int height, boolean avoidOverlap) {
+        this.avoidOverlap = avoidOverlap;
+        this.columns = Math.max(1, width / CELL_SIZE + 1);
+        this.rows = Math.max(1, height / CELL_SIZE + 1);
+        int size = avoidOverlap ? columns * rows : 0;
+        this.cells = new ArrayList<List<Rectangle>>(size);
+        for (int i = 0; i < size; i++) {
+            cells.add(null);
+        }
+    }
+
+    /**
+     * Reserves the screen area of a label.
+     *
+     * @param bounds the screen bounds of the label
+     * @return false, if the area overlaps a label placed before. Nothing is reserved in that case.
+     */
+    public boolean place(Rectangle bounds) {
+        if (!avoidOverlap)
+            return true;
+        int c1 = clamp(bounds.x / CELL_SIZE, columns);
+        int c2 = clamp((bounds.x + bounds.width) / CELL_SIZE, columns);
+        int r1 = clamp(bounds.y / CELL_SIZE, rows);
+        int r2 = clamp((bounds.y + bounds.height) / CELL_SIZE, rows);
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                List<Rectangle> cell = cells.get(r * columns + c);
+                if (cell != null) {
+                    for (Rectangle other : cell) {
+                        if (other.intersects(bounds))
+                            return false;
+                    }
+                }
+            }
+        }
+        for (int r = r1; r <= r2; r++) {
+            for (int c = c1; c <= c2; c++) {
+                int index = r * columns + c;
+                List<Rectangle> cell = cells.get(index);
+                if (cell == null) {
+                    cell = new ArrayList<Rectangle>(4);
+                    cells.set(index, cell);
+                }
+                cell.add(bounds);
+            }
+        }
+        return true;
+    }
+
+    private static int clamp(int i, int size) {
+        return i < 0 ? 0 : (i >= size ? size - 1 : i);
+    }
+}
@@ -30,7 +30,8 @@ import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.osm.visitor.AbstractVisitor;
-import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon;
+import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonCache;
+import org.openstreetmap.josm.data.osm.visitor.paint.relations.MultipolygonRings;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.PolyData;
 import org.openstreetmap.josm.gui.DefaultNameFormatter;
 import org.openstreetmap.josm.gui.NavigatableComponent;
@@ -58,9 +59,20 @@ public class MapPaintVisitor implements PaintVisitor {
     private EastNorth minEN;
     private EastNorth maxEN;
     private MapPainter painter;
+    private ScreenPointCache points;
     private MapPaintSettings paintSettings;
 
     private boolean inactive;
+    /** paint as if nothing was selected or highlighted, see {@link #visitUnselected(DataSet, boolean, Bounds)} */
+    private boolean hideSelection;
+    private int fillAreas;
+    private boolean areasFilled;
+    /** paint fast rather than nice, see NavigatableComponent#isInteracting() */
+    private boolean fast;
+    /** full quality paint given up because of new input */
+    private boolean cancelled;
+    private int cancelCheckCount;
+    private PaintStatistics statistics = new PaintStatistics();
 
     protected boolean isZoomOk(ElemStyle e) {
         if (!zoomLevelDisplay) /* show everything if the user wishes so */
@@ -73,8 +85,10 @@ public class MapPaintVisitor implements PaintVisitor {
     }
 
     public ElemStyle getPrimitiveStyle(OsmPrimitive osm, boolean nodefault) {
-        if(osm.mappaintStyle == null)
-        {
+        if(osm.mappaintStyle != null) {
+            statistics.styleCacheHit();
+        } else {
+            statistics.styleCacheMiss();
             if(styles != null) {
                 osm.mappaintStyle = styles.get(osm);
                 if(osm instanceof Way) {
@@ -94,8 +108,12 @@ public class MapPaintVisitor implements PaintVisitor {
     }
 
     public IconElemStyle getPrimitiveNodeStyle(OsmPrimitive osm) {
-        if(osm.mappaintStyle == null && styles != null)
+        if(osm.mappaintStyle != null) {
+            statistics.styleCacheHit();
+        } else if (styles != null) {
+            statistics.styleCacheMiss();
             osm.mappaintStyle = styles.getIcon(osm);
+        }
 
         return (IconElemStyle)osm.mappaintStyle;
     }
@@ -109,6 +127,9 @@ public class MapPaintVisitor implements PaintVisitor {
     }
 
     public void drawNode(Node n) {
+        if (isCancelled())
+            return;
+        statistics.visited();
         /* check, if the node is visible at all */
         EastNorth en = n.getEastNorth();
         if((en.east()  > maxEN.east() ) ||
@@ -120,14 +141,16 @@ public class MapPaintVisitor implements PaintVisitor {
         ElemStyle nodeStyle = getPrimitiveStyle(n, false);
 
         if (isZoomOk(nodeStyle)) {
-            nodeStyle.paintPrimitive(n, paintSettings, painter, data.isSelected(n),
+            statistics.drawn();
+            nodeStyle.paintPrimitive(n, paintSettings, painter, isSelected(n),
             false);
         }
     }
 
     public void drawWay(Way w, int fillAreas) {
-        if(w.getNodesCount() < 2)
+        if(w.getNodesCount() < 2 || isCancelled())
             return;
+        statistics.visited();
 
         if (w.hasIncompleteNodes())
             return;
@@ -165,23 +188,27 @@ public class MapPaintVisitor implements PaintVisitor {
         if(!isZoomOk(wayStyle))
             return;
 
+        statistics.drawn();
         if(wayStyle instanceof LineElemStyle) {
-            wayStyle.paintPrimitive(w, paintSettings, painter, data.isSelected(w), false);
+            wayStyle.paintPrimitive(w, paintSettings, painter, isSelected(w), false);
         } else if (wayStyle instanceof AreaElemStyle) {
             AreaElemStyle areaStyle = (AreaElemStyle) wayStyle;
             /* way with area style */
             if (fillAreas > dist)
             {
-                painter.drawArea(getPolygon(w), (data.isSelected(w) ? paintSettings.getSelectedColor() : areaStyle.color), painter.getAreaName(w));
+                painter.drawArea(getPolygon(w), (isSelected(w) ? paintSettings.getSelectedColor() : areaStyle.color), painter.getAreaName(w));
             }
-            areaStyle.getLineStyle().paintPrimitive(w, paintSettings, painter, data.isSelected(w), false);
+            areaStyle.getLineStyle().paintPrimitive(w, paintSettings, painter, isSelected(w), false);
         }
     }
 
     public void paintUnselectedRelation(Relation r) {
-        if (drawMultipolygon && "multipolygon".equals(r.get("type")))
-            drawMultipolygon(r);
-        else if (drawRestriction && "restriction".equals(r.get("type")))
+        statistics.visited();
+        if (drawMultipolygon && "multipolygon".equals(r.get("type"))) {
+            if (drawMultipolygon(r)) {
+                statistics.drawn();
+            }
+        } else if (drawRestriction && "restriction".equals(r.get("type")))
             drawRestriction(r);
     }
 
@@ -276,8 +303,8 @@ public class MapPaintVisitor implements PaintVisitor {
             fromNode = fromWay.getNode(fromWay.getNodesCount()-2);
         }
 
-        Point pFrom = nc.getPoint(fromNode);
-        Point pVia = nc.getPoint(viaNode);
+        Point pFrom = points.getPoint(fromNode);
+        Point pVia = points.getPoint(viaNode);
 
         /* starting from via, go back the "from" way a few pixels
            (calculate the vector vx/vy with the specified length and the direction
@@ -361,15 +388,15 @@ public class MapPaintVisitor implements PaintVisitor {
             return;
         }
 
-        painter.drawRestriction(inactive || r.isDisabled() ? nodeStyle.getDisabledIcon() : nodeStyle.icon,
-                pVia, vx, vx2, vy, vy2, iconAngle, data.isSelected(r));
+        statistics.drawn();
+        painter.drawRestriction(nodeStyle.icon, inactive || r.isDisabled(),
+                pVia, vx, vx2, vy, vy2, iconAngle, isSelected(r));
     }
 
     public boolean drawMultipolygon(Relation r) {
         boolean drawn = false;
 
-        Multipolygon multipolygon = new Multipolygon(nc);
-        multipolygon.load(r);
+        MultipolygonRings multipolygon = MultipolygonCache.getInstance().get(r);
 
         ElemStyle wayStyle = getPrimitiveStyle(r, false);
 
@@ -393,13 +420,13 @@ public class MapPaintVisitor implements PaintVisitor {
 
             if(zoomok && !disabled && !multipolygon.getOuterWays().isEmpty()) {
                 AreaElemStyle areaStyle = (AreaElemStyle)wayStyle;
-                for (PolyData pd : multipolygon.getCombinedPolygons()) {
+                for (PolyData pd : multipolygon.getCombinedPolygons(points)) {
                     Polygon p = pd.get();
                     if(!isPolygonVisible(p)) {
                         continue;
                     }
 
-                    boolean selected = pd.selected || data.isSelected(r);
+                    boolean selected = (pd.selected && !hideSelection) || isSelected(r);
                     painter.drawArea(p, selected ? paintSettings.getRelationSelectedColor()
                     : areaStyle.color, painter.getAreaName(r));
                     visible = true;
@@ -411,11 +438,11 @@ public class MapPaintVisitor implements PaintVisitor {
             for (Way wInner : multipolygon.getInnerWays()) {
                 ElemStyle innerStyle = getPrimitiveStyle(wInner, true);
                 if(innerStyle == null) {
-                    if (data.isSelected(wInner) || disabled)
+                    if (isSelected(wInner) || disabled)
                         continue;
                     if(zoomok && (wInner.mappaintDrawnCode != paintid || multipolygon.getOuterWays().isEmpty())) {
                         ((AreaElemStyle)wayStyle).getLineStyle().paintPrimitive(wInner, paintSettings,
-                        painter, (data.isSelected(wInner) || data.isSelected(r)), false);
+                        painter, (isSelected(wInner) || isSelected(r)), false);
                     }
                     wInner.mappaintDrawnCode = paintid;
                 }
@@ -424,7 +451,7 @@ public class MapPaintVisitor implements PaintVisitor {
                     if(wayStyle.equals(innerStyle))
                     {
                         wInner.mappaintDrawnAreaCode = paintid;
-                        if(!data.isSelected(wInner))
+                        if(!isSelected(wInner))
                         {
                             wInner.mappaintDrawnCode = paintid;
                             drawWay(wInner, 0);
@@ -436,16 +463,16 @@ public class MapPaintVisitor implements PaintVisitor {
                 ElemStyle outerStyle = getPrimitiveStyle(wOuter, true);
                 if(outerStyle == null) {
                     // Selected ways are drawn at the very end
-                    if (data.isSelected(wOuter))
+                    if (isSelected(wOuter))
                         continue;
                     if(zoomok) {
                         ((AreaElemStyle)wayStyle).getLineStyle().paintPrimitive(wOuter, paintSettings, painter,
-                        (data.isSelected(wOuter) || data.isSelected(r)), r.isSelected());
+                        (isSelected(wOuter) || isSelected(r)), isSelected(r));
                     }
                     wOuter.mappaintDrawnCode = paintid;
                 } else if(outerStyle instanceof AreaElemStyle) {
                     wOuter.mappaintDrawnAreaCode = paintid;
-                    if(!data.isSelected(wOuter)) {
+                    if(!isSelected(wOuter)) {
                         wOuter.mappaintDrawnCode = paintid;
                         drawWay(wOuter, 0);
                     }
@@ -467,14 +494,17 @@ public class MapPaintVisitor implements PaintVisitor {
 
     protected Polygon getPolygon(Way w)
     {
-        Polygon polygon = new Polygon();
+        int count = w.getNodesCount();
+        int[] xpoints = new int[count];
+        int[] ypoints = new int[count];
 
-        for (Node n : w.getNodes())
+        for (int i = 0; i < count; i++)
         {
-            Point p = nc.getPoint(n);
-            polygon.addPoint(p.x,p.y);
+            Node n = w.getNode(i);
+            xpoints[i] = points.getX(n);
+            ypoints[i] = points.getY(n);
         }
-        return polygon;
+        return new Polygon(xpoints, ypoints, count);
     }
 
     protected Point2D getCentroid(Polygon p)
@@ -512,8 +542,8 @@ public class MapPaintVisitor implements PaintVisitor {
         Collections.sort(sorted,
                 new Comparator<T>() {
             public int compare(T o1, T o2) {
-                boolean s1 = data.isSelected(o1);
-                boolean s2 = data.isSelected(o2);
+                boolean s1 = isSelected(o1);
+                boolean s2 = isSelected(o2);
                 if (s1 && !s2)
                     return 1;
                 if (!s1 && s2)
@@ -524,13 +554,16 @@ public class MapPaintVisitor implements PaintVisitor {
         return sorted;
     }
 
-    /* Shows areas before non-areas */
-    public void visitAll(DataSet data, boolean virtual, Bounds bounds) {
-        BBox bbox = new BBox(bounds);
+    protected boolean isSelected(OsmPrimitive osm) {
+        return !hideSelection && data.isSelected(osm);
+    }
+
+    private void prepare(DataSet data, boolean virtual) {
         this.data = data;
         ++paintid;
+        statistics = new PaintStatistics();
 
-        int fillAreas = Main.pref.getInteger("mappaint.fillareas", 10000000);
+        fillAreas = Main.pref.getInteger("mappaint.fillareas", 10000000);
         LatLon ll1 = nc.getLatLon(0, 0);
         LatLon ll2 = nc.getLatLon(100, 0);
         dist = ll1.greatCircleDistance(ll2);
@@ -544,78 +577,207 @@ public class MapPaintVisitor implements PaintVisitor {
         minEN = nc.getEastNorth(0, nc.getHeight() - 1);
         maxEN = nc.getEastNorth(nc.getWidth() - 1, 0);
 
+        fast = nc.isInteracting();
+        cancelled = false;
         g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
-                Main.pref.getBoolean("mappaint.use-antialiasing", false) ?
+                !fast && Main.pref.getBoolean("mappaint.use-antialiasing", false) ?
                         RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
 
         this.paintSettings = MapPaintSettings.INSTANCE;
-        this.painter = new MapPainter(paintSettings, g, inactive, nc, virtual, dist, circum);
+        this.points = new ScreenPointCache(nc);
+        this.painter = new MapPainter(paintSettings, g, inactive, nc, points, virtual, dist, circum, fast, hideSelection);
+        areasFilled = fillAreas > dist && styles != null && styles.hasAreas();
+        if (!areasFilled) {
+            drawMultipolygon = false;
+        }
+    }
 
-        if (fillAreas > dist && styles != null && styles.hasAreas()) {
+    /* Shows areas before non-areas */
+    public void visitAll(DataSet data, boolean virtual, Bounds bounds) {
+        hideSelection = false;
+        paint(data, virtual, bounds);
+    }
+
+    public void visitUnselected(DataSet data, boolean virtual, Bounds bounds) {
+        hideSelection = true;
+        paint(data, virtual, bounds);
+    }
+
+    private void paint(DataSet data, boolean virtual, Bounds bounds) {
+        BBox bbox = new BBox(bounds);
+        prepare(data, virtual);
+
+        if (areasFilled) {
             Collection<Way> noAreaWays = new LinkedList<Way>();
             final Collection<Way> ways = data.searchWays(bbox);
 
             /*** disabled ***/
+            statistics.startPass("disabled");
             for (final Way osm : ways) {
                 if (osm.isDisabled() && osm.isDrawable() && osm.mappaintDrawnCode != paintid) {
                     drawWay(osm, 0);
                     osm.mappaintDrawnCode = paintid;
                 }
             }
+            painter.flush();
 
             /*** RELATIONS ***/
+            statistics.startPass("relations");
             for (final Relation osm: data.searchRelations(bbox)) {
                 if (osm.isDrawable()) {
                     paintUnselectedRelation(osm);
                 }
             }
+            painter.flush();
 
             /*** AREAS ***/
-            for (final Way osm : selectedLast(data, ways)) {
+            statistics.startPass("areas");
+            for (final Way osm : hideSelection ? ways : selectedLast(data, ways)) {
                 if (osm.isDrawable() && osm.mappaintDrawnCode != paintid) {
                     if (isPrimitiveArea(osm)) {
                         if(osm.mappaintDrawnAreaCode != paintid)
                             drawWay(osm, fillAreas);
-                    } else if(!data.isSelected(osm)) {
+                    } else if(!isSelected(osm)) {
                         noAreaWays.add(osm);
                     }
                 }
             }
+            painter.flush();
 
             /*** WAYS ***/
+            statistics.startPass("ways");
             for (final Way osm : noAreaWays) {
                 drawWay(osm, 0);
                 osm.mappaintDrawnCode = paintid;
             }
         } else {
-            drawMultipolygon = false;
             final Collection<Way> ways = data.searchWays(bbox);
 
             /*** WAYS (disabled)  ***/
+            statistics.startPass("disabled");
             for (final Way way: ways) {
-                if (way.isDisabled() && way.isDrawable() && !data.isSelected(way)) {
+                if (way.isDisabled() && way.isDrawable() && !isSelected(way)) {
                     drawWay(way, 0);
                     way.mappaintDrawnCode = paintid;
                 }
             }
+            painter.flush();
 
             /*** RELATIONS ***/
+            statistics.startPass("relations");
             for (final Relation osm: data.searchRelations(bbox)) {
                 if (osm.isDrawable()) {
                     paintUnselectedRelation(osm);
                 }
             }
+            painter.flush();
 
             /*** WAYS (filling disabled)  ***/
+            statistics.startPass("ways");
             for (final Way way: ways) {
-                if (way.isDrawable() && !data.isSelected(way)) {
+                if (way.isDrawable() && !isSelected(way)) {
                     drawWay(way, 0);
                 }
             }
         }
+        painter.flush();
 
         /*** SELECTED  ***/
-        for (final OsmPrimitive osm : data.getSelected()) {
+        if (!hideSelection) {
+            statistics.startPass("selected");
+            drawSelected(data.getSelected());
+            painter.flush();
+        }
+
+        /*** NODES ***/
+        statistics.startPass("nodes");
+        for (final Node osm: data.searchNodes(bbox)) {
+            if (!osm.isIncomplete() && !osm.isDeleted() && (isSelected(osm) || !osm.isDisabledAndHidden())
+                    && osm.mappaintDrawnCode != paintid) {
+                drawNode(osm);
+            }
+        }
+
+        if (cancelled) {
+            // repaint fast, refine once the input stops
+            statistics.finish();
+            nc.markInteraction();
+            return;
+        }
+        statistics.startPass("virtual nodes");
+        painter.drawVirtualNodes(data, bbox);
+        painter.flush();
+        statistics.finish();
+    }
+
+    /**
+     * Paints the selected and highlighted primitives over the result of
+     * {@link #visitUnselected(DataSet, boolean, Bounds)}. Ways and the members
+     * of selected relations are drawn with the selection color and the nodes of
+     * selected or highlighted ways on top. Areas keep their normal fill, filling
+     * them again would cover everything inside.
+     */
+    public void visitSelection(DataSet data, Bounds bounds) {
+        hideSelection = false;
+        prepare(data, false);
+
+        Collection<OsmPrimitive> selected = data.getSelected();
+        Collection<OsmPrimitive> highlighted = data.getHighlighted();
+
+        statistics.startPass("relations");
+        for (final OsmPrimitive osm : selected) {
+            if (osm instanceof Relation && osm.isDrawable()
+                    && drawRestriction && "restriction".equals(osm.get("type"))) {
+                drawRestriction((Relation) osm);
+            }
+        }
+        painter.flush();
+
+        statistics.startPass("highlighted");
+        for (final OsmPrimitive osm : highlighted) {
+            if (osm instanceof Way && osm.isDrawable() && !data.isSelected(osm)) {
+                drawWay((Way) osm, 0);
+                osm.mappaintDrawnCode = paintid;
+            }
+        }
+        painter.flush();
+
+        statistics.startPass("selected");
+        drawSelected(selected);
+        painter.flush();
+
+        /*** NODES ***/
+        statistics.startPass("nodes");
+        for (final OsmPrimitive osm : selected) {
+            drawOverlayNodes(osm);
+        }
+        for (final OsmPrimitive osm : highlighted) {
+            drawOverlayNodes(osm);
+        }
+        painter.flush();
+        statistics.finish();
+    }
+
+    private void drawOverlayNodes(OsmPrimitive osm) {
+        if (osm instanceof Node) {
+            drawOverlayNode((Node) osm);
+        } else if (osm instanceof Way && osm.isDrawable()) {
+            for (Node n : ((Way) osm).getNodes()) {
+                drawOverlayNode(n);
+            }
+        }
+    }
+
+    private void drawOverlayNode(Node n) {
+        if (!n.isIncomplete() && !n.isDeleted() && (isSelected(n) || !n.isDisabledAndHidden())
+                && n.mappaintDrawnCode != paintid) {
+            drawNode(n);
+            n.mappaintDrawnCode = paintid;
+        }
+    }
+
+    private void drawSelected(Collection<OsmPrimitive> selected) {
+        for (final OsmPrimitive osm : selected) {
             if (osm.isUsable() && !(osm instanceof Node) && (osm instanceof Relation || osm.mappaintDrawnCode != paintid)) {
                 osm.visit(new AbstractVisitor() {
                     public void visit(Way w) {
@@ -652,16 +814,17 @@ public class MapPaintVisitor implements PaintVisitor {
                 });
             }
         }
+    }
 
-        /*** NODES ***/
-        for (final Node osm: data.searchNodes(bbox)) {
-            if (!osm.isIncomplete() && !osm.isDeleted() && (data.isSelected(osm) || !osm.isDisabledAndHidden())
-                    && osm.mappaintDrawnCode != paintid) {
-                drawNode(osm);
-            }
+    /**
+     * Checks every few hundred primitives whether new input arrived while
+     * painting at full quality. The rest of the paint is skipped then.
+     */
+    private boolean isCancelled() {
+        if (!cancelled && !fast && (++cancelCheckCount & 511) == 0) {
+            cancelled = nc.isPaintCancelled();
         }
-
-        painter.drawVirtualNodes(data.searchWays(bbox));
+        return cancelled;
     }
 
     public void setGraphics(Graphics2D g) {
@@ -675,4 +838,8 @@ public class MapPaintVisitor implements PaintVisitor {
     public void setNavigatableComponent(NavigatableComponent nc) {
         this.nc = nc;
     }
+
+    public PaintStatistics getStatistics() {
+        return statistics;
+    }
 }
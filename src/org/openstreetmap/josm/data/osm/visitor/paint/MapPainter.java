@@ -4,33 +4,38 @@ package org.openstreetmap.josm.data.osm.visitor.paint;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Font;
-import java.awt.FontMetrics;
 import java.awt.Graphics2D;
-import java.awt.Image;
 import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.Rectangle;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.List;
 
 import javax.swing.ImageIcon;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.NavigatableComponent;
-import org.openstreetmap.josm.tools.ImageProvider;
 import org.openstreetmap.josm.tools.LanguageInfo;
 
 public class MapPainter {
 
     private final Graphics2D g;
     private final NavigatableComponent nc;
+    private final ScreenPointCache points;
+    private final int width;
+    private final int height;
     private final boolean inactive;
+    private final boolean hideSelection;
 
     private final boolean useStrokes;
     private final boolean showNames;
@@ -54,22 +59,37 @@ public class MapPainter {
     private final double circum;
 
     private final Collection<String> regionalNameOrder;
+    private final LabelCache labels;
 
     private static final double PHI = Math.toRadians(20);
     private static final double cosPHI = Math.cos(PHI);
     private static final double sinPHI = Math.sin(PHI);
 
-    public MapPainter(MapPaintSettings settings, Graphics2D g, 
-        boolean inactive, NavigatableComponent nc, boolean virtual, 
-        double dist, double circum) {
+    /** pending geometry, in drawing order */
+    private final List<Batch> batches = new ArrayList<Batch>();
+    private Batch lastBatch;
+    /** pending area labels, drawn on top of the areas */
+    private final List<AreaText> areaTexts = new ArrayList<AreaText>();
+    private final GeneralPath arrows = new GeneralPath();
+    private Color lastWayColor;
+    private Rectangle clipBounds;
+
+    public MapPainter(MapPaintSettings settings, Graphics2D g,
+        boolean inactive, NavigatableComponent nc, ScreenPointCache points,
+        boolean virtual, double dist, double circum, boolean fast, boolean hideSelection) {
 
         this.g = g;
         this.inactive = inactive;
+        this.hideSelection = hideSelection;
         this.nc = nc;
-        this.useStrokes = settings.getUseStrokesDistance() > dist;
-        this.showNames = settings.getShowNamesDistance() > dist;
-        this.showIcons = settings.getShowIconsDistance() > dist;
-        this.outlineOnly = settings.isOutlineOnly();
+        this.points = points;
+        this.width = nc.getWidth();
+        this.height = nc.getHeight();
+        // the fast style (during user interaction) draws thin lines and no fills, icons or labels
+        this.useStrokes = !fast && settings.getUseStrokesDistance() > dist;
+        this.showNames = !fast && settings.getShowNamesDistance() > dist;
+        this.showIcons = !fast && settings.getShowIconsDistance() > dist;
+        this.outlineOnly = fast || settings.isOutlineOnly();
 
         this.inactiveColor = PaintColors.INACTIVE.get();
         this.textColor = PaintColors.TEXT.get();
@@ -88,69 +108,185 @@ public class MapPainter {
         String[] names = {"name:" + LanguageInfo.getJOSMLocaleCode(), "name", "int_name", "ref", "operator", "brand", "addr:housenumber"};
         this.regionalNameOrder = Main.pref.getCollection("mappaint.nameOrder", Arrays.asList(names));
         this.circum = circum;
+        this.labels = new LabelCache(width, height, Main.pref.getBoolean("mappaint.label.avoid-overlap", true));
+    }
+
+    /**
+     * Geometry collected for one color and stroke setup. Consecutive primitives
+     * of the same style are collected into one batch and drawn with a single
+     * Java2D call by {@link MapPainter#flush()}.
+     */
+    private static class Batch {
+        private final Color color;
+        private final int width;
+        private final float[] dashed;
+        private final Color dashedColor;
+        private final boolean fill;
+        /** lines and arrow heads, if !fill */
+        private GeneralPath path;
+        /** polygons to fill, if fill */
+        private List<Polygon> polygons;
+
+        public Batch(Color color, int width, float[] dashed, Color dashedColor, boolean fill) {
+            this.color = color;
+            this.width = width;
+            this.dashed = dashed;
+            this.dashedColor = dashedColor;
+            this.fill = fill;
+            if (fill) {
+                polygons = new ArrayList<Polygon>();
+            } else {
+                path = new GeneralPath();
+            }
+        }
+
+        public boolean matches(Color color, int width, float[] dashed, Color dashedColor, boolean fill) {
+            return this.fill == fill && this.width == width && this.color.equals(color)
+            && (this.dashedColor == null ? dashedColor == null : this.dashedColor.equals(dashedColor))
+            && Arrays.equals(this.dashed, dashed);
+        }
+    }
+
+    private Batch getBatch(Color color, int width, float[] dashed, Color dashedColor, boolean fill) {
+        if (lastBatch != null && lastBatch.matches(color, width, dashed, dashedColor, fill))
+            return lastBatch;
+        // only consecutive primitives are merged, so casings and overlays keep their order
+        lastBatch = new Batch(color, width, dashed, dashedColor, fill);
+        batches.add(lastBatch);
+        return lastBatch;
+    }
+
+    private static class AreaText {
+        private final LabelCache.Label text;
+        private final int x;
+        private final int y;
+
+        public AreaText(LabelCache.Label text, int x, int y) {
+            this.text = text;
+            this.x = x;
+            this.y = y;
+        }
     }
 
     public void drawWay(Way way, Color color, int width, float dashed[], Color dashedColor, boolean showDirection,
             boolean reversedDirection, boolean showHeadArrowOnly) {
 
-        GeneralPath path = new GeneralPath();
-        GeneralPath arrows = new GeneralPath();
-        Rectangle bounds = g.getClipBounds();
-        bounds.grow(100, 100);                  // avoid arrow heads at the border
+        if (inactive || !useStrokes) {
+            dashedColor = null;
+        }
+        Batch batch = getBatch(inactive ? inactiveColor : color, width, dashed, dashedColor, false);
+        lastWayColor = dashedColor != null ? dashedColor : batch.color;
+        GeneralPath path = batch.path;
+        Rectangle bounds = getClipBounds();
 
-        Point lastPoint = null;
+        int lastX = 0, lastY = 0;
         boolean initialMoveToNeeded = true;
-        Iterator<Node> it = way.getNodes().iterator();
-        while (it.hasNext()) {
-            Node n = it.next();
-            Point p = nc.getPoint(n);
-            if(lastPoint != null) {
-                Point p1 = lastPoint;
-                Point p2 = p;
-
-                /**
-                 * Do custom clipping to work around openjdk bug. It leads to
-                 * drawing artefacts when zooming in a lot. (#4289, #4424)
-                 * (Looks like int overflow.)
-                 */
-                LineClip clip = new LineClip(p1, p2, bounds);
-                if (clip.execute()) {
-                    if (!p1.equals(clip.getP1())) {
-                        p1 = clip.getP1();
-                        path.moveTo(p1.x, p1.y);
+        int count = way.getNodesCount();
+        for (int i = 0; i < count; i++) {
+            Node n = way.getNode(i);
+            int x = points.getX(n);
+            int y = points.getY(n);
+            if (i > 0) {
+                int x1 = lastX, y1 = lastY, x2 = x, y2 = y;
+                boolean visible = true;
+                if (!bounds.contains(x1, y1) || !bounds.contains(x2, y2)) {
+                    /**
+                     * Do custom clipping to work around openjdk bug. It leads to
+                     * drawing artefacts when zooming in a lot. (#4289, #4424)
+                     * (Looks like int overflow.)
+                     */
+                    LineClip clip = new LineClip(new Point(x1, y1), new Point(x2, y2), bounds);
+                    visible = clip.execute();
+                    if (visible) {
+                        x1 = clip.getP1().x;
+                        y1 = clip.getP1().y;
+                        x2 = clip.getP2().x;
+                        y2 = clip.getP2().y;
+                    }
+                }
+                if (visible) {
+                    if (x1 != lastX || y1 != lastY) {
+                        path.moveTo(x1, y1);
                     } else if (initialMoveToNeeded) {
                         initialMoveToNeeded = false;
-                        path.moveTo(p1.x, p1.y);
+                        path.moveTo(x1, y1);
                     }
-                    p2 = clip.getP2();
-                    path.lineTo(p2.x, p2.y);
+                    path.lineTo(x2, y2);
 
                     /* draw arrow */
-                    if (showHeadArrowOnly ? !it.hasNext() : showDirection) {
+                    if (showHeadArrowOnly ? i == count - 1 : showDirection) {
                         if (reversedDirection) {
-                            Point tmp = p1;
-                            p1 = p2;
-                            p2 = tmp;
+                            int tmp = x1; x1 = x2; x2 = tmp;
+                            tmp = y1; y1 = y2; y2 = tmp;
                         }
-                        final double l =  10. / p1.distance(p2);
+                        final double l =  10. / Math.sqrt((double)(x1 - x2) * (x1 - x2) + (double)(y1 - y2) * (y1 - y2));
 
-                        final double sx = l * (p1.x - p2.x);
-                        final double sy = l * (p1.y - p2.y);
+                        final double sx = l * (x1 - x2);
+                        final double sy = l * (y1 - y2);
 
-                        arrows.moveTo(p2.x, p2.y);
-                        arrows.lineTo (p2.x + (int) Math.round(cosPHI * sx - sinPHI * sy), p2.y + (int) Math.round(sinPHI * sx + cosPHI * sy));
-                        arrows.moveTo (p2.x + (int) Math.round(cosPHI * sx + sinPHI * sy), p2.y + (int) Math.round(- sinPHI * sx + cosPHI * sy));
-                        arrows.lineTo(p2.x, p2.y);
+                        arrows.moveTo(x2, y2);
+                        arrows.lineTo (x2 + (int) Math.round(cosPHI * sx - sinPHI * sy), y2 + (int) Math.round(sinPHI * sx + cosPHI * sy));
+                        arrows.moveTo (x2 + (int) Math.round(cosPHI * sx + sinPHI * sy), y2 + (int) Math.round(- sinPHI * sx + cosPHI * sy));
+                        arrows.lineTo(x2, y2);
                     }
                 }
             }
-            lastPoint = p;
+            lastX = x;
+            lastY = y;
+        }
+        if (arrows.getCurrentPoint() != null) {
+            path.append(arrows, false);
+            arrows.reset();
         }
-        displaySegments(path, arrows, color, width, dashed, dashedColor);
     }
 
-    private void displaySegments(GeneralPath path, GeneralPath arrows, Color color, int width, float dashed[], Color dashedColor) {
-        g.setColor(inactive ? inactiveColor : color);
+    /**
+     * Draws everything collected since the last flush, in the order it was
+     * collected. Called before anything is drawn that is not batched, and at
+     * the end of every paint pass to keep the z-order of the passes.
+     */
+    public void flush() {
+        if (batches.isEmpty())
+            return;
+        for (Batch batch : batches) {
+            if (batch.fill) {
+                g.setColor(batch.color);
+                for (Polygon polygon : batch.polygons) {
+                    if (outlineOnly) {
+                        g.drawPolygon(polygon);
+                    } else {
+                        g.fillPolygon(polygon);
+                    }
+                }
+            } else {
+                displaySegments(batch.path, batch.color, batch.width, batch.dashed, batch.dashedColor);
+            }
+        }
+        batches.clear();
+        lastBatch = null;
+
+        if (!areaTexts.isEmpty()) {
+            g.setColor(areaTextColor);
+            for (AreaText text : areaTexts) {
+                drawLabel(text.text, text.x, text.y);
+            }
+            areaTexts.clear();
+        }
+    }
+
+    private Rectangle getClipBounds() {
+        if (clipBounds == null) {
+            clipBounds = g.getClipBounds();
+            if (clipBounds == null) {
+                clipBounds = new Rectangle(0, 0, width, height);
+            }
+            clipBounds.grow(100, 100);                  // avoid arrow heads and clipped area edges at the border
+        }
+        return clipBounds;
+    }
+
+    private void displaySegments(GeneralPath path, Color color, int width, float dashed[], Color dashedColor) {
+        g.setColor(color);
         if (useStrokes) {
             if (dashed.length > 0) {
                 g.setStroke(new BasicStroke(width,BasicStroke.CAP_BUTT,BasicStroke.JOIN_ROUND,0, dashed,0));
@@ -159,9 +295,8 @@ public class MapPainter {
             }
         }
         g.draw(path);
-        g.draw(arrows);
 
-        if(!inactive && useStrokes && dashedColor != null) {
+        if(dashedColor != null) {
             g.setColor(dashedColor);
             if (dashed.length > 0) {
                 float[] dashedOffset = new float[dashed.length];
@@ -173,7 +308,6 @@ public class MapPainter {
                 g.setStroke(new BasicStroke(width,BasicStroke.CAP_ROUND,BasicStroke.JOIN_ROUND));
             }
             g.draw(path);
-            g.draw(arrows);
         }
 
         if(useStrokes) {
@@ -181,35 +315,55 @@ public class MapPainter {
         }
     }
 
-    private boolean isSegmentVisible(Point p1, Point p2) {
-        if ((p1.x < 0) && (p2.x < 0)) return false;
-        if ((p1.y < 0) && (p2.y < 0)) return false;
-        if ((p1.x > nc.getWidth()) && (p2.x > nc.getWidth())) return false;
-        if ((p1.y > nc.getHeight()) && (p2.y > nc.getHeight())) return false;
+    private boolean isSegmentVisible(int x1, int y1, int x2, int y2) {
+        if ((x1 < 0) && (x2 < 0)) return false;
+        if ((y1 < 0) && (y2 < 0)) return false;
+        if ((x1 > width) && (x2 > width)) return false;
+        if ((y1 > height) && (y2 > height)) return false;
         return true;
     }
 
+    /**
+     * Draws the icon of a node.
+     *
+     * @param icon the icon of the style, the disabled variant is taken from the {@link IconCache}
+     * @param disabled true, if the icon should be drawn grayed
+     */
+    public void drawNodeIcon(Node n, ImageIcon icon, boolean disabled, boolean selected, boolean member, String name) {
+        drawNodeIcon(n, icon, disabled, disabled, selected, member, name);
+    }
+
+    /**
+     * Draws the icon of a node as it is given.
+     *
+     * @deprecated use {@link #drawNodeIcon(Node, ImageIcon, boolean, boolean, boolean, String)},
+     * which takes the disabled variant from the {@link IconCache}
+     */
+    @Deprecated
     public void drawNodeIcon(Node n, ImageIcon icon, boolean selected, boolean member, String name) {
-        Point p = nc.getPoint(n);
-        if ((p.x < 0) || (p.y < 0) || (p.x > nc.getWidth()) || (p.y > nc.getHeight())) return;
+        drawNodeIcon(n, icon, false, inactive || n.isDisabled(), selected, member, name);
+    }
+
+    private void drawNodeIcon(Node n, ImageIcon icon, boolean grayed, boolean disabled, boolean selected, boolean member, String name) {
+        flush();
+        int x = points.getX(n), y = points.getY(n);
+        if ((x < 0) || (y < 0) || (x > width) || (y > height)) return;
 
-        int w = icon.getIconWidth(), h=icon.getIconHeight();
-        icon.paintIcon ( nc, g, p.x-w/2, p.y-h/2 );
+        BufferedImage image = IconCache.getImage(g, icon, grayed);
+        int w = image.getWidth(), h = image.getHeight();
+        g.drawImage(image, x-w/2, y-h/2, null);
         if(name != null) {
-            if (inactive || n.isDisabled()) {
+            if (disabled) {
                 g.setColor(inactiveColor);
             } else {
                 g.setColor(textColor);
             }
-            Font defaultFont = g.getFont();
-            g.setFont (orderFont);
-            g.drawString (name, p.x+w/2+2, p.y+h/2+2);
-            g.setFont(defaultFont);
+            drawLabel(name, x+w/2+2, y+h/2+2);
         }
         if (selected)
         {
             g.setColor (  member ? relationSelectedColor : selectedColor );
-            g.drawRect (p.x-w/2-2, p.y-h/2-2, w+4, h+4);
+            g.drawRect (x-w/2-2, y-h/2-2, w+4, h+4);
         }
     }
 
@@ -221,8 +375,9 @@ public class MapPainter {
      */
     public void drawNode(Node n, Color color, int size, boolean fill, String name) {
         if (size > 1) {
-            Point p = nc.getPoint(n);
-            if ((p.x < 0) || (p.y < 0) || (p.x > nc.getWidth()) || (p.y > nc.getHeight())) return;
+            flush();
+            int x = points.getX(n), y = points.getY(n);
+            if ((x < 0) || (y < 0) || (x > width) || (y > height)) return;
             int radius = size / 2;
 
             if (inactive || n.isDisabled()) {
@@ -231,9 +386,9 @@ public class MapPainter {
                 g.setColor(color);
             }
             if (fill) {
-                g.fillRect(p.x - radius, p.y - radius, size + 1, size + 1);
+                g.fillRect(x - radius, y - radius, size + 1, size + 1);
             } else {
-                g.drawRect(p.x - radius, p.y - radius, size, size);
+                g.drawRect(x - radius, y - radius, size, size);
             }
 
             if(name != null)            {
@@ -242,10 +397,7 @@ public class MapPainter {
                 } else {
                     g.setColor(textColor);
                 }
-                Font defaultFont = g.getFont();
-                g.setFont (orderFont);
-                g.drawString (name, p.x+radius+2, p.y+radius+2);
-                g.setFont(defaultFont);
+                drawLabel(name, x+radius+2, y+radius+2);
             }
         }
     }
@@ -253,19 +405,17 @@ public class MapPainter {
     protected void drawArea(Polygon polygon, Color color, String name) {
 
         /* set the opacity (alpha) level of the filled polygon */
-        g.setColor(new Color(color.getRed(), color.getGreen(), color.getBlue(), fillAlpha));
-
-        if (outlineOnly) {
-            g.drawPolygon(polygon);
-        } else {
-            g.fillPolygon(polygon);
+        Color fillColor = new Color(color.getRed(), color.getGreen(), color.getBlue(), fillAlpha);
+        /* only the visible part, the label is still placed on the whole area */
+        Polygon visible = PolygonClip.clip(polygon, getClipBounds());
+        if (visible != null) {
+            getBatch(fillColor, 0, null, null, true).polygons.add(visible);
         }
-            
 
-        if (name != null) {
+        LabelCache.Label label = name == null ? null : LabelCache.getLabel(name, orderFont, g.getFontRenderContext());
+        if (label != null) {
             Rectangle pb = polygon.getBounds();
-            FontMetrics fontMetrics = g.getFontMetrics(orderFont); // if slow, use cache
-            Rectangle2D nb = fontMetrics.getStringBounds(name, g); // if slow, approximate by strlen()*maxcharbounds(font)
+            Rectangle2D nb = label.getBounds();
 
             // Point2D c = getCentroid(polygon);
             // Using the Centroid is Nicer for buildings like: +--------+
@@ -288,25 +438,48 @@ public class MapPainter {
             if ((pb.width >= nb.getWidth() && pb.height >= nb.getHeight()) && // quick check
                     polygon.contains(centeredNBounds) // slow but nice
             ) {
-                g.setColor(areaTextColor);
-                Font defaultFont = g.getFont();
-                g.setFont (orderFont);
-                g.drawString (name,
+                areaTexts.add(new AreaText(label,
                         (int)(centeredNBounds.getMinX() - nb.getMinX()),
-                        (int)(centeredNBounds.getMinY() - nb.getMinY()));
-                g.setFont(defaultFont);
+                        (int)(centeredNBounds.getMinY() - nb.getMinY())));
             }
         }
     }
 
+    /**
+     * Draws a label with the current color, unless it would overlap a label
+     * drawn before.
+     *
+     * @param x the x coordinate of the start of the base line
+     * @param y the y coordinate of the base line
+     */
+    private void drawLabel(String name, int x, int y) {
+        LabelCache.Label label = LabelCache.getLabel(name, orderFont, g.getFontRenderContext());
+        if (label != null) {
+            drawLabel(label, x, y);
+        }
+    }
+
+    private void drawLabel(LabelCache.Label label, int x, int y) {
+        Rectangle2D b = label.getBounds();
+        if (labels.place(new Rectangle(x + (int) b.getX(), y + (int) b.getY(), (int) b.getWidth() + 1, (int) b.getHeight() + 1))) {
+            label.draw(g, x, y);
+        }
+    }
+
+    /**
+     * @deprecated use {@link #drawRestriction(ImageIcon, boolean, Point, double, double, double, double, double, boolean)}
+     */
+    @Deprecated
     public void drawRestriction(ImageIcon icon, Point pVia, double vx, double vx2, double vy, double vy2, double iconAngle, boolean selected) {
-        /* rotate icon with direction last node in from to */
-        ImageIcon rotatedIcon = ImageProvider.createRotatedImage(null /*icon2*/, icon, iconAngle);
+        drawRestriction(icon, false, pVia, vx, vx2, vy, vy2, iconAngle, selected);
+    }
 
-        /* scale down icon to 16*16 pixels */
-        ImageIcon smallIcon = new ImageIcon(rotatedIcon.getImage().getScaledInstance(16 , 16, Image.SCALE_SMOOTH));
-        int w = smallIcon.getIconWidth(), h=smallIcon.getIconHeight();
-        smallIcon.paintIcon (nc, g, (int)(pVia.x+vx+vx2)-w/2, (int)(pVia.y+vy+vy2)-h/2 );
+    public void drawRestriction(ImageIcon icon, boolean disabled, Point pVia, double vx, double vx2, double vy, double vy2, double iconAngle, boolean selected) {
+        flush();
+        /* icon rotated with direction last node in from to and scaled down to 16*16 pixels */
+        BufferedImage image = IconCache.getImage(g, icon, disabled, iconAngle, 16);
+        int w = image.getWidth(), h = image.getHeight();
+        g.drawImage(image, (int)(pVia.x+vx+vx2)-w/2, (int)(pVia.y+vy+vy2)-h/2, null);
 
         if (selected) {
             g.setColor(relationSelectedColor);
@@ -314,46 +487,22 @@ public class MapPainter {
         }
     }
 
-    public void drawVirtualNodes(Collection<Way> ways) {
+    public void drawVirtualNodes(DataSet data, BBox bbox) {
 
+        flush();
         if (virtualNodeSize != 0) {
-            GeneralPath path = new GeneralPath();
-            for (Way osm: ways){
-                if (osm.isUsable() && !osm.isDisabled()) {
-                    visitVirtual(path, osm);
-                }
-            }
+            GeneralPath path = VirtualNodeCache.getInstance().get(data, bbox, points, width, height,
+                    virtualNodeSize, virtualNodeSpace);
             g.setColor(nodeColor);
             g.draw(path);
         }
     }
 
-    public void visitVirtual(GeneralPath path, Way w) {
-        Iterator<Node> it = w.getNodes().iterator();
-        if (it.hasNext()) {
-            Point lastP = nc.getPoint(it.next());
-            while(it.hasNext())
-            {
-                Point p = nc.getPoint(it.next());
-                if(isSegmentVisible(lastP, p) && isLargeSegment(lastP, p, virtualNodeSpace))
-                {
-                    int x = (p.x+lastP.x)/2;
-                    int y = (p.y+lastP.y)/2;
-                    path.moveTo(x-virtualNodeSize, y);
-                    path.lineTo(x+virtualNodeSize, y);
-                    path.moveTo(x, y-virtualNodeSize);
-                    path.lineTo(x, y+virtualNodeSize);
-                }
-                lastP = p;
-            }
-        }
-    }
-
-    private static boolean isLargeSegment(Point p1, Point p2, int space)  {
-        int xd = p1.x-p2.x; if(xd < 0) {
+    private static boolean isLargeSegment(int x1, int y1, int x2, int y2, int space)  {
+        int xd = x1-x2; if(xd < 0) {
             xd = -xd;
         }
-        int yd = p1.y-p2.y; if(yd < 0) {
+        int yd = y1-y2; if(yd < 0) {
             yd = -yd;
         }
         return (xd+yd > space);
@@ -364,8 +513,13 @@ public class MapPainter {
      * parents way
      */
     public void drawOrderNumber(Node n1, Node n2, int orderNumber) {
-        Point p1 = nc.getPoint(n1);
-        Point p2 = nc.getPoint(n2);
+        Point p1 = points.getPoint(n1);
+        Point p2 = points.getPoint(n2);
+        Color c = lastWayColor;
+        flush();
+        if (c != null) {
+            g.setColor(c);
+        }
         drawOrderNumber(p1, p2, orderNumber);
     }
 
@@ -374,13 +528,13 @@ public class MapPainter {
      * parents way
      */
     protected void drawOrderNumber(Point p1, Point p2, int orderNumber) {
-        if (isSegmentVisible(p1, p2) && isLargeSegment(p1, p2, segmentNumberSpace)) {
+        if (isSegmentVisible(p1.x, p1.y, p2.x, p2.y) && isLargeSegment(p1.x, p1.y, p2.x, p2.y, segmentNumberSpace)) {
             String on = Integer.toString(orderNumber);
             int strlen = on.length();
             int x = (p1.x+p2.x)/2 - 4*strlen;
             int y = (p1.y+p2.y)/2 + 4;
 
-            if(virtualNodeSize != 0 && isLargeSegment(p1, p2, virtualNodeSpace))
+            if(virtualNodeSize != 0 && isLargeSegment(p1.x, p1.y, p2.x, p2.y, virtualNodeSpace))
             {
                 y = (p1.y+p2.y)/2 - virtualNodeSize - 3;
             }
@@ -421,10 +575,22 @@ public class MapPainter {
         return name;
     }
 
+    public ScreenPointCache getScreenPointCache() {
+        return points;
+    }
+
     public boolean isInactive() {
         return inactive;
     }
 
+    /**
+     * @return true if <code>osm</code> should be painted highlighted. Always false while
+     * painting the data without the selection overlay.
+     */
+    public boolean isHighlighted(OsmPrimitive osm) {
+        return !hideSelection && osm.isHighlighted();
+    }
+
     public boolean isShowNames() {
         return showNames;
     }
@@ -0,0 +1,176 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Timings and counters of one run of a {@link PaintVisitor}.
+ *
+ * The visitor divides its work into passes (areas, ways, nodes, ...). For
+ * every pass the time and the number of primitives looked at and actually
+ * drawn are recorded. Recording costs a call to {@link System#nanoTime()} per
+ * pass and a counter increment per primitive, so it is always on.
+ */
+public class PaintStatistics {
+
+    /**
+     * One pass of the visitor.
+     */
+    public static class Pass {
+        private final String name;
+        private long nanos;
+        private int visited;
+        private int drawn;
+
+        private Pass(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the time spent in this pass, in nanoseconds
+         */
+        public long getNanos() {
+            return nanos;
+        }
+
+        /**
+         * @return the number of primitives looked at
+         */
+        public int getVisited() {
+            return visited;
+        }
+
+        /**
+         * @return the number of primitives that were visible and drawn
+         */
+        public int getDrawn() {
+            return drawn;
+        }
+    }
+
+    private final List<Pass> passes = new ArrayList<Pass>();
+    private Pass current;
+    private long passStart;
+    private long start;
+    private long end;
+    private int styleCacheHits;
+    private int styleCacheMisses;
+
+    public PaintStatistics() {
+        start = System.nanoTime();
+        end = start;
+    }
+
+    /**
+     * Ends the current pass and starts a new one.
+     */
+    public void startPass(String name) {
+        long now = System.nanoTime();
+        finishPass(now);
+        current = new Pass(name);
+        passes.add(current);
+        passStart = now;
+    }
+
+    /**
+     * Ends the current pass and the whole run.
+     */
+    public void finish() {
+        end = System.nanoTime();
+        finishPass(end);
+    }
+
+    private void finishPass(long now) {
+        if (current != null) {
+            current.nanos += now - passStart;
+            current = null;
+        }
+    }
+
+    /**
+     * Counts a primitive looked at in the current pass.
+     */
+    public void visited() {
+        if (current != null) {
+            current.visited++;
+        }
+    }
+
+    /**
+     * Counts a primitive drawn in the current pass.
+     */
+    public void drawn() {
+        if (current != null) {
+            current.drawn++;
+        }
+    }
+
+    public void styleCacheHit() {
+        styleCacheHits++;
+    }
+
+    public void styleCacheMiss() {
+        styleCacheMisses++;
+    }
+
+    /**
+     * @return the passes in the order they were run
+     */
+    public List<Pass> getPasses() {
+        return Collections.unmodifiableList(passes);
+    }
+
+    /**
+     * @return the time of the whole run, in nanoseconds
+     */
+    public long getNanos() {
+        return end - start;
+    }
+
+    public int getVisited() {
+        int sum = 0;
+        for (Pass p : passes) {
+            sum += p.visited;
+        }
+        return sum;
+    }
+
+    public int getDrawn() {
+        int sum = 0;
+        for (Pass p : passes) {
+            sum += p.drawn;
+        }
+        return sum;
+    }
+
+    /**
+     * @return the number of style lookups answered by the style cached in the primitive
+     */
+    public int getStyleCacheHits() {
+        return styleCacheHits;
+    }
+
+    /**
+     * @return the number of style lookups that had to evaluate the style rules
+     */
+    public int getStyleCacheMisses() {
+        return styleCacheMisses;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%.1f ms, %d/%d drawn, style cache %d/%d",
+                getNanos() / 1e6, getDrawn(), getVisited(), styleCacheHits, styleCacheHits + styleCacheMisses));
+        for (Pass p : passes) {
+            sb.append(String.format("; %s %.1f ms %d/%d", p.name, p.nanos / 1e6, p.drawn, p.visited));
+        }
+        return sb.toString();
+    }
+}
@@ -12,4 +12,22 @@ public interface PaintVisitor {
     void setNavigatableComponent(NavigatableComponent nc);
     void setInactive(boolean inactive);
     void visitAll(DataSet data, boolean virtual, Bounds box);
+
+    /**
+     * Paints the data as if no primitive was selected or highlighted. The result
+     * only changes with the data and the view, so it can be kept while the
+     * selection changes. Painted over by {@link #visitSelection(DataSet, Bounds)}
+     * it gives the same picture as {@link #visitAll(DataSet, boolean, Bounds)}.
+     */
+    void visitUnselected(DataSet data, boolean virtual, Bounds box);
+
+    /**
+     * Paints the selected and highlighted primitives only.
+     */
+    void visitSelection(DataSet data, Bounds box);
+
+    /**
+     * @return the timings and counters of the last visit
+     */
+    PaintStatistics getStatistics();
 }
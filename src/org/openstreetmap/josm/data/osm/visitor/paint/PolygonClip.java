@@ -0,0 +1,172 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+/**
+ * Computes the part of a polygon that is visible in a given rectangle.
+ *
+ * Filling a polygon that is mostly off-screen still makes Java2D process all
+ * of its edges. When zoomed into a large area (a lake, a forest, a national
+ * park) this costs far more than the few visible pixels are worth.
+ *
+ * The polygon is clipped against the rectangle one edge after the other
+ * (Sutherland-Hodgman). Concave and self-intersecting polygons, like the
+ * polygons of multipolygons with their holes, stay correct for the even-odd
+ * rule of {@link java.awt.Graphics#fillPolygon(Polygon)}: the result may
+ * contain edges running back and forth on the border of the rectangle, so the
+ * rectangle should be a bit larger than the screen.
+ *
+ * Vertices that fall onto the same pixel as their predecessor, which is most
+ * of them for a detailed polygon at a low zoom level, and vertices in the
+ * middle of a run along the border are dropped. Both do not change the filled
+ * pixels.
+ */
+public class PolygonClip {
+
+    private int[] xpoints;
+    private int[] ypoints;
+    private int npoints;
+
+    /** the border clipped to: 0 left, 1 right, 2 top, 3 bottom, -1 none */
+    private int border = -1;
+    private int borderValue;
+
+    private PolygonClip(int capacity) {
+        xpoints = new int[capacity];
+        ypoints = new int[capacity];
+    }
+
+    /**
+     * Clips and simplifies a polygon.
+     *
+     * @param polygon the polygon in screen coordinates, it is not modified
+     * @param clipBounds the rectangle to clip to
+     * @return the visible part of the polygon, <code>polygon</code> itself if nothing could be dropped,
+     * or null if nothing of the polygon is left
+     */
+    public static Polygon clip(Polygon polygon, Rectangle clipBounds) {
+        Rectangle bounds = polygon.getBounds();
+        if (!clipBounds.intersects(bounds))
+            return null;
+        int n = polygon.npoints;
+        int[] xs = polygon.xpoints;
+        int[] ys = polygon.ypoints;
+        if (clipBounds.contains(bounds)) {
+            if (!hasDuplicates(xs, ys, n))
+                return polygon;
+            PolygonClip result = new PolygonClip(n);
+            for (int i = 0; i < n; i++) {
+                result.add(xs[i], ys[i]);
+            }
+            return result.toPolygon();
+        }
+
+        int xmin = clipBounds.x, ymin = clipBounds.y;
+        int xmax = clipBounds.x + clipBounds.width, ymax = clipBounds.y + clipBounds.height;
+        PolygonClip in = null;
+        // left, right, top, bottom
+        boolean[] crossed = {bounds.x < xmin, bounds.x + bounds.width > xmax,
+                bounds.y < ymin, bounds.y + bounds.height > ymax};
+        for (int edge = 0; edge < 4 && n > 0; edge++) {
+            if (!crossed[edge]) {
+                continue;
+            }
+            PolygonClip out = new PolygonClip(n + 8);
+            out.border = edge;
+            out.borderValue = edge == 0 ? xmin : edge == 1 ? xmax : edge == 2 ? ymin : ymax;
+            int px = xs[n - 1], py = ys[n - 1];
+            boolean pin = out.inside(px, py);
+            for (int i = 0; i < n; i++) {
+                int cx = xs[i], cy = ys[i];
+                boolean cin = out.inside(cx, cy);
+                if (cin != pin) {
+                    out.addIntersection(px, py, cx, cy);
+                }
+                if (cin) {
+                    out.add(cx, cy);
+                }
+                px = cx;
+                py = cy;
+                pin = cin;
+            }
+            out.close();
+            in = out;
+            xs = in.xpoints;
+            ys = in.ypoints;
+            n = in.npoints;
+        }
+        return n < 3 ? null : in.toPolygon();
+    }
+
+    private static boolean hasDuplicates(int[] xs, int[] ys, int n) {
+        for (int i = 1; i < n; i++) {
+            if (xs[i] == xs[i - 1] && ys[i] == ys[i - 1])
+                return true;
+        }
+        return false;
+    }
+
+    private boolean inside(int x, int y) {
+        switch (border) {
+        case 0: return x >= borderValue;
+        case 1: return x <= borderValue;
+        case 2: return y >= borderValue;
+        default: return y <= borderValue;
+        }
+    }
+
+    private void addIntersection(int x1, int y1, int x2, int y2) {
+        // the points are on different sides of the border, so the divisor is not 0
+        if (border < 2) {
+            double y = y1 + (double) (y2 - y1) * (borderValue - x1) / (x2 - x1);
+            add(borderValue, (int) Math.round(y));
+        } else {
+            double x = x1 + (double) (x2 - x1) * (borderValue - y1) / (y2 - y1);
+            add((int) Math.round(x), borderValue);
+        }
+    }
+
+    private boolean onBorder(int i, int x, int y) {
+        if (border < 0)
+            return false;
+        return border < 2
+        ? x == borderValue && xpoints[i] == x
+                : y == borderValue && ypoints[i] == y;
+    }
+
+    private void add(int x, int y) {
+        if (npoints > 0 && xpoints[npoints - 1] == x && ypoints[npoints - 1] == y)
+            return;
+        if (npoints > 1 && onBorder(npoints - 1, x, y) && onBorder(npoints - 2, x, y)) {
+            // the middle of three points on the border adds nothing but a spike
+            xpoints[npoints - 1] = x;
+            ypoints[npoints - 1] = y;
+            return;
+        }
+        if (npoints == xpoints.length) {
+            int[] nx = new int[npoints * 2];
+            int[] ny = new int[npoints * 2];
+            System.arraycopy(xpoints, 0, nx, 0, npoints);
+            System.arraycopy(ypoints, 0, ny, 0, npoints);
+            xpoints = nx;
+            ypoints = ny;
+        }
+        xpoints[npoints] = x;
+        ypoints[npoints] = y;
+        npoints++;
+    }
+
+    private void close() {
+        // the polygon is closed implicitly
+        while (npoints > 1 && xpoints[npoints - 1] == xpoints[0] && ypoints[npoints - 1] == ypoints[0]) {
+            npoints--;
+        }
+    }
+
+    private Polygon toPolygon() {
+        close();
+        return new Polygon(xpoints, ypoints, npoints);
+    }
+}
@@ -0,0 +1,106 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Point;
+
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+
+/**
+ * Screen coordinates of nodes for one view transform.
+ *
+ * The coordinates are stored in the node itself together with the view id
+ * they were computed for, so a node shared by several ways (or drawn both as
+ * part of a way and as a node) is projected only once per view. Values stay
+ * valid across repaints as long as the view transform does not change and the
+ * node is not moved.
+ *
+ * The results are identical to {@link NavigatableComponent#getPoint(Node)}.
+ * Painting happens in the event dispatch thread only; code running in other
+ * threads must create a non-storing instance, which computes the coordinates
+ * on every call and leaves the nodes untouched.
+ */
+public class ScreenPointCache {
+
+    private final int viewCode;
+    private final double centerEast;
+    private final double centerNorth;
+    private final double scale;
+    private final int halfWidth;
+    private final int halfHeight;
+    private final boolean store;
+
+    public ScreenPointCache(NavigatableComponent nc) {
+        this(nc, true);
+    }
+
+    /**
+     * @param nc the component providing the view transform
+     * @param store true if the computed coordinates should be stored in the nodes
+     */
+    public ScreenPointCache(NavigatableComponent nc, boolean store) {
+        this.store = store;
+        int id = nc.getViewID();
+        // 0 marks an invalid entry, see Node#setCoorInternal
+        this.viewCode = id == 0 ? 1 : id;
+        EastNorth center = nc.getCenter();
+        this.centerEast = center.east();
+        this.centerNorth = center.north();
+        this.scale = nc.getScale();
+        this.halfWidth = nc.getWidth() / 2;
+        this.halfHeight = nc.getHeight() / 2;
+    }
+
+    /**
+     * @return the id of the view transform the coordinates are computed for
+     */
+    public int getViewCode() {
+        return viewCode;
+    }
+
+    private int projectX(EastNorth en) {
+        return en == null ? 0 : (int) ((en.east() - centerEast) / scale + halfWidth);
+    }
+
+    private int projectY(EastNorth en) {
+        return en == null ? 0 : (int) ((centerNorth - en.north()) / scale + halfHeight);
+    }
+
+    private void update(Node n) {
+        if (n.mappaintViewCode != viewCode) {
+            EastNorth en = n.getEastNorth();
+            n.mappaintX = projectX(en);
+            n.mappaintY = projectY(en);
+            n.mappaintViewCode = viewCode;
+        }
+    }
+
+    /**
+     * @return the screen x coordinate of the node
+     */
+    public int getX(Node n) {
+        if (!store)
+            return projectX(n.getEastNorth());
+        update(n);
+        return n.mappaintX;
+    }
+
+    /**
+     * @return the screen y coordinate of the node
+     */
+    public int getY(Node n) {
+        if (!store)
+            return projectY(n.getEastNorth());
+        update(n);
+        return n.mappaintY;
+    }
+
+    /**
+     * Replies the screen position of the node as new point. Use {@link #getX(Node)}
+     * and {@link #getY(Node)} in loops to avoid the allocation.
+     */
+    public Point getPoint(Node n) {
+        return new Point(getX(n), getY(n));
+    }
+}
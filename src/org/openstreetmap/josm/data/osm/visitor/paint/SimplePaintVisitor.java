@@ -1,8 +1,6 @@
 /* License: GPL. Copyright 2007 by Immanuel Scholz and others */
 package org.openstreetmap.josm.data.osm.visitor.paint;
 
-/* To enable debugging or profiling remove the double / signs */
-
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Graphics2D;
@@ -13,8 +11,11 @@ import java.awt.RenderingHints;
 import java.awt.Stroke;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
@@ -43,6 +44,14 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
      * MapView to get screen coordinates.
      */
     protected NavigatableComponent nc;
+    /**
+     * Screen coordinates of the nodes for the current view.
+     */
+    protected ScreenPointCache points;
+    /**
+     * Clip bounds of the graphics, enlarged to avoid arrow heads at the border.
+     */
+    protected Rectangle clipBounds;
 
     public boolean inactive;
 
@@ -78,11 +87,29 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
     protected int virtualNodeSpace;
     protected int segmentNumberSpace;
 
+    private PaintStatistics statistics = new PaintStatistics();
+
     /**
-     * Draw subsequent segments of same color as one Path
+     * Segments of one color, drawn as one path by {@link SimplePaintVisitor#displaySegments()}.
+     * The path is reset after drawing rather than recreated, so its buffers are
+     * reused by the following paints.
      */
-    protected Color currentColor = null;
-    protected GeneralPath currentPath = new GeneralPath();
+    private static class Segments {
+        private final Color color;
+        private final GeneralPath path = new GeneralPath();
+        private boolean empty = true;
+
+        public Segments(Color color) {
+            this.color = color;
+        }
+    }
+
+    /**
+     * Pending segments, in drawing order
+     */
+    private final List<Segments> segments = new ArrayList<Segments>();
+    private Segments currentSegments;
+    private final GeneralPath relationPath = new GeneralPath();
 
     public void getColors()
     {
@@ -131,102 +158,133 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
     }
 
     DataSet ds;
-    public void visitAll(DataSet data, boolean virtual, Bounds bounds) {
-        BBox bbox = new BBox(bounds);
-        this.ds = data;
-        //boolean profiler = Main.pref.getBoolean("simplepaint.profiler",false);
-        //long profilerStart = java.lang.System.currentTimeMillis();
-        //long profilerLast = profilerStart;
-        //int profilerN = 0;
-        //if(profiler)
-        //    System.out.println("Simplepaint Profiler");
+    /**
+     * Paint as if nothing was selected or highlighted, see {@link #visitUnselected(DataSet, boolean, Bounds)}.
+     */
+    protected boolean hideSelection;
 
+    protected boolean isSelected(OsmPrimitive osm) {
+        return !hideSelection && ds.isSelected(osm);
+    }
+
+    protected boolean isHighlighted(OsmPrimitive osm) {
+        return !hideSelection && osm.isHighlighted();
+    }
+
+    private void prepare(DataSet data, boolean virtual) {
+        this.ds = data;
+        statistics = new PaintStatistics();
         getSettings(virtual);
+        points = new ScreenPointCache(nc);
+        clipBounds = g.getClipBounds();
+        clipBounds.grow(100, 100);
+        // ways are drawn color by color: disabled ones at the bottom, untagged over tagged, selected on top
+        initSegments(inactiveColor, dfltWayColor, untaggedWayColor, highlightColor, selectedColor);
+    }
 
-        //if(profiler)
-        //{
-        //    System.out.format("Prepare  : %4dms\n", (java.lang.System.currentTimeMillis()-profilerLast));
-        //    profilerLast = java.lang.System.currentTimeMillis();
-        //}
+    public void visitAll(DataSet data, boolean virtual, Bounds bounds) {
+        hideSelection = false;
+        paint(data, virtual, bounds);
+    }
 
-        /* draw tagged ways first, then untagged ways. takes
-           time to iterate through list twice, OTOH does not
-           require changing the colour while painting... */
-        //profilerN = 0;
+    public void visitUnselected(DataSet data, boolean virtual, Bounds bounds) {
+        hideSelection = true;
+        paint(data, virtual, bounds);
+    }
+
+    private void paint(DataSet data, boolean virtual, Bounds bounds) {
+        BBox bbox = new BBox(bounds);
+        prepare(data, virtual);
+
+        statistics.startPass("relations");
         for (final OsmPrimitive osm: data.searchRelations(bbox)) {
-            if (!osm.isDeleted() && !ds.isSelected(osm) && !osm.isDisabledAndHidden()) {
+            if (!osm.isDeleted() && !isSelected(osm) && !osm.isDisabledAndHidden()) {
                 osm.visit(this);
-                //        profilerN++;
             }
         }
 
-        //if(profiler)
-        //{
-        //    System.out.format("Relations: %4dms, n=%5d\n", (java.lang.System.currentTimeMillis()-profilerLast), profilerN);
-        //    profilerLast = java.lang.System.currentTimeMillis();
-        //}
-
-        //profilerN = 0;
-        for (final OsmPrimitive osm:data.searchWays(bbox)){
-            if (!osm.isDeleted() && !ds.isSelected(osm) && !osm.isDisabledAndHidden() && osm.isTagged()) {
-                osm.visit(this);
-                //        profilerN++;
+        /* one pass over the ways, the segments are collected per color
+           and untagged ways end up on top of tagged ones */
+        statistics.startPass("ways");
+        for (final Way osm : data.searchWays(bbox)) {
+            if (!osm.isDeleted() && !isSelected(osm) && !osm.isDisabledAndHidden()) {
+                visit(osm);
             }
         }
         displaySegments();
 
-        for (final OsmPrimitive osm:data.searchWays(bbox)){
-            if (!osm.isDeleted() && !ds.isSelected(osm) && !osm.isDisabledAndHidden() && !osm.isTagged()) {
+        if (!hideSelection) {
+            statistics.startPass("selected");
+            for (final OsmPrimitive osm : data.getSelected()) {
+                if (!osm.isDeleted()) {
+                    osm.visit(this);
+                }
+            }
+            displaySegments();
+        }
+
+        statistics.startPass("nodes");
+        for (final OsmPrimitive osm: data.searchNodes(bbox)) {
+            if (!osm.isDeleted() && !isSelected(osm) && !osm.isDisabledAndHidden())
+            {
                 osm.visit(this);
-                //        profilerN++;
             }
         }
-        displaySegments();
 
-        //if(profiler)
-        //{
-        //    System.out.format("Ways     : %4dms, n=%5d\n",
-        //        (java.lang.System.currentTimeMillis()-profilerLast), profilerN);
-        //    profilerLast = java.lang.System.currentTimeMillis();
-        //}
+        statistics.startPass("virtual nodes");
+        drawVirtualNodes(data, bbox);
+        statistics.finish();
+    }
 
-        //profilerN = 0;
-        for (final OsmPrimitive osm : data.getSelected()) {
-            if (!osm.isDeleted()) {
+    /**
+     * Paints the selected and highlighted primitives over the result of
+     * {@link #visitUnselected(DataSet, boolean, Bounds)}, nodes of selected or
+     * highlighted ways on top.
+     */
+    public void visitSelection(DataSet data, Bounds bounds) {
+        hideSelection = false;
+        prepare(data, false);
+
+        Collection<OsmPrimitive> selected = data.getSelected();
+        Collection<OsmPrimitive> highlighted = data.getHighlighted();
+        statistics.startPass("selected");
+        for (final OsmPrimitive osm : highlighted) {
+            if (!(osm instanceof Node) && !osm.isDeleted() && !osm.isDisabledAndHidden() && !ds.isSelected(osm)) {
+                osm.visit(this);
+            }
+        }
+        for (final OsmPrimitive osm : selected) {
+            if (!(osm instanceof Node) && !osm.isDeleted()) {
                 osm.visit(this);
-                //        profilerN++;
             }
         }
         displaySegments();
 
-        //if(profiler)
-        //{
-        //    System.out.format("Selected : %4dms, n=%5d\n", (java.lang.System.currentTimeMillis()-profilerLast), profilerN);
-        //    profilerLast = java.lang.System.currentTimeMillis();
-        //}
+        statistics.startPass("nodes");
+        Set<Node> drawn = new HashSet<Node>();
+        for (final OsmPrimitive osm : selected) {
+            visitOverlayNodes(osm, drawn);
+        }
+        for (final OsmPrimitive osm : highlighted) {
+            visitOverlayNodes(osm, drawn);
+        }
+        statistics.finish();
+    }
 
-        //profilerN = 0;
-        for (final OsmPrimitive osm: data.searchNodes(bbox)) {
-            if (!osm.isDeleted() && !ds.isSelected(osm) && !osm.isDisabledAndHidden())
-            {
+    private void visitOverlayNodes(OsmPrimitive osm, Set<Node> drawn) {
+        if (osm.isDeleted())
+            return;
+        if (osm instanceof Node) {
+            if (drawn.add((Node) osm)) {
                 osm.visit(this);
-                //        profilerN++;
+            }
+        } else if (osm instanceof Way) {
+            for (Node n : ((Way) osm).getNodes()) {
+                if (!n.isDeleted() && (isSelected(n) || !n.isDisabledAndHidden()) && drawn.add(n)) {
+                    n.visit(this);
+                }
             }
         }
-
-        //if(profiler)
-        //{
-        //    System.out.format("Nodes    : %4dms, n=%5d\n",
-        //        (java.lang.System.currentTimeMillis()-profilerLast), profilerN);
-        //    profilerLast = java.lang.System.currentTimeMillis();
-        //}
-
-        drawVirtualNodes(data.searchWays(bbox));
-
-        //if(profiler)
-        //{
-        //    System.out.format("All      : %4dms\n", (profilerLast-profilerStart));
-        //}
     }
 
     private static final int max(int a, int b, int c, int d) {
@@ -241,38 +299,46 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
      */
     public void visit(Node n) {
         if (n.isIncomplete()) return;
+        statistics.visited();
+        int x = points.getX(n), y = points.getY(n);
+        if ((x < 0) || (y < 0) || (x > nc.getWidth()) || (y > nc.getHeight()))
+            return;
+        statistics.drawn();
 
-        if (n.isHighlighted()) {
+        if (isHighlighted(n)) {
             drawNode(n, highlightColor, selectedNodeSize, fillSelectedNode);
         } else {
             Color color;
+            boolean selected = isSelected(n);
+            boolean tagged = n.isTagged();
+            boolean connection = n.isConnectionNode();
 
             if (inactive || n.isDisabled()) {
                 color = inactiveColor;
-            } else if (ds.isSelected(n)) {
+            } else if (selected) {
                 color = selectedColor;
-            } else if (n.isConnectionNode()) {
-                if (n.isTagged()) {
+            } else if (connection) {
+                if (tagged) {
                     color = taggedConnectionColor;
                 } else {
                     color = connectionColor;
                 }
             } else {
-                if (n.isTagged()) {
+                if (tagged) {
                     color = taggedColor;
                 } else {
                     color = nodeColor;
                 }
             }
 
-            final int size = max((ds.isSelected(n) ? selectedNodeSize : 0),
-                    (n.isTagged() ? taggedNodeSize : 0),
-                    (n.isConnectionNode() ? connectionNodeSize : 0),
+            final int size = max((selected ? selectedNodeSize : 0),
+                    (tagged ? taggedNodeSize : 0),
+                    (connection ? connectionNodeSize : 0),
                     unselectedNodeSize);
 
-            final boolean fill = (ds.isSelected(n) && fillSelectedNode) ||
-            (n.isTagged() && fillTaggedNode) ||
-            (n.isConnectionNode() && fillConnectionNode) ||
+            final boolean fill = (selected && fillSelectedNode) ||
+            (tagged && fillTaggedNode) ||
+            (connection && fillConnectionNode) ||
             fillUnselectedNode;
 
             drawNode(n, color, size, fill);
@@ -286,41 +352,21 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
         return (xd+yd > space);
     }
 
-    public void drawVirtualNodes(Collection<Way> ways) {
+    public static boolean isLargeSegment(int x1, int y1, int x2, int y2, int space)
+    {
+        return Math.abs(x1-x2) + Math.abs(y1-y2) > space;
+    }
+
+    public void drawVirtualNodes(DataSet data, BBox bbox) {
 
         if (virtualNodeSize != 0) {
-            GeneralPath path = new GeneralPath();
-            for (Way osm: ways){
-                if (osm.isUsable() && !osm.isDisabledAndHidden() && !osm.isDisabled()) {
-                    visitVirtual(path, osm);
-                }
-            }
+            GeneralPath path = VirtualNodeCache.getInstance().get(data, bbox, points, nc.getWidth(), nc.getHeight(),
+                    virtualNodeSize, virtualNodeSpace);
             g.setColor(nodeColor);
             g.draw(path);
         }
     }
 
-    public void visitVirtual(GeneralPath path, Way w) {
-        Iterator<Node> it = w.getNodes().iterator();
-        if (it.hasNext()) {
-            Point lastP = nc.getPoint(it.next());
-            while(it.hasNext())
-            {
-                Point p = nc.getPoint(it.next());
-                if(isSegmentVisible(lastP, p) && isLargeSegment(lastP, p, virtualNodeSpace))
-                {
-                    int x = (p.x+lastP.x)/2;
-                    int y = (p.y+lastP.y)/2;
-                    path.moveTo(x-virtualNodeSize, y);
-                    path.lineTo(x+virtualNodeSize, y);
-                    path.moveTo(x, y-virtualNodeSize);
-                    path.lineTo(x, y+virtualNodeSize);
-                }
-                lastP = p;
-            }
-        }
-    }
-
     /**
      * Draw a darkblue line for all segments.
      * @param w The way to draw.
@@ -328,22 +374,24 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
     public void visit(Way w) {
         if (w.isIncomplete() || w.getNodesCount() < 2)
             return;
+        statistics.visited();
+        statistics.drawn();
 
         /* show direction arrows, if draw.segment.relevant_directions_only is not set, the way is tagged with a direction key
            (even if the tag is negated as in oneway=false) or the way is selected */
 
-        boolean showThisDirectionArrow = ds.isSelected(w)
+        boolean showThisDirectionArrow = isSelected(w)
         || (showDirectionArrow && (!showRelevantDirectionsOnly || w.hasDirectionKeys()));
         /* head only takes over control if the option is true,
            the direction should be shown at all and not only because it's selected */
-        boolean showOnlyHeadArrowOnly = showThisDirectionArrow && !ds.isSelected(w) && showHeadArrowOnly;
+        boolean showOnlyHeadArrowOnly = showThisDirectionArrow && !isSelected(w) && showHeadArrowOnly;
         Color wayColor;
 
         if (inactive || w.isDisabled()) {
             wayColor = inactiveColor;
-        } else if(w.isHighlighted()) {
+        } else if(isHighlighted(w)) {
             wayColor = highlightColor;
-        } else if(ds.isSelected(w)) {
+        } else if(isSelected(w)) {
             wayColor = selectedColor;
         } else if (!w.isTagged()) {
             wayColor = untaggedWayColor;
@@ -351,18 +399,19 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
             wayColor = dfltWayColor;
         }
 
-        Iterator<Node> it = w.getNodes().iterator();
-        if (it.hasNext()) {
-            Point lastP = nc.getPoint(it.next());
-            for (int orderNumber = 1; it.hasNext(); orderNumber++) {
-                Point p = nc.getPoint(it.next());
-                drawSegment(lastP, p, wayColor,
-                        showOnlyHeadArrowOnly ? !it.hasNext() : showThisDirectionArrow);
-                if (showOrderNumber) {
-                    drawOrderNumber(lastP, p, orderNumber);
-                }
-                lastP = p;
+        int count = w.getNodesCount();
+        Node n = w.getNode(0);
+        int lastX = points.getX(n), lastY = points.getY(n);
+        for (int orderNumber = 1; orderNumber < count; orderNumber++) {
+            n = w.getNode(orderNumber);
+            int x = points.getX(n), y = points.getY(n);
+            drawSegment(lastX, lastY, x, y, wayColor,
+                    showOnlyHeadArrowOnly ? orderNumber == count - 1 : showThisDirectionArrow);
+            if (showOrderNumber) {
+                drawOrderNumber(lastX, lastY, x, y, orderNumber);
             }
+            lastX = x;
+            lastY = y;
         }
     }
 
@@ -370,11 +419,13 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
             4, BasicStroke.CAP_SQUARE, BasicStroke.JOIN_BEVEL);
     public void visit(Relation r) {
         if (r.isIncomplete()) return;
+        statistics.visited();
+        statistics.drawn();
 
         Color col;
         if (inactive || r.isDisabled()) {
             col = inactiveColor;
-        } else if (ds.isSelected(r)) {
+        } else if (isSelected(r)) {
             col = selectedColor;
         } else {
             col = relationColor;
@@ -387,31 +438,34 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
             }
 
             if (m.isNode()) {
-                Point p = nc.getPoint(m.getNode());
-                if (p.x < 0 || p.y < 0
-                        || p.x > nc.getWidth() || p.y > nc.getHeight()) {
+                int x = points.getX(m.getNode()), y = points.getY(m.getNode());
+                if (x < 0 || y < 0
+                        || x > nc.getWidth() || y > nc.getHeight()) {
                     continue;
                 }
 
-                g.drawOval(p.x-3, p.y-3, 6, 6);
+                g.drawOval(x-3, y-3, 6, 6);
             } else if (m.isWay()) {
-                GeneralPath path = new GeneralPath();
+                GeneralPath path = relationPath;
+                path.reset();
 
                 boolean first = true;
                 for (Node n : m.getWay().getNodes()) {
                     if (n.isIncomplete() || n.isDeleted()) {
                         continue;
                     }
-                    Point p = nc.getPoint(n);
+                    int x = points.getX(n), y = points.getY(n);
                     if (first) {
-                        path.moveTo(p.x, p.y);
+                        path.moveTo(x, y);
                         first = false;
                     } else {
-                        path.lineTo(p.x, p.y);
+                        path.lineTo(x, y);
                     }
                 }
 
-                g.draw(relatedWayStroke.createStrokedShape(path));
+                if (!first) {
+                    g.draw(relatedWayStroke.createStrokedShape(path));
+                }
             }
         }
     }
@@ -421,15 +475,19 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
      * parents way
      */
     protected void drawOrderNumber(Point p1, Point p2, int orderNumber) {
-        if (isSegmentVisible(p1, p2) && isLargeSegment(p1, p2, segmentNumberSpace)) {
+        drawOrderNumber(p1.x, p1.y, p2.x, p2.y, orderNumber);
+    }
+
+    protected void drawOrderNumber(int x1, int y1, int x2, int y2, int orderNumber) {
+        if (isSegmentVisible(x1, y1, x2, y2) && isLargeSegment(x1, y1, x2, y2, segmentNumberSpace)) {
             String on = Integer.toString(orderNumber);
             int strlen = on.length();
-            int x = (p1.x+p2.x)/2 - 4*strlen;
-            int y = (p1.y+p2.y)/2 + 4;
+            int x = (x1+x2)/2 - 4*strlen;
+            int y = (y1+y2)/2 + 4;
 
-            if(virtualNodeSize != 0 && isLargeSegment(p1, p2, virtualNodeSpace))
+            if(virtualNodeSize != 0 && isLargeSegment(x1, y1, x2, y2, virtualNodeSpace))
             {
-                y = (p1.y+p2.y)/2 - virtualNodeSize - 3;
+                y = (y1+y2)/2 - virtualNodeSize - 3;
             }
 
             displaySegments(); /* draw nodes on top! */
@@ -450,16 +508,16 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
     public void drawNode(Node n, Color color, int size, boolean fill) {
         if (size > 1) {
             int radius = size / 2;
-            Point p = nc.getPoint(n);
-            if ((p.x < 0) || (p.y < 0) || (p.x > nc.getWidth())
-                    || (p.y > nc.getHeight()))
+            int x = points.getX(n), y = points.getY(n);
+            if ((x < 0) || (y < 0) || (x > nc.getWidth())
+                    || (y > nc.getHeight()))
                 return;
             g.setColor(color);
             if (fill) {
-                g.fillRect(p.x - radius, p.y - radius, size, size);
-                g.drawRect(p.x - radius, p.y - radius, size, size);
+                g.fillRect(x - radius, y - radius, size, size);
+                g.drawRect(x - radius, y - radius, size, size);
             } else {
-                g.drawRect(p.x - radius, p.y - radius, size, size);
+                g.drawRect(x - radius, y - radius, size, size);
             }
         }
     }
@@ -469,25 +527,37 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
     private static final double sinPHI = Math.sin(PHI);
 
     protected void drawSegment(GeneralPath path, Point p1, Point p2, boolean showDirection) {
-        Rectangle bounds = g.getClipBounds();
-        bounds.grow(100, 100);                  // avoid arrow heads at the border
-        LineClip clip = new LineClip(p1, p2, bounds);
-        if (clip.execute()) {
-            p1 = clip.getP1();
-            p2 = clip.getP2();
-            path.moveTo(p1.x, p1.y);
-            path.lineTo(p2.x, p2.y);
-
-            if (showDirection) {
-                final double l =  10. / p1.distance(p2);
-
-                final double sx = l * (p1.x - p2.x);
-                final double sy = l * (p1.y - p2.y);
-
-                path.lineTo (p2.x + (int) Math.round(cosPHI * sx - sinPHI * sy), p2.y + (int) Math.round(sinPHI * sx + cosPHI * sy));
-                path.moveTo (p2.x + (int) Math.round(cosPHI * sx + sinPHI * sy), p2.y + (int) Math.round(- sinPHI * sx + cosPHI * sy));
-                path.lineTo(p2.x, p2.y);
-            }
+        drawSegment(path, p1.x, p1.y, p2.x, p2.y, showDirection);
+    }
+
+    protected void drawSegment(GeneralPath path, int x1, int y1, int x2, int y2, boolean showDirection) {
+        if (!clipBounds.contains(x1, y1) || !clipBounds.contains(x2, y2)) {
+            // cheap test for the common case of segments entirely on one side of the screen
+            int xmin = clipBounds.x, ymin = clipBounds.y;
+            int xmax = xmin + clipBounds.width, ymax = ymin + clipBounds.height;
+            if ((x1 < xmin && x2 < xmin) || (x1 > xmax && x2 > xmax)
+                    || (y1 < ymin && y2 < ymin) || (y1 > ymax && y2 > ymax))
+                return;
+            LineClip clip = new LineClip(new Point(x1, y1), new Point(x2, y2), clipBounds);
+            if (!clip.execute())
+                return;
+            x1 = clip.getP1().x;
+            y1 = clip.getP1().y;
+            x2 = clip.getP2().x;
+            y2 = clip.getP2().y;
+        }
+        path.moveTo(x1, y1);
+        path.lineTo(x2, y2);
+
+        if (showDirection) {
+            final double l =  10. / Math.sqrt((double)(x1 - x2) * (x1 - x2) + (double)(y1 - y2) * (y1 - y2));
+
+            final double sx = l * (x1 - x2);
+            final double sy = l * (y1 - y2);
+
+            path.lineTo (x2 + (int) Math.round(cosPHI * sx - sinPHI * sy), y2 + (int) Math.round(sinPHI * sx + cosPHI * sy));
+            path.moveTo (x2 + (int) Math.round(cosPHI * sx + sinPHI * sy), y2 + (int) Math.round(- sinPHI * sx + cosPHI * sy));
+            path.lineTo(x2, y2);
         }
     }
 
@@ -495,17 +565,60 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
      * Draw a line with the given color.
      */
     protected void drawSegment(Point p1, Point p2, Color col, boolean showDirection) {
-        if (col != currentColor) {
-            displaySegments(col);
+        drawSegment(p1.x, p1.y, p2.x, p2.y, col, showDirection);
+    }
+
+    /**
+     * Draw a line with the given color.
+     */
+    protected void drawSegment(int x1, int y1, int x2, int y2, Color col, boolean showDirection) {
+        Segments current = currentSegments;
+        if (current == null || current.color != col) {
+            current = getSegments(col);
+            currentSegments = current;
+        }
+        current.empty = false;
+        drawSegment(current.path, x1, y1, x2, y2, showDirection);
+    }
+
+    private Segments getSegments(Color color) {
+        Segments result = findSegments(segments, color);
+        if (result == null) {
+            result = new Segments(color);
+            segments.add(result);
         }
-        drawSegment(currentPath, p1, p2, showDirection);
+        return result;
     }
 
-    protected boolean isSegmentVisible(Point p1, Point p2) {
-        if ((p1.x < 0) && (p2.x < 0)) return false;
-        if ((p1.y < 0) && (p2.y < 0)) return false;
-        if ((p1.x > nc.getWidth()) && (p2.x > nc.getWidth())) return false;
-        if ((p1.y > nc.getHeight()) && (p2.y > nc.getHeight())) return false;
+    private static Segments findSegments(List<Segments> list, Color color) {
+        for (Segments s : list) {
+            if (s.color.equals(color))
+                return s;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the drawing order of the segment colors. Paths of colors used
+     * before are kept.
+     */
+    private void initSegments(Color... colors) {
+        List<Segments> unused = new ArrayList<Segments>(segments);
+        segments.clear();
+        currentSegments = null;
+        for (Color color : colors) {
+            if (color != null && findSegments(segments, color) == null) {
+                Segments s = findSegments(unused, color);
+                segments.add(s != null ? s : new Segments(color));
+            }
+        }
+    }
+
+    protected boolean isSegmentVisible(int x1, int y1, int x2, int y2) {
+        if ((x1 < 0) && (x2 < 0)) return false;
+        if ((y1 < 0) && (y2 < 0)) return false;
+        if ((x1 > nc.getWidth()) && (x2 > nc.getWidth())) return false;
+        if ((y1 > nc.getHeight()) && (y2 > nc.getHeight())) return false;
         return true;
     }
 
@@ -527,15 +640,21 @@ public class SimplePaintVisitor extends AbstractVisitor implements PaintVisitor
         this.nc = nc;
     }
 
+    public PaintStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Draws the pending segments, one call per color.
+     */
     protected void displaySegments() {
-        displaySegments(null);
-    }
-    protected void displaySegments(Color newColor) {
-        if (currentPath != null) {
-            g.setColor(currentColor);
-            g.draw(currentPath);
-            currentPath = new GeneralPath();
-            currentColor = newColor;
+        for (Segments s : segments) {
+            if (!s.empty) {
+                g.setColor(s.color);
+                g.draw(s.path);
+                s.path.reset();
+                s.empty = true;
+            }
         }
     }
 
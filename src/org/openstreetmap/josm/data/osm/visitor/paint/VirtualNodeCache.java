@@ -0,0 +1,222 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.geom.GeneralPath;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.BBox;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+
+/**
+ * Keeps the virtual nodes (the handles in the middle of long way segments)
+ * drawn for a dataset between repaints.
+ *
+ * The shape is built for one view transform and one area, and reused as long
+ * as the view, the virtual node settings and the data do not change and the
+ * area that is painted lies within the one it has been built for. Changes of
+ * the data are reported by dataset events, changes of the filter state by
+ * {@link DataSet#getFilterUpdateCount()}.
+ *
+ * While building, the screen is divided into a grid with cells of half the
+ * size of the virtual node handle. A handle is only added if its cell is still
+ * empty, so segments whose middles are closer than that on screen are skipped.
+ */
+public class VirtualNodeCache implements DataSetListener, MapView.LayerChangeListener {
+
+    private static VirtualNodeCache instance;
+
+    public static synchronized VirtualNodeCache getInstance() {
+        if (instance == null) {
+            instance = new VirtualNodeCache();
+            MapView.addLayerChangeListener(instance);
+        }
+        return instance;
+    }
+
+    private static class Entry {
+        private GeneralPath path;
+        /** the area the path has been built for */
+        private BBox bbox;
+        private int viewCode;
+        private int width;
+        private int height;
+        private int size;
+        private int space;
+        private int filterUpdateCount;
+
+        public boolean isValid(DataSet ds, BBox bbox, ScreenPointCache points, int width, int height, int size, int space) {
+            return path != null && viewCode == points.getViewCode() && this.width == width && this.height == height
+            && this.size == size && this.space == space && filterUpdateCount == ds.getFilterUpdateCount()
+            && this.bbox.bounds(bbox);
+        }
+    }
+
+    private final Map<DataSet, Entry> cache = new HashMap<DataSet, Entry>();
+
+    private VirtualNodeCache() {
+    }
+
+    /**
+     * Replies the virtual nodes of all ways in <code>bbox</code> as one shape.
+     * The returned shape must not be modified.
+     *
+     * @param ds the dataset
+     * @param bbox the visible area, must match the view of <code>points</code>
+     * @param points the screen coordinates for the current view
+     * @param width the width of the visible area in pixels
+     * @param height the height of the visible area in pixels
+     * @param size half the size of a virtual node handle
+     * @param space minimum length (x plus y distance) of a segment to get a virtual node
+     */
+    public synchronized GeneralPath get(DataSet ds, BBox bbox, ScreenPointCache points, int width, int height, int size, int space) {
+        Entry entry = cache.get(ds);
+        if (entry == null) {
+            entry = new Entry();
+            cache.put(ds, entry);
+            ds.addDataSetListener(this);
+        }
+        if (!entry.isValid(ds, bbox, points, width, height, size, space)) {
+            entry.filterUpdateCount = ds.getFilterUpdateCount();
+            entry.path = build(ds, bbox, points, width, height, size, space);
+            entry.bbox = new BBox(bbox);
+            entry.viewCode = points.getViewCode();
+            entry.width = width;
+            entry.height = height;
+            entry.size = size;
+            entry.space = space;
+        }
+        return entry.path;
+    }
+
+    private static GeneralPath build(DataSet ds, BBox bbox, ScreenPointCache points, int width, int height, int size, int space) {
+        GeneralPath path = new GeneralPath();
+        int cell = Math.max(size, 1);
+        int columns = width / cell + 1;
+        int rows = height / cell + 1;
+        boolean[] occupied = new boolean[columns * rows];
+
+        for (Way w : ds.searchWays(bbox)) {
+            if (!w.isUsable() || w.isDisabled()) {
+                continue;
+            }
+            int count = w.getNodesCount();
+            if (count == 0) {
+                continue;
+            }
+            Node n = w.getNode(0);
+            int lastX = points.getX(n), lastY = points.getY(n);
+            for (int i = 1; i < count; i++) {
+                n = w.getNode(i);
+                int x = points.getX(n), y = points.getY(n);
+                if (isSegmentVisible(lastX, lastY, x, y, width, height) && isLargeSegment(lastX, lastY, x, y, space)) {
+                    int mx = (x+lastX)/2;
+                    int my = (y+lastY)/2;
+                    boolean free = true;
+                    if (mx >= 0 && my >= 0 && mx <= width && my <= height) {
+                        int index = (my / cell) * columns + mx / cell;
+                        free = !occupied[index];
+                        occupied[index] = true;
+                    }
+                    if (free) {
+                        path.moveTo(mx-size, my);
+                        path.lineTo(mx+size, my);
+                        path.moveTo(mx, my-size);
+                        path.lineTo(mx, my+size);
+                    }
+                }
+                lastX = x;
+                lastY = y;
+            }
+        }
+        return path;
+    }
+
+    private static boolean isSegmentVisible(int x1, int y1, int x2, int y2, int width, int height) {
+        if ((x1 < 0) && (x2 < 0)) return false;
+        if ((y1 < 0) && (y2 < 0)) return false;
+        if ((x1 > width) && (x2 > width)) return false;
+        if ((y1 > height) && (y2 > height)) return false;
+        return true;
+    }
+
+    private static boolean isLargeSegment(int x1, int y1, int x2, int y2, int space) {
+        return Math.abs(x1-x2) + Math.abs(y1-y2) > space;
+    }
+
+    private synchronized void invalidate(DataSet ds) {
+        Entry entry = cache.get(ds);
+        if (entry != null) {
+            entry.path = null;
+        }
+    }
+
+    /*-------------------
+     * DataSetListener
+     *-------------------*/
+
+    public void primtivesAdded(PrimitivesAddedEvent event) {
+        invalidate(event.getDataset());
+    }
+
+    public void primtivesRemoved(PrimitivesRemovedEvent event) {
+        invalidate(event.getDataset());
+    }
+
+    public void tagsChanged(TagsChangedEvent event) {
+        // virtual nodes do not depend on tags
+    }
+
+    public void nodeMoved(NodeMovedEvent event) {
+        invalidate(event.getDataset());
+    }
+
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        invalidate(event.getDataset());
+    }
+
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        // virtual nodes do not depend on relations
+    }
+
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // changeset ids do not matter
+    }
+
+    public void dataChanged(DataChangedEvent event) {
+        invalidate(event.getDataset());
+    }
+
+    /*-------------------
+     * LayerChangeListener
+     *-------------------*/
+
+    public void activeLayerChange(Layer oldLayer, Layer newLayer) {
+    }
+
+    public void layerAdded(Layer newLayer) {
+    }
+
+    public synchronized void layerRemoved(Layer oldLayer) {
+        if (oldLayer instanceof OsmDataLayer) {
+            DataSet ds = ((OsmDataLayer) oldLayer).data;
+            if (cache.remove(ds) != null) {
+                ds.removeDataSetListener(this);
+            }
+        }
+    }
+}
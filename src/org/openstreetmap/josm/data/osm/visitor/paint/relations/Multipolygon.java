@@ -12,6 +12,7 @@ import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.Relation;
 import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.visitor.paint.ScreenPointCache;
 import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.PolyData.Intersection;
 import org.openstreetmap.josm.gui.NavigatableComponent;
 
@@ -19,10 +20,18 @@ public class Multipolygon {
 
     public static class JoinedWay {
         private final List<Node> nodes;
+        private final List<Way> ways;
         private final boolean selected;
 
         public JoinedWay(List<Node> nodes, boolean selected) {
             this.nodes = nodes;
+            this.ways = null;
+            this.selected = selected;
+        }
+
+        public JoinedWay(List<Node> nodes, List<Way> ways, boolean selected) {
+            this.nodes = nodes;
+            this.ways = ways;
             this.selected = selected;
         }
 
@@ -30,6 +39,13 @@ public class Multipolygon {
             return nodes;
         }
 
+        /**
+         * @return the ways this way was joined from, null if unknown
+         */
+        public List<Way> getWays() {
+            return ways;
+        }
+
         public boolean isSelected() {
             return selected;
         }
@@ -42,28 +58,33 @@ public class Multipolygon {
     public static class PolyData {
         public enum Intersection {INSIDE, OUTSIDE, CROSSING}
 
-        public Polygon poly = new Polygon();
+        public Polygon poly;
         public final boolean selected;
         private Point lastP;
         private Rectangle bounds;
 
-        public PolyData(NavigatableComponent nc, JoinedWay joinedWay) {
-            this(nc, joinedWay.getNodes(), joinedWay.isSelected());
+        public PolyData(ScreenPointCache points, JoinedWay joinedWay) {
+            this(points, joinedWay.getNodes(), joinedWay.isSelected());
         }
 
-        public PolyData(NavigatableComponent nc, List<Node> nodes, boolean selected) {
+        public PolyData(ScreenPointCache points, List<Node> nodes, boolean selected) {
             this.selected = selected;
-            Point p = null;
+            int size = nodes.size();
+            boolean closed = nodes.get(0).equals(nodes.get(size - 1));
+            poly = new Polygon(new int[closed ? size : size + 1], new int[closed ? size : size + 1], 0);
+            int x = 0, y = 0;
             for (Node n : nodes)
             {
-                p = nc.getPoint(n);
-                poly.addPoint(p.x,p.y);
+                x = points.getX(n);
+                y = points.getY(n);
+                poly.addPoint(x, y);
             }
-            if (!nodes.get(0).equals(nodes.get(nodes.size() - 1))) {
-                p = nc.getPoint(nodes.get(0));
-                poly.addPoint(p.x, p.y);
+            if (!closed) {
+                x = points.getX(nodes.get(0));
+                y = points.getY(nodes.get(0));
+                poly.addPoint(x, y);
             }
-            lastP = p;
+            lastP = new Point(x, y);
         }
 
         public PolyData(PolyData copy) {
@@ -109,7 +130,7 @@ public class Multipolygon {
         }
     }
 
-    private final NavigatableComponent nc;
+    private final ScreenPointCache points;
 
     private final List<Way> innerWays = new ArrayList<Way>();
     private final List<Way> outerWays = new ArrayList<Way>();
@@ -118,11 +139,27 @@ public class Multipolygon {
     private final List<PolyData> combinedPolygons = new ArrayList<PolyData>();
 
     public Multipolygon(NavigatableComponent nc) {
-        this.nc = nc;
+        this(new ScreenPointCache(nc, false));
+    }
+
+    public Multipolygon(ScreenPointCache points) {
+        this.points = points;
     }
 
     public void load(Relation r) {
-        // Fill inner and outer list with valid ways
+        loadMembers(r, innerWays, outerWays);
+
+        createPolygons(innerWays, innerPolygons);
+        createPolygons(outerWays, outerPolygons);
+        if (!outerPolygons.isEmpty()) {
+            addInnerToOuters();
+        }
+    }
+
+    /**
+     * Fills inner and outer list with the drawable member ways of the relation
+     */
+    public static void loadMembers(Relation r, List<Way> innerWays, List<Way> outerWays) {
         for (RelationMember m : r.getMembers()) {
             if (m.getMember().isDrawable()) {
                 if(m.isWay()) {
@@ -133,35 +170,29 @@ public class Multipolygon {
                     }
 
                     if("inner".equals(m.getRole())) {
-                        getInnerWays().add(w);
+                        innerWays.add(w);
                     } else if("outer".equals(m.getRole())) {
-                        getOuterWays().add(w);
+                        outerWays.add(w);
                     } else if (!m.hasRole()) {
-                        getOuterWays().add(w);
+                        outerWays.add(w);
                     } // Remaining roles ignored
                 } // Non ways ignored
             }
         }
-
-        createPolygons(innerWays, innerPolygons);
-        createPolygons(outerWays, outerPolygons);
-        if (!outerPolygons.isEmpty()) {
-            addInnerToOuters();
-        }
     }
 
     private void createPolygons(List<Way> ways, List<PolyData> result) {
         List<Way> waysToJoin = new ArrayList<Way>();
         for (Way way: ways) {
             if (way.isClosed()) {
-                result.add(new PolyData(nc, way.getNodes(), way.isSelected()));
+                result.add(new PolyData(points, way.getNodes(), way.isSelected()));
             } else {
                 waysToJoin.add(way);
             }
         }
 
         for (JoinedWay jw: joinWays(waysToJoin)) {
-            result.add(new PolyData(nc, jw));
+            result.add(new PolyData(points, jw));
         }
     }
 
@@ -175,6 +206,7 @@ public class Multipolygon {
             Way w = null;
             boolean selected = false;
             List<Node> n = null;
+            List<Way> ways = new ArrayList<Way>();
             boolean joined = true;
             while(joined && left != 0)
             {
@@ -185,7 +217,7 @@ public class Multipolygon {
                     {
                         Way c = joinArray[i];
                         if(w == null)
-                        { w = c; selected = w.isSelected(); joinArray[i] = null; --left; }
+                        { w = c; selected = w.isSelected(); ways.add(w); joinArray[i] = null; --left; }
                         else
                         {
                             int mode = 0;
@@ -220,6 +252,7 @@ public class Multipolygon {
                             if(mode != 0)
                             {
                                 joinArray[i] = null;
+                                ways.add(c);
                                 joined = true;
                                 if(c.isSelected()) {
                                     selected = true;
@@ -255,7 +288,7 @@ public class Multipolygon {
                 n = w.getNodes();
             }
 
-            res.add(new JoinedWay(n, selected));
+            res.add(new JoinedWay(n, ways, selected));
         } /* while(left != 0) */
 
         return res;
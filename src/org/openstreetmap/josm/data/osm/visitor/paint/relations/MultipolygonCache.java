@@ -0,0 +1,159 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint.relations;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.MapView;
+import org.openstreetmap.josm.gui.layer.Layer;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+
+/**
+ * Keeps the {@link MultipolygonRings} of multipolygon relations between
+ * repaints.
+ *
+ * An entry is dropped when a dataset event reports a change of the relation
+ * members, of the nodes of a member way or of the position of such a node.
+ * The cache registers itself as listener of every dataset it holds entries
+ * for and forgets the dataset when its data layer is removed.
+ */
+public class MultipolygonCache implements DataSetListener, MapView.LayerChangeListener {
+
+    private static MultipolygonCache instance;
+
+    public static synchronized MultipolygonCache getInstance() {
+        if (instance == null) {
+            instance = new MultipolygonCache();
+            MapView.addLayerChangeListener(instance);
+        }
+        return instance;
+    }
+
+    private final Map<DataSet, Map<Relation, MultipolygonRings>> cache = new HashMap<DataSet, Map<Relation, MultipolygonRings>>();
+
+    private MultipolygonCache() {
+    }
+
+    /**
+     * Replies the geometry of the multipolygon relation <code>r</code>,
+     * building it if it is not cached or no longer valid.
+     */
+    public synchronized MultipolygonRings get(Relation r) {
+        DataSet ds = r.getDataSet();
+        if (ds == null)
+            return new MultipolygonRings(r);
+
+        Map<Relation, MultipolygonRings> map = cache.get(ds);
+        if (map == null) {
+            map = new HashMap<Relation, MultipolygonRings>();
+            cache.put(ds, map);
+            ds.addDataSetListener(this);
+        }
+        MultipolygonRings rings = map.get(r);
+        if (rings == null || !rings.isValidFor(r)) {
+            rings = new MultipolygonRings(r);
+            map.put(r, rings);
+        }
+        return rings;
+    }
+
+    private synchronized void invalidate(DataSet ds, Collection<? extends OsmPrimitive> primitives) {
+        Map<Relation, MultipolygonRings> map = cache.get(ds);
+        if (map == null || map.isEmpty())
+            return;
+        for (OsmPrimitive p : primitives) {
+            invalidate(map, p);
+        }
+    }
+
+    private void invalidate(Map<Relation, MultipolygonRings> map, OsmPrimitive p) {
+        if (p instanceof Relation) {
+            map.remove(p);
+        } else if (p instanceof Way) {
+            for (OsmPrimitive referrer : p.getReferrers()) {
+                if (referrer instanceof Relation) {
+                    map.remove(referrer);
+                }
+            }
+        } else if (p instanceof Node) {
+            for (OsmPrimitive referrer : p.getReferrers()) {
+                if (referrer instanceof Way) {
+                    invalidate(map, referrer);
+                }
+            }
+        }
+    }
+
+    /*-------------------
+     * DataSetListener
+     *-------------------*/
+
+    public void primtivesAdded(PrimitivesAddedEvent event) {
+        invalidate(event.getDataset(), event.getPrimitives());
+    }
+
+    public void primtivesRemoved(PrimitivesRemovedEvent event) {
+        invalidate(event.getDataset(), event.getPrimitives());
+    }
+
+    public void tagsChanged(TagsChangedEvent event) {
+        // the geometry does not depend on tags
+    }
+
+    public void nodeMoved(NodeMovedEvent event) {
+        invalidate(event.getDataset(), event.getPrimitives());
+    }
+
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        invalidate(event.getDataset(), event.getPrimitives());
+    }
+
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        invalidate(event.getDataset(), event.getPrimitives());
+    }
+
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // changeset ids do not matter
+    }
+
+    public synchronized void dataChanged(DataChangedEvent event) {
+        Map<Relation, MultipolygonRings> map = cache.get(event.getDataset());
+        if (map != null) {
+            map.clear();
+        }
+    }
+
+    /*-------------------
+     * LayerChangeListener
+     *-------------------*/
+
+    public void activeLayerChange(Layer oldLayer, Layer newLayer) {
+    }
+
+    public void layerAdded(Layer newLayer) {
+    }
+
+    public synchronized void layerRemoved(Layer oldLayer) {
+        if (oldLayer instanceof OsmDataLayer) {
+            DataSet ds = ((OsmDataLayer) oldLayer).data;
+            if (cache.remove(ds) != null) {
+                ds.removeDataSetListener(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint.relations;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.osm.visitor.paint.ScreenPointCache;
+import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.JoinedWay;
+import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.PolyData;
+import org.openstreetmap.josm.data.osm.visitor.paint.relations.Multipolygon.PolyData.Intersection;
+import org.openstreetmap.josm.data.projection.Projection;
+
+/**
+ * View independent geometry of a multipolygon relation.
+ *
+ * The member ways are joined to closed rings in east/north space and every
+ * inner ring is assigned to the outer ring containing it. This is the
+ * expensive part of {@link Multipolygon#load(Relation)}; it is done once and
+ * kept by {@link MultipolygonCache} until the relation, its member ways or
+ * their nodes change. Only {@link #getCombinedPolygons(ScreenPointCache)}
+ * depends on the current view.
+ */
+public class MultipolygonRings {
+
+    /**
+     * A closed ring made of one closed way or several joined ways.
+     */
+    public static class Ring {
+        private final List<Node> nodes;
+        private final List<Way> ways;
+        private final double[] east;
+        private final double[] north;
+        private double minEast = Double.POSITIVE_INFINITY;
+        private double minNorth = Double.POSITIVE_INFINITY;
+        private double maxEast = Double.NEGATIVE_INFINITY;
+        private double maxNorth = Double.NEGATIVE_INFINITY;
+        private final List<Ring> inners = new ArrayList<Ring>();
+
+        public Ring(List<Node> nodes, List<Way> ways) {
+            this.nodes = nodes;
+            this.ways = ways;
+            int size = nodes.size();
+            east = new double[size];
+            north = new double[size];
+            for (int i = 0; i < size; i++) {
+                EastNorth en = nodes.get(i).getEastNorth();
+                if (en == null) {
+                    // incomplete node, ignored by the containment tests
+                    east[i] = Double.NaN;
+                    north[i] = Double.NaN;
+                    continue;
+                }
+                east[i] = en.east();
+                north[i] = en.north();
+                minEast = Math.min(minEast, east[i]);
+                maxEast = Math.max(maxEast, east[i]);
+                minNorth = Math.min(minNorth, north[i]);
+                maxNorth = Math.max(maxNorth, north[i]);
+            }
+        }
+
+        public List<Node> getNodes() {
+            return nodes;
+        }
+
+        public List<Way> getWays() {
+            return ways;
+        }
+
+        /**
+         * @return the inner rings assigned to this ring, empty for inner rings
+         */
+        public List<Ring> getInners() {
+            return inners;
+        }
+
+        /**
+         * @return true if one of the ways of this ring is selected
+         */
+        public boolean isSelected() {
+            for (Way w : ways) {
+                if (w.isSelected())
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean boundsContain(Ring r) {
+            return r.minEast >= minEast && r.maxEast <= maxEast && r.minNorth >= minNorth && r.maxNorth <= maxNorth;
+        }
+
+        private boolean boundsIntersect(Ring r) {
+            return r.minEast <= maxEast && r.maxEast >= minEast && r.minNorth <= maxNorth && r.maxNorth >= minNorth;
+        }
+
+        /**
+         * Even-odd test, the ring is implicitly closed.
+         */
+        private boolean contains(double e, double n) {
+            boolean inside = false;
+            int len = east.length;
+            for (int i = 0, j = len - 1; i < len; j = i++) {
+                if ((north[i] > n) != (north[j] > n)
+                        && e < (east[j] - east[i]) * (n - north[i]) / (north[j] - north[i]) + east[i]) {
+                    inside = !inside;
+                }
+            }
+            return inside;
+        }
+
+        public Intersection contains(Ring r) {
+            int outside = r.east.length;
+            for (int i = 0; i < r.east.length; i++) {
+                if (contains(r.east[i], r.north[i])) {
+                    --outside;
+                }
+            }
+            if (outside == 0) return Intersection.INSIDE;
+            if (outside == r.east.length) return Intersection.OUTSIDE;
+            return Intersection.CROSSING;
+        }
+    }
+
+    private final Projection projection;
+    private final List<Way> innerWays = new ArrayList<Way>();
+    private final List<Way> outerWays = new ArrayList<Way>();
+    private final List<Ring> outerRings = new ArrayList<Ring>();
+
+    public MultipolygonRings(Relation r) {
+        projection = Main.proj;
+        Multipolygon.loadMembers(r, innerWays, outerWays);
+
+        List<Ring> innerRings = new ArrayList<Ring>();
+        createRings(innerWays, innerRings);
+        createRings(outerWays, outerRings);
+        if (outerRings.size() == 1) {
+            outerRings.get(0).inners.addAll(innerRings);
+        } else if (!outerRings.isEmpty()) {
+            for (Ring inner : innerRings) {
+                Ring outer = findOuterRing(inner);
+                if (outer == null) {
+                    outer = outerRings.get(0);
+                }
+                outer.inners.add(inner);
+            }
+        }
+    }
+
+    private static void createRings(List<Way> ways, List<Ring> result) {
+        List<Way> waysToJoin = new ArrayList<Way>();
+        for (Way way : ways) {
+            if (way.isClosed()) {
+                result.add(new Ring(way.getNodes(), Collections.singletonList(way)));
+            } else {
+                waysToJoin.add(way);
+            }
+        }
+
+        for (JoinedWay jw : Multipolygon.joinWays(waysToJoin)) {
+            result.add(new Ring(jw.getNodes(), jw.getWays()));
+        }
+    }
+
+    private Ring findOuterRing(Ring inner) {
+        {// First try to test only bbox, use precise testing only if we don't get unique result
+            Ring insideRing = null;
+            Ring intersectingRing = null;
+            int insideCount = 0;
+            int intersectingCount = 0;
+
+            for (Ring outer : outerRings) {
+                if (outer.boundsContain(inner)) {
+                    insideRing = outer;
+                    insideCount++;
+                } else if (outer.boundsIntersect(inner)) {
+                    intersectingRing = outer;
+                    intersectingCount++;
+                }
+            }
+
+            if (insideCount == 1)
+                return insideRing;
+            else if (intersectingCount == 1)
+                return intersectingRing;
+        }
+
+        Ring result = null;
+        for (Ring outer : outerRings) {
+            if (outer.contains(inner) != Intersection.OUTSIDE) {
+                if (result == null || result.contains(outer) != Intersection.INSIDE) {
+                    result = outer;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether this geometry still describes the relation. Changes of
+     * the node coordinates and way node lists are not detected here, they are
+     * reported to the {@link MultipolygonCache} by dataset events.
+     *
+     * @return true if the projection and the drawable member ways are unchanged
+     */
+    public boolean isValidFor(Relation r) {
+        if (projection != Main.proj)
+            return false;
+        List<Way> inner = new ArrayList<Way>(innerWays.size());
+        List<Way> outer = new ArrayList<Way>(outerWays.size());
+        Multipolygon.loadMembers(r, inner, outer);
+        return sameWays(inner, innerWays) && sameWays(outer, outerWays);
+    }
+
+    private static boolean sameWays(List<Way> l1, List<Way> l2) {
+        if (l1.size() != l2.size())
+            return false;
+        for (int i = 0; i < l1.size(); i++) {
+            if (l1.get(i) != l2.get(i))
+                return false;
+        }
+        return true;
+    }
+
+    public List<Way> getInnerWays() {
+        return innerWays;
+    }
+
+    public List<Way> getOuterWays() {
+        return outerWays;
+    }
+
+    public List<Ring> getOuterRings() {
+        return outerRings;
+    }
+
+    /**
+     * Creates the screen polygons for the current view, one for every outer
+     * ring with its inner rings appended.
+     */
+    public List<PolyData> getCombinedPolygons(ScreenPointCache points) {
+        List<PolyData> result = new ArrayList<PolyData>(outerRings.size());
+        for (Ring outer : outerRings) {
+            PolyData combined = new PolyData(points, outer.getNodes(), outer.isSelected());
+            for (Ring inner : outer.getInners()) {
+                combined.addInner(new PolyData(points, inner.getNodes(), false).get());
+            }
+            result.add(combined);
+        }
+        return result;
+    }
+}
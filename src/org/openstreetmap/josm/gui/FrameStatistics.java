@@ -0,0 +1,177 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import java.awt.Color;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.openstreetmap.josm.data.osm.visitor.paint.PaintStatistics;
+import org.openstreetmap.josm.gui.layer.Layer;
+
+/**
+ * Where the time of one repaint of the {@link MapView} went.
+ *
+ * For every visible layer the time to bring its image up to date and the
+ * time of its overlay are recorded. Data layers add the statistics of their
+ * paint visitors. The statistics of the last frame are available from
+ * {@link MapView#getFrameStatistics()} and are shown on the map if the
+ * preference <code>draw.frame-statistics</code> is set.
+ */
+public class FrameStatistics {
+
+    /**
+     * How the image of a layer was brought up to date.
+     */
+    public enum BufferState {
+        /** painted completely */
+        PAINTED,
+        /** moved and the uncovered strips painted */
+        SHIFTED,
+        /** used as is */
+        REUSED
+    }
+
+    /**
+     * The statistics of one layer.
+     */
+    public static class LayerStatistics {
+        private final String name;
+        private final BufferState state;
+        private final long paintNanos;
+        private final long overlayNanos;
+        private final PaintStatistics paintStatistics;
+        private final PaintStatistics overlayStatistics;
+
+        public LayerStatistics(String name, BufferState state, long paintNanos, long overlayNanos,
+                PaintStatistics paintStatistics, PaintStatistics overlayStatistics) {
+            this.name = name;
+            this.state = state;
+            this.paintNanos = paintNanos;
+            this.overlayNanos = overlayNanos;
+            this.paintStatistics = paintStatistics;
+            this.overlayStatistics = overlayStatistics;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BufferState getState() {
+            return state;
+        }
+
+        /**
+         * @return the time to paint or shift the image of the layer, 0 if it was reused
+         */
+        public long getPaintNanos() {
+            return paintNanos;
+        }
+
+        public long getOverlayNanos() {
+            return overlayNanos;
+        }
+
+        /**
+         * @return the statistics of the last full paint of the layer, null if the layer does not provide them
+         */
+        public PaintStatistics getPaintStatistics() {
+            return paintStatistics;
+        }
+
+        /**
+         * @return the statistics of the overlay, null if the layer does not provide them
+         */
+        public PaintStatistics getOverlayStatistics() {
+            return overlayStatistics;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %s %.1f ms, overlay %.1f ms", name, state, paintNanos / 1e6, overlayNanos / 1e6);
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private long nanos;
+    private final List<LayerStatistics> layers = new ArrayList<LayerStatistics>();
+
+    void addLayer(Layer layer, BufferState state, long paintNanos, long overlayNanos,
+            PaintStatistics paintStatistics, PaintStatistics overlayStatistics) {
+        layers.add(new LayerStatistics(layer.getName(), state, paintNanos, overlayNanos, paintStatistics, overlayStatistics));
+    }
+
+    void finish() {
+        nanos = System.nanoTime() - start;
+    }
+
+    /**
+     * @return the time of the whole frame, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the visible layers, bottom first
+     */
+    public List<LayerStatistics> getLayers() {
+        return Collections.unmodifiableList(layers);
+    }
+
+    /**
+     * @return the lines shown on the map
+     */
+    public List<String> getLines() {
+        List<String> lines = new ArrayList<String>();
+        lines.add(tr("Frame: {0} ms", String.format("%.1f", nanos / 1e6)));
+        for (LayerStatistics l : layers) {
+            lines.add(l.toString());
+            if (l.state == BufferState.PAINTED && l.paintStatistics != null) {
+                PaintStatistics s = l.paintStatistics;
+                lines.add(String.format("  %d/%d drawn, style cache %d/%d",
+                        s.getDrawn(), s.getVisited(), s.getStyleCacheHits(),
+                        s.getStyleCacheHits() + s.getStyleCacheMisses()));
+                for (PaintStatistics.Pass p : s.getPasses()) {
+                    lines.add(String.format("  %-14s %6.1f ms %6d/%d", p.getName(), p.getNanos() / 1e6,
+                            p.getDrawn(), p.getVisited()));
+                }
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Draws the statistics into the upper left corner of the map.
+     */
+    public void draw(Graphics2D g) {
+        List<String> lines = getLines();
+        FontMetrics fm = g.getFontMetrics();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        int lineHeight = fm.getHeight();
+        g.setColor(new Color(0, 0, 0, 160));
+        g.fillRect(10, 10, width + 10, lines.size() * lineHeight + 10);
+        g.setColor(Color.WHITE);
+        int y = 15 + fm.getAscent();
+        for (String line : lines) {
+            g.drawString(line, 15, y);
+            y += lineHeight;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String line : getLines()) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString();
+    }
+}
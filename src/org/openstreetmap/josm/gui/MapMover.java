@@ -123,6 +123,7 @@ public class MapMover extends MouseAdapter implements MouseMotionListener, Mouse
         if ((e.getModifiersEx() & (MouseEvent.BUTTON3_DOWN_MASK | offMask)) == MouseEvent.BUTTON3_DOWN_MASK) {
             if (mousePosMove == null)
                 startMovement(e);
+            nc.markInteraction();
             EastNorth center = nc.getCenter();
             EastNorth mouseCenter = nc.getEastNorth(e.getX(), e.getY());
             nc.zoomTo(new EastNorth(
@@ -168,6 +169,7 @@ public class MapMover extends MouseAdapter implements MouseMotionListener, Mouse
         mousePosMove = nc.getEastNorth(e.getX(), e.getY());
         oldCursor = nc.getCursor();
         nc.setCursor(Cursor.getPredefinedCursor(Cursor.MOVE_CURSOR));
+        nc.setPanning(true);
     }
 
     /**
@@ -183,6 +185,7 @@ public class MapMover extends MouseAdapter implements MouseMotionListener, Mouse
             nc.setCursor(Cursor.getDefaultCursor());
         mousePosMove = null;
         oldCursor = null;
+        nc.setPanning(false);
     }
 
     /**
@@ -190,6 +193,7 @@ public class MapMover extends MouseAdapter implements MouseMotionListener, Mouse
      * @param e The wheel event.
      */
     public void mouseWheelMoved(MouseWheelEvent e) {
+        nc.markInteraction();
         nc.zoomToFactor(e.getX(), e.getY(), Math.pow(0.8, - e.getWheelRotation()));
     }
 
@@ -206,6 +210,7 @@ public class MapMover extends MouseAdapter implements MouseMotionListener, Mouse
                 if (mousePosMove == null) {
                     startMovement(e);
                 }
+                nc.markInteraction();
                 EastNorth center = nc.getCenter();
                 EastNorth mouseCenter = nc.getEastNorth(e.getX(), e.getY());
                 nc.zoomTo(new EastNorth(mousePosMove.east() + center.east() - mouseCenter.east(), mousePosMove.north()
@@ -7,8 +7,10 @@ import java.awt.AlphaComposite;
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Transparency;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.MouseEvent;
@@ -23,8 +25,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.AbstractButton;
@@ -38,12 +42,14 @@ import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangeEvent;
 import org.openstreetmap.josm.data.Preferences.PreferenceChangedListener;
 import org.openstreetmap.josm.data.SelectionChangedListener;
+import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.DataSource;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.PaintColors;
+import org.openstreetmap.josm.data.projection.Projection;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.Layer;
 import org.openstreetmap.josm.gui.layer.MapViewPaintable;
@@ -180,14 +186,33 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
 
     private LinkedList<MapViewPaintable> temporaryLayers = new LinkedList<MapViewPaintable>();
 
-    private BufferedImage nonChangedLayersBuffer;
+    /**
+     * The retained image of a visible layer. It is reused as long as the
+     * view does not change and the layer reports no change.
+     */
+    private static class LayerBuffer {
+        private BufferedImage image;
+        // id of the view the image was painted for
+        private int viewID;
+        // the part of the image that was painted
+        private Rectangle bounds;
+        // the image was shifted and needs a full repaint after panning
+        private boolean shifted;
+        // layers are painted differently when active
+        private boolean active;
+    }
+
+    private final Map<Layer, LayerBuffer> layerBuffers = new HashMap<Layer, LayerBuffer>();
     private BufferedImage offscreenBuffer;
-    // Layers that wasn't changed since last paint
-    private final List<Layer> nonChangedLayers = new ArrayList<Layer>();
-    private Layer changedLayer;
     private int lastViewID;
     private boolean paintPreferencesChanged = true;
-    private Rectangle lastClipBounds = new Rectangle();
+    // View of the last paint, to shift the layer buffers while panning
+    private EastNorth lastCenter;
+    private double lastScale;
+    private int lastWidth;
+    private int lastHeight;
+    private Projection lastProjection;
+    private FrameStatistics frameStatistics;
 
     public MapView(final JPanel contentPane) {
         Main.pref.addPreferenceChangeListener(this);
@@ -368,6 +393,7 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
     public void setVirtualNodesEnabled(boolean enabled) {
         if(virtualNodesEnabled != enabled) {
             virtualNodesEnabled = enabled;
+            paintPreferencesChanged = true;
             repaint();
         }
     }
@@ -441,12 +467,105 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         return ret;
     }
 
-    private void paintLayer(Layer layer, Graphics2D g, Bounds box) {
-        if (layer.getOpacity() < 1) {
-            g.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,(float)layer.getOpacity()));
+    /**
+     * Replies by how many pixels the map moved since the last paint, if
+     * the last paint can be reused by shifting it. That is the case while
+     * panning, as long as only the center changed by whole pixels.
+     *
+     * @return the offset of the map content on screen or null
+     */
+    private Point getPanShift() {
+        if (!isPanning() || lastCenter == null || lastScale != getScale() || lastWidth != getWidth()
+                || lastHeight != getHeight() || lastProjection != getProjection())
+            return null;
+        double dx = (lastCenter.east() - getCenter().east()) / lastScale;
+        double dy = (getCenter().north() - lastCenter.north()) / lastScale;
+        long x = Math.round(dx);
+        long y = Math.round(dy);
+        if (Math.abs(dx - x) > 0.01 || Math.abs(dy - y) > 0.01 || Math.abs(x) >= lastWidth || Math.abs(y) >= lastHeight)
+            return null;
+        return new Point((int) x, (int) y);
+    }
+
+    /**
+     * Moves the content of a layer buffer by <code>shift</code> and paints
+     * the layer into the strips that became visible.
+     */
+    private void shiftBuffer(LayerBuffer buffer, Layer layer, Point shift) {
+        int w = getWidth();
+        int h = getHeight();
+        Graphics2D g2 = buffer.image.createGraphics();
+        g2.copyArea(0, 0, w, h, shift.x, shift.y);
+
+        List<Rectangle> strips = new ArrayList<Rectangle>(2);
+        if (shift.x > 0) {
+            strips.add(new Rectangle(0, 0, shift.x, h));
+        } else if (shift.x < 0) {
+            strips.add(new Rectangle(w + shift.x, 0, -shift.x, h));
+        }
+        if (shift.y > 0) {
+            strips.add(new Rectangle(0, 0, w, shift.y));
+        } else if (shift.y < 0) {
+            strips.add(new Rectangle(0, h + shift.y, w, -shift.y));
         }
-        layer.paint(g, this, box);
-        g.setPaintMode();
+        for (Rectangle strip : strips) {
+            g2.setClip(strip);
+            g2.setComposite(AlphaComposite.Clear);
+            g2.fillRect(strip.x, strip.y, strip.width, strip.height);
+            g2.setPaintMode();
+            layer.paint(g2, this, getLatLonBounds(strip));
+        }
+        g2.dispose();
+        buffer.shifted = true;
+    }
+
+    /**
+     * Paints a layer into its buffer. Only the part in <code>clip</code> is
+     * painted, the rest of the buffer is cleared.
+     */
+    private void paintBuffer(LayerBuffer buffer, Layer layer, Rectangle clip, Bounds box) {
+        int w = getWidth();
+        int h = getHeight();
+        if (buffer.image == null || buffer.image.getWidth() != w || buffer.image.getHeight() != h) {
+            GraphicsConfiguration gc = getGraphicsConfiguration();
+            buffer.image = gc != null ? gc.createCompatibleImage(w, h, Transparency.TRANSLUCENT)
+                    : new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        Graphics2D g2 = buffer.image.createGraphics();
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, w, h);
+        g2.setPaintMode();
+        g2.setClip(clip);
+        layer.paint(g2, this, box);
+        g2.dispose();
+        buffer.viewID = getViewID();
+        buffer.bounds = clip;
+        buffer.shifted = false;
+        buffer.active = layer == getActiveLayer();
+    }
+
+    /**
+     * Checks whether the buffer of a layer can be shown without painting the layer again.
+     */
+    private boolean isBufferValid(LayerBuffer buffer, Layer layer, Rectangle clip, boolean preferencesChanged) {
+        return !preferencesChanged && !layer.isChanged() && buffer.image != null
+        && buffer.image.getWidth() == getWidth() && buffer.image.getHeight() == getHeight()
+        && buffer.bounds.contains(clip) && !(buffer.shifted && !isPanning())
+        && buffer.active == (layer == getActiveLayer());
+    }
+
+    @Override
+    protected void paintQualityChanged() {
+        paintPreferencesChanged = true;
+    }
+
+    /**
+     * Replies where the time of the last repaint went.
+     *
+     * @return the statistics of the last frame, null if nothing was painted yet
+     */
+    public FrameStatistics getFrameStatistics() {
+        return frameStatistics;
     }
 
     /**
@@ -461,71 +580,70 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
 
         List<Layer> visibleLayers = getVisibleLayersInZOrder();
 
-        int nonChangedLayersCount = 0;
-        for (Layer l: visibleLayers) {
-            if (l.isChanged() || l == changedLayer) {
-                break;
-            } else {
-                nonChangedLayersCount++;
-            }
-        }
-
-        boolean canUseBuffer = !paintPreferencesChanged && nonChangedLayers.size() <= nonChangedLayersCount &&
-        lastViewID == getViewID() && lastClipBounds.contains(g.getClipBounds());
-        if (canUseBuffer) {
-            for (int i=0; i<nonChangedLayers.size(); i++) {
-                if (visibleLayers.get(i) != nonChangedLayers.get(i)) {
-                    canUseBuffer = false;
-                    break;
-                }
-            }
-        }
-
         if (null == offscreenBuffer || offscreenBuffer.getWidth() != getWidth() || offscreenBuffer.getHeight() != getHeight()) {
             offscreenBuffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
         }
 
+        FrameStatistics statistics = new FrameStatistics();
         Graphics2D tempG = offscreenBuffer.createGraphics();
         tempG.setClip(g.getClip());
-        Bounds box = getLatLonBounds(g.getClipBounds());
-
-        if (!canUseBuffer || nonChangedLayersBuffer == null) {
-            if (null == nonChangedLayersBuffer || nonChangedLayersBuffer.getWidth() != getWidth() || nonChangedLayersBuffer.getHeight() != getHeight()) {
-                nonChangedLayersBuffer = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_3BYTE_BGR);
-            }
-            Graphics2D g2 = nonChangedLayersBuffer.createGraphics();
-            g2.setClip(g.getClip());
-            g2.setColor(PaintColors.BACKGROUND.get());
-            g2.fillRect(0, 0, getWidth(), getHeight());
-
-            for (int i=0; i<nonChangedLayersCount; i++) {
-                paintLayer(visibleLayers.get(i),g2, box);
+        Rectangle clip = g.getClipBounds();
+        Bounds box = getLatLonBounds(clip);
+        tempG.setColor(PaintColors.BACKGROUND.get());
+        tempG.fillRect(0, 0, getWidth(), getHeight());
+
+        // Every layer keeps its own image, only changed layers are painted again
+        int viewID = getViewID();
+        Point shift = viewID != lastViewID ? getPanShift() : null;
+        // cleared before painting, so a paint that is given up (and sets it again) is not kept
+        boolean preferencesChanged = paintPreferencesChanged;
+        paintPreferencesChanged = false;
+        layerBuffers.keySet().retainAll(visibleLayers);
+        for (Layer l : visibleLayers) {
+            LayerBuffer buffer = layerBuffers.get(l);
+            if (buffer == null) {
+                buffer = new LayerBuffer();
+                layerBuffers.put(l, buffer);
             }
-        } else {
-            // Maybe there were more unchanged layers then last time - draw them to buffer
-            if (nonChangedLayers.size() != nonChangedLayersCount) {
-                Graphics2D g2 = nonChangedLayersBuffer.createGraphics();
-                g2.setClip(g.getClip());
-                for (int i=nonChangedLayers.size(); i<nonChangedLayersCount; i++) {
-                    paintLayer(visibleLayers.get(i),g2, box);
+            long t0 = System.nanoTime();
+            FrameStatistics.BufferState state = FrameStatistics.BufferState.REUSED;
+            boolean valid = isBufferValid(buffer, l, clip, preferencesChanged);
+            if (valid && buffer.viewID != viewID) {
+                valid = shift != null && buffer.viewID == lastViewID && buffer.bounds.contains(0, 0, getWidth(), getHeight());
+                if (valid) {
+                    shiftBuffer(buffer, l, shift);
+                    buffer.viewID = viewID;
+                    state = FrameStatistics.BufferState.SHIFTED;
                 }
             }
-        }
+            if (!valid) {
+                paintBuffer(buffer, l, clip, box);
+                state = FrameStatistics.BufferState.PAINTED;
+            }
+            long t1 = System.nanoTime();
 
-        nonChangedLayers.clear();
-        changedLayer = null;
-        for (int i=0; i<nonChangedLayersCount; i++) {
-            nonChangedLayers.add(visibleLayers.get(i));
+            if (l.getOpacity() < 1) {
+                tempG.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER,(float)l.getOpacity()));
+            }
+            tempG.drawImage(buffer.image, 0, 0, null);
+            l.paintOverlay(tempG, this, box);
+            tempG.setPaintMode();
+            long t2 = System.nanoTime();
+
+            if (l instanceof OsmDataLayer) {
+                OsmDataLayer dataLayer = (OsmDataLayer) l;
+                statistics.addLayer(l, state, t1 - t0, t2 - t1, dataLayer.getPaintStatistics(), dataLayer.getOverlayStatistics());
+            } else {
+                statistics.addLayer(l, state, t1 - t0, t2 - t1, null, null);
+            }
         }
-        lastViewID = getViewID();
-        paintPreferencesChanged = false;
-        lastClipBounds = g.getClipBounds();
 
-        tempG.drawImage(nonChangedLayersBuffer, 0, 0, null);
-
-        for (int i=nonChangedLayersCount; i<visibleLayers.size(); i++) {
-            paintLayer(visibleLayers.get(i),tempG, box);
-        }
+        lastViewID = viewID;
+        lastCenter = getCenter();
+        lastScale = getScale();
+        lastWidth = getWidth();
+        lastHeight = getHeight();
+        lastProjection = getProjection();
 
         for (MapViewPaintable mvp : temporaryLayers) {
             mvp.paint(tempG, this, box);
@@ -586,6 +704,12 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
             playHeadMarker.paint(tempG, this);
         }
 
+        statistics.finish();
+        frameStatistics = statistics;
+        if (Main.pref.getBoolean("draw.frame-statistics", false)) {
+            statistics.draw(tempG);
+        }
+
         g.drawImage(offscreenBuffer, 0, 0, null);
         super.paint(g);
     }
@@ -796,7 +920,6 @@ public class MapView extends NavigatableComponent implements PropertyChangeListe
         } else if (evt.getPropertyName().equals(Layer.OPACITY_PROP)) {
             Layer l = (Layer)evt.getSource();
             if (l.isVisible()) {
-                changedLayer = l;
                 repaint();
             }
         } else if (evt.getPropertyName().equals(OsmDataLayer.REQUIRES_SAVE_TO_DISK_PROP)
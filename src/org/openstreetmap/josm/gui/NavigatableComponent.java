@@ -3,8 +3,13 @@ package org.openstreetmap.josm.gui;
 
 import static org.openstreetmap.josm.tools.I18n.marktr;
 
+import java.awt.EventQueue;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Toolkit;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.MouseEvent;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -22,6 +27,7 @@ import java.util.TreeMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.swing.JComponent;
+import javax.swing.Timer;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.data.Bounds;
@@ -99,6 +105,16 @@ public class NavigatableComponent extends JComponent implements Helpful {
      * Center n/e coordinate of the desired screen center.
      */
     protected EastNorth center = calculateDefaultCenter();
+    /**
+     * True while the user drags the map around.
+     */
+    private boolean panning;
+    /**
+     * True while the user changes the view or the data with the mouse. The
+     * map is painted at lower quality then, see {@link #markInteraction()}.
+     */
+    private boolean interacting;
+    private Timer interactionTimer;
 
     public NavigatableComponent() {
         setLayout(null);
@@ -134,6 +150,91 @@ public class NavigatableComponent extends JComponent implements Helpful {
         return ll1.greatCircleDistance(ll2);
     }
 
+    /**
+     * @return the current scale in east/north units per pixel
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * @return true while the user drags the map around
+     */
+    public boolean isPanning() {
+        return panning;
+    }
+
+    /**
+     * Marks the start or the end of dragging the map. Painting may take
+     * shortcuts while panning, so the view is repainted once it ends.
+     */
+    public void setPanning(boolean panning) {
+        if (this.panning != panning) {
+            this.panning = panning;
+            if (!panning) {
+                repaint();
+            }
+        }
+    }
+
+    /**
+     * Called for every step of a user interaction that changes the view or
+     * the data, like dragging or zooming the map or moving nodes. Until no
+     * such call happened for <code>mappaint.interaction.delay</code>
+     * milliseconds, {@link #isInteracting()} returns true and the map is
+     * painted with a cheaper style. Afterwards it is repainted at full quality.
+     */
+    public void markInteraction() {
+        if (!Main.pref.getBoolean("mappaint.interaction.fast", true))
+            return;
+        if (interactionTimer == null) {
+            interactionTimer = new Timer(Main.pref.getInteger("mappaint.interaction.delay", 300), new ActionListener() {
+                public void actionPerformed(ActionEvent e) {
+                    setInteracting(false);
+                }
+            });
+            interactionTimer.setRepeats(false);
+        }
+        interactionTimer.restart();
+        setInteracting(true);
+    }
+
+    /**
+     * @return true, if the map should be painted fast rather than nice
+     */
+    public boolean isInteracting() {
+        return interacting;
+    }
+
+    private void setInteracting(boolean interacting) {
+        if (this.interacting != interacting) {
+            this.interacting = interacting;
+            paintQualityChanged();
+            repaint();
+        }
+    }
+
+    /**
+     * Called when painting switches between the fast and the full quality
+     * style. Subclasses drop buffered images here.
+     */
+    protected void paintQualityChanged() {
+    }
+
+    /**
+     * Painters at full quality call this from time to time. If it returns
+     * true, new mouse input is waiting and the painter should stop; it calls
+     * {@link #markInteraction()} then, which leads to a fast repaint.
+     *
+     * @return true, if a full quality paint should be given up
+     */
+    public boolean isPaintCancelled() {
+        if (interacting)
+            return false;
+        EventQueue queue = Toolkit.getDefaultToolkit().getSystemEventQueue();
+        return queue.peekEvent(MouseEvent.MOUSE_DRAGGED) != null || queue.peekEvent(MouseEvent.MOUSE_WHEEL) != null;
+    }
+
     /**
      * @return Returns the center point. A copy is returned, so users cannot
      *      change the center by accessing the return value. Use zoomTo instead.
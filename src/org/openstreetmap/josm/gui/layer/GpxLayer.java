@@ -23,11 +23,14 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 import javax.swing.AbstractAction;
@@ -52,7 +55,9 @@ import org.openstreetmap.josm.actions.downloadtasks.DownloadOsmTaskList;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.CompactGpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.GpxSegmentIndex;
 import org.openstreetmap.josm.data.gpx.GpxTrack;
 import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.WayPoint;
@@ -91,10 +96,19 @@ public class GpxLayer extends Layer {
     private Color computeCacheColorUsed;
     private colorModes computeCacheColored;
     private int computeCacheColorTracksTune;
+    private boolean computeCacheForceLines;
+    private int computeCacheHdopFactor;
     private boolean isLocalFile;
 
     private final List<GpxTrack> lastTracks = new ArrayList<GpxTrack>(); // List of tracks at last paint
+    private Map<GpxTrackSegment, GpxSegmentIndex> segmentIndexes = new HashMap<GpxTrackSegment, GpxSegmentIndex>();
+    /** computes the line styles of all GPX layers, one layer after the other */
+    private static final ExecutorService lineStyleWorker = Executors.newSingleThreadExecutor();
+    private LineStyleTask lineStyleTask;
     private int lastUpdateCount;
+    /** counts the line styles published by the {@link LineStyleTask}, so new styles are painted */
+    private volatile int lineStylesCount;
+    private int lastLineStylesCount; // lineStylesCount at last paint
 
     private static class Markers {
         public boolean timedMarkersOmitted = false;
@@ -144,7 +158,9 @@ public class GpxLayer extends Layer {
                     + "</td></tr></thead>");
 
             for (GpxTrack trk : data.tracks) {
-                WayPoint earliest = null, latest = null;
+                // the times of the points, compact segments create their way points on every access
+                double earliest = 0, latest = 0;
+                boolean hasPoints = false;
 
                 info.append("<tr><td>");
                 if (trk.getAttributes().containsKey("name")) {
@@ -157,34 +173,50 @@ public class GpxLayer extends Layer {
                 info.append("</td><td>");
 
                 for (GpxTrackSegment seg : trk.getSegments()) {
-                    for (WayPoint pnt : seg.getWayPoints()) {
-                        if (latest == null) {
-                            latest = earliest = pnt;
-                        } else {
-                            if (pnt.compareTo(earliest) < 0) {
-                                earliest = pnt;
+                    if (seg instanceof CompactGpxTrackSegment) {
+                        CompactGpxTrackSegment compact = (CompactGpxTrackSegment) seg;
+                        for (int i = 0; i < compact.size(); i++) {
+                            double t = compact.getTime(i);
+                            if (!hasPoints) {
+                                latest = earliest = t;
+                                hasPoints = true;
+                            } else if (t < earliest) {
+                                earliest = t;
                             } else {
-                                latest = pnt;
+                                latest = t;
+                            }
+                        }
+                    } else {
+                        for (WayPoint pnt : seg.getWayPoints()) {
+                            if (!hasPoints) {
+                                latest = earliest = pnt.time;
+                                hasPoints = true;
+                            } else if (pnt.time < earliest) {
+                                earliest = pnt.time;
+                            } else {
+                                latest = pnt.time;
                             }
                         }
                     }
                 }
 
-                if (earliest != null && latest != null) {
+                if (hasPoints) {
+                    Date earliestTime = new Date((long) (earliest * 1000));
+                    Date latestTime = new Date((long) (latest * 1000));
                     DateFormat df = DateFormat.getDateInstance(DateFormat.SHORT);
-                    String earliestDate = df.format(earliest.getTime());
-                    String latestDate = df.format(latest.getTime());
+                    String earliestDate = df.format(earliestTime);
+                    String latestDate = df.format(latestTime);
 
                     if (earliestDate.equals(latestDate)) {
                         DateFormat tf = DateFormat.getTimeInstance(DateFormat.SHORT);
                         info.append(earliestDate).append(" ");
-                        info.append(tf.format(earliest.getTime())).append(" - ").append(tf.format(latest.getTime()));
+                        info.append(tf.format(earliestTime)).append(" - ").append(tf.format(latestTime));
                     } else {
                         DateFormat dtf = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
-                        info.append(dtf.format(earliest.getTime())).append(" - ").append(dtf.format(latest.getTime()));
+                        info.append(dtf.format(earliestTime)).append(" - ").append(dtf.format(latestTime));
                     }
 
-                    int diff = (int) (latest.time - earliest.time);
+                    int diff = (int) (latest - earliest);
                     info.append(String.format(" (%d:%02d)", diff / 3600, (diff % 3600) / 60));
                 }
 
@@ -292,6 +324,8 @@ public class GpxLayer extends Layer {
 
     @Override
     public boolean isChanged() {
+        if (lineStylesCount != lastLineStylesCount)
+            return true;
         if (data.tracks.equals(lastTracks))
             return sumUpdateCount() != lastUpdateCount;
         else
@@ -328,6 +362,7 @@ public class GpxLayer extends Layer {
     @Override
     public void paint(Graphics2D g, MapView mv, Bounds box) {
         lastUpdateCount = sumUpdateCount();
+        lastLineStylesCount = lineStylesCount;
         lastTracks.clear();
         lastTracks.addAll(data.tracks);
 
@@ -381,8 +416,10 @@ public class GpxLayer extends Layer {
         /****************************************************************
          ********** STEP 2a - CHECK CACHE VALIDITY **********************
          ****************************************************************/
+        int hdopFactor = Main.pref.getInteger("hdop.factor", 25);
         if ((computeCacheMaxLineLengthUsed != maxLineLength) || (!neutralColor.equals(computeCacheColorUsed))
-                || (computeCacheColored != colored) || (computeCacheColorTracksTune != colorTracksTune)) {
+                || (computeCacheColored != colored) || (computeCacheColorTracksTune != colorTracksTune)
+                || (computeCacheForceLines != forceLines) || (computeCacheHdopFactor != hdopFactor)) {
             // System.out.println("(re-)computing gpx line styles, reason: CCIS=" +
             // computeCacheInSync + " CCMLLU=" + (computeCacheMaxLineLengthUsed != maxLineLength) +
             // " CCCU=" + (!neutralColor.equals(computeCacheColorUsed)) + " CCC=" +
@@ -392,100 +429,94 @@ public class GpxLayer extends Layer {
             computeCacheColorUsed = neutralColor;
             computeCacheColored = colored;
             computeCacheColorTracksTune = colorTracksTune;
+            computeCacheForceLines = forceLines;
+            computeCacheHdopFactor = hdopFactor;
         }
 
         /****************************************************************
-         ********** STEP 2b - RE-COMPUTE CACHE DATA *********************
+         ********** STEP 2b - RE-COMPUTE CACHE DATA IN THE BACKGROUND ***
          ****************************************************************/
+        if (updateSegmentIndexes()) {
+            // new indexes have no line styles yet
+            computeCacheInSync = false;
+        }
         if (!computeCacheInSync) { // don't compute if the cache is good
-            WayPoint oldWp = null;
+            List<GpxSegmentIndex> indexes = new ArrayList<GpxSegmentIndex>();
             for (GpxTrack trk : data.tracks) {
                 for (GpxTrackSegment segment : trk.getSegments()) {
-                    if (!forceLines) { // don't draw lines between segments, unless forced to
-                        oldWp = null;
-                    }
-                    for (WayPoint trkPnt : segment.getWayPoints()) {
-                        LatLon c = trkPnt.getCoor();
-                        if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
-                            continue;
+                    GpxSegmentIndex index = segmentIndexes.get(segment);
+                    if (index.getLineStyles() == null) {
+                        // plain points until the line styles are computed
+                        GpxSegmentIndex.LineStyles styles = new GpxSegmentIndex.LineStyles(index.size());
+                        for (int i = 0; i < index.size(); i++) {
+                            styles.set(i, neutralColor, false, 0);
                         }
-                        trkPnt.customColoring = neutralColor;
-                        if (oldWp != null) {
-                            double dist = c.greatCircleDistance(oldWp.getCoor());
-
-                            switch (colored) {
-                            case velocity:
-                                double dtime = trkPnt.time - oldWp.time;
-                                double vel = dist / dtime;
-                                double velColor = vel / colorTracksTune * 255;
-                                // Bad case first
-                                if (dtime <= 0 || vel < 0 || velColor > 255) {
-                                    trkPnt.customColoring = colors[255];
-                                } else {
-                                    trkPnt.customColoring = colors[(int) (velColor)];
-                                }
-                                break;
-
-                            case dilution:
-                                if (trkPnt.attr.get("hdop") != null) {
-                                    float hdop = ((Float) trkPnt.attr.get("hdop")).floatValue();
-                                    if (hdop < 0) {
-                                        hdop = 0;
-                                    }
-                                    int hdoplvl = Math.round(hdop * Main.pref.getInteger("hdop.factor", 25));
-                                    // High hdop is bad, but high values in colors are green.
-                                    // Therefore inverse the logic
-                                    int hdopcolor = 255 - (hdoplvl > 255 ? 255 : hdoplvl);
-                                    trkPnt.customColoring = colors[hdopcolor];
-                                }
-                                break;
-                            }
-
-                            if (maxLineLength == -1 || dist <= maxLineLength) {
-                                trkPnt.drawLine = true;
-                                trkPnt.dir = (int) oldWp.getCoor().heading(trkPnt.getCoor());
-                            } else {
-                                trkPnt.drawLine = false;
-                            }
-                        } else { // make sure we reset outdated data
-                            trkPnt.drawLine = false;
-                        }
-                        oldWp = trkPnt;
+                        index.setLineStyles(styles);
                     }
+                    indexes.add(index);
                 }
             }
+            if (lineStyleTask != null) {
+                lineStyleTask.cancel();
+            }
+            lineStyleTask = new LineStyleTask(this, indexes, neutralColor, forceLines, maxLineLength, colored,
+                    colorTracksTune, hdopFactor);
+            lineStyleWorker.execute(lineStyleTask);
             computeCacheInSync = true;
         }
 
-        List<Collection<WayPoint>> visibleSegments = new ArrayList<Collection<WayPoint>>();
-        for (GpxTrack trk: data.tracks) {
-            for (GpxTrackSegment trkSeg: trk.getSegments()) {
-                if (trkSeg.getBounds() != null && trkSeg.getBounds().intersects(box)) {
-                    visibleSegments.add(trkSeg.getWayPoints());
-                }
-            }
+        /****************************************************************
+         ********** STEP 2c - FIND VISIBLE PARTS OF THE SEGMENTS ********
+         ****************************************************************/
+        // points just outside of the box may still have arrows reaching into it
+        LatLon ll1 = mv.getLatLon(0, 0);
+        LatLon ll2 = mv.getLatLon(20, 20);
+        double dlat = Math.abs(ll1.lat() - ll2.lat());
+        double dlon = Math.abs(ll1.lon() - ll2.lon());
+        // don't paint details smaller than a pixel
+        double tolerance = 0;
+        if (Main.pref.getBoolean("draw.rawgps.simplify", true)) {
+            tolerance = mv.getDist100Pixel() / 100;
         }
+        List<VisibleRange> visibleRanges = getVisibleRanges(new Bounds(
+                box.getMin().lat() - dlat, box.getMin().lon() - dlon,
+                box.getMax().lat() + dlat, box.getMax().lon() + dlon), tolerance);
+
+        // screen position of the projected points, like MapView.getPoint(EastNorth)
+        double scale = mv.getScale();
+        double centerEast = mv.getCenter().east();
+        double centerNorth = mv.getCenter().north();
+        int halfWidth = mv.getWidth() / 2;
+        int halfHeight = mv.getHeight() / 2;
 
         /****************************************************************
          ********** STEP 3a - DRAW LINES ********************************
          ****************************************************************/
         if (lines) {
-            Point old = null;
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                // no lines into the first point of a range
+                boolean hasOld = false;
+                int oldX = 0, oldY = 0;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
-                    if (trkPnt.drawLine) {
+                    int x = (int) ((east - centerEast) / scale + halfWidth);
+                    int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                    if (styles.isDrawLine(i)) {
                         // skip points that are on the same screenposition
-                        if (old != null && ((old.x != screen.x) || (old.y != screen.y))) {
-                            g.setColor(trkPnt.customColoring);
-                            g.drawLine(old.x, old.y, screen.x, screen.y);
+                        if (hasOld && ((oldX != x) || (oldY != y))) {
+                            g.setColor(styles.getColor(i));
+                            g.drawLine(oldX, oldY, x, y);
                         }
                     }
-                    old = screen;
+                    hasOld = true;
+                    oldX = x;
+                    oldY = y;
                 } // end for trkpnt
             } // end for segment
         } // end if lines
@@ -494,30 +525,40 @@ public class GpxLayer extends Layer {
          ********** STEP 3b - DRAW NICE ARROWS **************************
          ****************************************************************/
         if (lines && direction && !alternatedirection) {
-            Point old = null;
-            Point oldA = null; // last arrow painted
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            boolean hasOldA = false; // last arrow painted
+            int oldAX = 0, oldAY = 0;
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                // no lines into the first point of a range
+                boolean hasOld = false;
+                int oldX = 0, oldY = 0;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    if (trkPnt.drawLine) {
-                        Point screen = mv.getPoint(trkPnt.getEastNorth());
-                        // skip points that are on the same screenposition
-                        if (old != null
-                                && (oldA == null || screen.x < oldA.x - delta || screen.x > oldA.x + delta
-                                        || screen.y < oldA.y - delta || screen.y > oldA.y + delta)) {
-                            g.setColor(trkPnt.customColoring);
-                            double t = Math.atan2(screen.y - old.y, screen.x - old.x) + Math.PI;
-                            g.drawLine(screen.x, screen.y, (int) (screen.x + 10 * Math.cos(t - PHI)),
-                                    (int) (screen.y + 10 * Math.sin(t - PHI)));
-                            g.drawLine(screen.x, screen.y, (int) (screen.x + 10 * Math.cos(t + PHI)),
-                                    (int) (screen.y + 10 * Math.sin(t + PHI)));
-                            oldA = screen;
-                        }
-                        old = screen;
+                    int x = (int) ((east - centerEast) / scale + halfWidth);
+                    int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                    // the arrow points along the line from the previous point
+                    // skip points that are on the same screenposition
+                    if (styles.isDrawLine(i) && hasOld
+                            && (!hasOldA || x < oldAX - delta || x > oldAX + delta
+                                    || y < oldAY - delta || y > oldAY + delta)) {
+                        g.setColor(styles.getColor(i));
+                        double t = Math.atan2(y - oldY, x - oldX) + Math.PI;
+                        g.drawLine(x, y, (int) (x + 10 * Math.cos(t - PHI)),
+                                (int) (y + 10 * Math.sin(t - PHI)));
+                        g.drawLine(x, y, (int) (x + 10 * Math.cos(t + PHI)),
+                                (int) (y + 10 * Math.sin(t + PHI)));
+                        hasOldA = true;
+                        oldAX = x;
+                        oldAY = y;
                     }
+                    hasOld = true;
+                    oldX = x;
+                    oldY = y;
                 } // end for trkpnt
             } // end for segment
         } // end if lines
@@ -526,29 +567,34 @@ public class GpxLayer extends Layer {
          ********** STEP 3c - DRAW FAST ARROWS **************************
          ****************************************************************/
         if (lines && direction && alternatedirection) {
-            Point old = null;
-            Point oldA = null; // last arrow painted
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            boolean hasOldA = false; // last arrow painted
+            int oldAX = 0, oldAY = 0;
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                // no lines into the first point of a range
+                boolean hasOld = false;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    if (trkPnt.drawLine) {
-                        Point screen = mv.getPoint(trkPnt.getEastNorth());
-                        // skip points that are on the same screenposition
-                        if (old != null
-                                && (oldA == null || screen.x < oldA.x - delta || screen.x > oldA.x + delta
-                                        || screen.y < oldA.y - delta || screen.y > oldA.y + delta)) {
-                            g.setColor(trkPnt.customColoring);
-                            g.drawLine(screen.x, screen.y, screen.x + dir[trkPnt.dir][0], screen.y
-                                    + dir[trkPnt.dir][1]);
-                            g.drawLine(screen.x, screen.y, screen.x + dir[trkPnt.dir][2], screen.y
-                                    + dir[trkPnt.dir][3]);
-                            oldA = screen;
-                        }
-                        old = screen;
+                    int x = (int) ((east - centerEast) / scale + halfWidth);
+                    int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                    // skip points that are on the same screenposition
+                    if (styles.isDrawLine(i) && hasOld
+                            && (!hasOldA || x < oldAX - delta || x > oldAX + delta
+                                    || y < oldAY - delta || y > oldAY + delta)) {
+                        int[] arrow = dir[styles.getDir(i)];
+                        g.setColor(styles.getColor(i));
+                        g.drawLine(x, y, x + arrow[0], y + arrow[1]);
+                        g.drawLine(x, y, x + arrow[2], y + arrow[3]);
+                        hasOldA = true;
+                        oldAX = x;
+                        oldAY = y;
                     }
+                    hasOld = true;
                 } // end for trkpnt
             } // end for segment
         } // end if lines
@@ -558,26 +604,29 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (large || hdopcircle) {
             g.setColor(neutralColor);
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
-                    g.setColor(trkPnt.customColoring);
-                    if (hdopcircle && trkPnt.attr.get("hdop") != null) {
-                        // hdop value
-                        float hdop = ((Float)trkPnt.attr.get("hdop")).floatValue();
+                    int x = (int) ((east - centerEast) / scale + halfWidth);
+                    int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                    g.setColor(styles.getColor(i));
+                    float hdop = index.getHdop(i);
+                    if (hdopcircle && !Float.isNaN(hdop)) {
                         if (hdop < 0) {
                             hdop = 0;
                         }
                         // hdop pixels
-                        int hdopp = mv.getPoint(new LatLon(trkPnt.getCoor().lat(), trkPnt.getCoor().lon() + 2*6*hdop*360/40000000)).x - screen.x;
-                        g.drawArc(screen.x-hdopp/2, screen.y-hdopp/2, hdopp, hdopp, 0, 360);
+                        int hdopp = mv.getPoint(new LatLon(index.getLat(i), index.getLon(i) + 2*6*hdop*360/40000000)).x - x;
+                        g.drawArc(x-hdopp/2, y-hdopp/2, hdopp, hdopp, 0, 360);
                     }
                     if (large) {
-                        g.fillRect(screen.x-1, screen.y-1, 3, 3);
+                        g.fillRect(x-1, y-1, 3, 3);
                     }
                 } // end for trkpnt
             } // end for segment
@@ -588,15 +637,19 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (!large && lines) {
             g.setColor(neutralColor);
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    if (!trkPnt.drawLine) {
-                        Point screen = mv.getPoint(trkPnt.getEastNorth());
-                        g.drawRect(screen.x, screen.y, 0, 0);
+                    if (!styles.isDrawLine(i)) {
+                        int x = (int) ((east - centerEast) / scale + halfWidth);
+                        int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                        g.drawRect(x, y, 0, 0);
                     }
                 } // end for trkpnt
             } // end for segment
@@ -607,15 +660,19 @@ public class GpxLayer extends Layer {
          ****************************************************************/
         if (!large && !lines) {
             g.setColor(neutralColor);
-            for (Collection<WayPoint> segment : visibleSegments) {
-                for (WayPoint trkPnt : segment) {
-                    LatLon c = trkPnt.getCoor();
-                    if (Double.isNaN(c.lat()) || Double.isNaN(c.lon())) {
+            for (VisibleRange range : visibleRanges) {
+                GpxSegmentIndex index = range.index;
+                GpxSegmentIndex.LineStyles styles = range.styles;
+                for (int k = range.from; k < range.to; k++) {
+                    int i = range.getPoint(k);
+                    double east = index.getEast(i);
+                    if (Double.isNaN(east)) {
                         continue;
                     }
-                    Point screen = mv.getPoint(trkPnt.getEastNorth());
-                    g.setColor(trkPnt.customColoring);
-                    g.drawRect(screen.x, screen.y, 0, 0);
+                    int x = (int) ((east - centerEast) / scale + halfWidth);
+                    int y = (int) ((centerNorth - index.getNorth(i)) / scale + halfHeight);
+                    g.setColor(styles.getColor(i));
+                    g.drawRect(x, y, 0, 0);
                 } // end for trkpnt
             } // end for segment
         } // end if large
@@ -624,6 +681,230 @@ public class GpxLayer extends Layer {
         // System.out.println(duration);
     } // end paint
 
+    /**
+     * Consecutive points of a track segment that may be visible.
+     */
+    private static class VisibleRange {
+        public final GpxSegmentIndex index;
+        public final GpxSegmentIndex.LineStyles styles;
+        /** the points of a simplified segment, null for all points */
+        public final int[] points;
+        /** first and last position (exclusive) in points, or first and last point */
+        public final int from;
+        public final int to;
+
+        public VisibleRange(GpxSegmentIndex index, int[] points, int from, int to) {
+            this.index = index;
+            // the line styles may be replaced while painting
+            this.styles = index.getLineStyles();
+            this.points = points;
+            this.from = from;
+            this.to = to;
+        }
+
+        /**
+         * @return the index of the point at position <code>k</code> of the range
+         */
+        public int getPoint(int k) {
+            return points == null ? k : points[k];
+        }
+    }
+
+    /**
+     * Computes the line styles (color, line or not, arrow direction) of the
+     * points of all segments in a background thread, so switching the color
+     * mode of large tracks does not block the user interface. The styles of a
+     * segment are published when it is complete; until then the layer paints
+     * the styles it had before. Published styles count as a change of the
+     * layer (see {@link GpxLayer#isChanged()}), so they are painted even if
+     * the map view has kept an image of the layer.
+     */
+    private static class LineStyleTask implements Runnable {
+        private final GpxLayer layer;
+        private final List<GpxSegmentIndex> indexes;
+        private final Color neutralColor;
+        private final boolean forceLines;
+        private final int maxLineLength;
+        private final colorModes colored;
+        private final int colorTracksTune;
+        private final int hdopFactor;
+        private volatile boolean cancelled;
+
+        public LineStyleTask(GpxLayer layer, List<GpxSegmentIndex> indexes, Color neutralColor, boolean forceLines,
+                int maxLineLength, colorModes colored, int colorTracksTune, int hdopFactor) {
+            this.layer = layer;
+            this.indexes = indexes;
+            this.neutralColor = neutralColor;
+            this.forceLines = forceLines;
+            this.maxLineLength = maxLineLength;
+            this.colored = colored;
+            this.colorTracksTune = colorTracksTune;
+            this.hdopFactor = hdopFactor;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public void run() {
+            long lastRepaint = System.currentTimeMillis();
+            GpxSegmentIndex oldIndex = null;
+            int old = 0;
+            for (GpxSegmentIndex index : indexes) {
+                if (cancelled)
+                    return;
+                if (!forceLines) { // don't draw lines between segments, unless forced to
+                    oldIndex = null;
+                }
+                GpxSegmentIndex.LineStyles styles = new GpxSegmentIndex.LineStyles(index.size());
+                for (int i = 0; i < index.size(); i++) {
+                    double lat = index.getLat(i);
+                    double lon = index.getLon(i);
+                    if (Double.isNaN(lat) || Double.isNaN(lon)) {
+                        continue;
+                    }
+                    Color color = neutralColor;
+                    boolean drawLine = false;
+                    int lineDir = 0;
+                    if (oldIndex != null) {
+                        LatLon c = new LatLon(lat, lon);
+                        LatLon oldC = new LatLon(oldIndex.getLat(old), oldIndex.getLon(old));
+                        double dist = c.greatCircleDistance(oldC);
+
+                        switch (colored) {
+                        case velocity:
+                            double dtime = index.getTime(i) - oldIndex.getTime(old);
+                            double vel = dist / dtime;
+                            double velColor = vel / colorTracksTune * 255;
+                            // Bad case first
+                            if (dtime <= 0 || vel < 0 || velColor > 255) {
+                                color = colors[255];
+                            } else {
+                                color = colors[(int) (velColor)];
+                            }
+                            break;
+
+                        case dilution:
+                            float hdop = index.getHdop(i);
+                            if (!Float.isNaN(hdop)) {
+                                if (hdop < 0) {
+                                    hdop = 0;
+                                }
+                                int hdoplvl = Math.round(hdop * hdopFactor);
+                                // High hdop is bad, but high values in colors are green.
+                                // Therefore inverse the logic
+                                int hdopcolor = 255 - (hdoplvl > 255 ? 255 : hdoplvl);
+                                color = colors[hdopcolor];
+                            }
+                            break;
+                        }
+
+                        if (maxLineLength == -1 || dist <= maxLineLength) {
+                            drawLine = true;
+                            lineDir = (int) oldC.heading(c);
+                        }
+                    }
+                    styles.set(i, color, drawLine, lineDir);
+                    oldIndex = index;
+                    old = i;
+                }
+                index.setLineStyles(styles);
+                // only this thread writes the count
+                layer.lineStylesCount++;
+                if (System.currentTimeMillis() - lastRepaint > 250) {
+                    repaint();
+                    lastRepaint = System.currentTimeMillis();
+                }
+            }
+            repaint();
+        }
+
+        private void repaint() {
+            if (!cancelled && Main.map != null) {
+                Main.map.repaint();
+            }
+        }
+    }
+
+    /**
+     * Makes sure there is an up to date index for every track segment.
+     * Indexes of segments that were removed or changed are dropped.
+     *
+     * @return true, if an index was created
+     */
+    private boolean updateSegmentIndexes() {
+        Map<GpxTrackSegment, GpxSegmentIndex> indexes = new HashMap<GpxTrackSegment, GpxSegmentIndex>();
+        boolean created = false;
+        for (GpxTrack trk: data.tracks) {
+            for (GpxTrackSegment trkSeg: trk.getSegments()) {
+                GpxSegmentIndex index = segmentIndexes.get(trkSeg);
+                if (index == null || !index.isUpToDate()) {
+                    index = new GpxSegmentIndex(trkSeg);
+                    created = true;
+                }
+                indexes.put(trkSeg, index);
+            }
+        }
+        segmentIndexes = indexes;
+        return created;
+    }
+
+    /**
+     * Finds the parts of the track segments within <code>box</code> using the
+     * spatial index of each segment.
+     *
+     * @param tolerance the distance in meters that can't be seen, 0 to paint all points
+     */
+    private List<VisibleRange> getVisibleRanges(Bounds box, double tolerance) {
+        List<VisibleRange> result = new ArrayList<VisibleRange>();
+        for (GpxTrack trk: data.tracks) {
+            for (GpxTrackSegment trkSeg: trk.getSegments()) {
+                Bounds bounds = trkSeg.getBounds();
+                if (bounds == null || !bounds.intersects(box)) {
+                    continue;
+                }
+                GpxSegmentIndex index = segmentIndexes.get(trkSeg);
+                int[] ranges = index.getVisibleRanges(box);
+                int[] points = index.getSimplified(tolerance);
+                if (points == null) {
+                    for (int i = 0; i < ranges.length; i += 2) {
+                        result.add(new VisibleRange(index, null, ranges[i], ranges[i + 1]));
+                    }
+                    continue;
+                }
+                // positions of the simplified points, including the points just before
+                // and after the range, so lines leaving the range are painted
+                int from = -1, to = -1;
+                for (int i = 0; i < ranges.length; i += 2) {
+                    int f = Arrays.binarySearch(points, ranges[i]);
+                    f = f >= 0 ? f : Math.max(0, -f - 2);
+                    int t = Arrays.binarySearch(points, ranges[i + 1] - 1);
+                    t = t >= 0 ? t + 1 : Math.min(points.length, -t);
+                    if (from >= 0 && f <= to) {
+                        to = Math.max(to, t);
+                    } else {
+                        if (from >= 0) {
+                            result.add(new VisibleRange(index, points, from, to));
+                        }
+                        from = f;
+                        to = t;
+                    }
+                }
+                if (from >= 0) {
+                    result.add(new VisibleRange(index, points, from, to));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void destroy() {
+        if (lineStyleTask != null) {
+            lineStyleTask.cancel();
+        }
+    }
+
     @Override
     public void visitBoundingBox(BoundingXYVisitor v) {
         v.visit(data.recalculateBounds());
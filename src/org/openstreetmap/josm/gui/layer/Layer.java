@@ -119,6 +119,15 @@ abstract public class Layer implements Destroyable, MapViewPaintable {
      */
     @Override
     abstract public void paint(Graphics2D g, MapView mv, Bounds box);
+
+    /**
+     * Paint the parts of the layer that change often, e.g. the selection, over the
+     * image painted by {@link #paint(Graphics2D, MapView, Bounds)}. The map view keeps
+     * that image as long as {@link #isChanged()} returns false and calls this method
+     * on every repaint. Does nothing by default.
+     */
+    public void paintOverlay(Graphics2D g, MapView mv, Bounds box) {
+    }
     /**
      * Return a representative small image for this layer. The image must not
      * be larger than 64 pixel in any dimension.
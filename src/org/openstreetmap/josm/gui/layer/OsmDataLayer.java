@@ -46,6 +46,7 @@ import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
 import org.openstreetmap.josm.data.gpx.WayPoint;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.DataSetMerger;
 import org.openstreetmap.josm.data.osm.DataSource;
@@ -61,6 +62,7 @@ import org.openstreetmap.josm.data.osm.event.DataSetListenerAdapter.Listener;
 import org.openstreetmap.josm.data.osm.visitor.AbstractVisitor;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.MapPaintVisitor;
+import org.openstreetmap.josm.data.osm.visitor.paint.PaintStatistics;
 import org.openstreetmap.josm.data.osm.visitor.paint.PaintVisitor;
 import org.openstreetmap.josm.data.osm.visitor.paint.SimplePaintVisitor;
 import org.openstreetmap.josm.data.validation.TestError;
@@ -86,7 +88,14 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
     private boolean requiresSaveToFile = false;
     private boolean requiresUploadToServer = false;
     private boolean isChanged = true;
-    private int highlightUpdateCount;
+    private PaintVisitor painter;
+    private PaintStatistics paintStatistics;
+    private PaintStatistics overlayStatistics;
+    /**
+     * The area covered by the last paint, with some space around for wide
+     * lines. Changes outside do not change the painted image.
+     */
+    private BBox paintedArea;
 
     public List<TestError> validationErrors = new ArrayList<TestError>();
 
@@ -223,7 +232,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
      */
     @Override public void paint(final Graphics2D g, final MapView mv, Bounds box) {
         isChanged = false;
-        highlightUpdateCount = data.getHighlightUpdateCount();
+        paintedArea = new BBox(mv.getLatLonBounds(new Rectangle(-50, -50, mv.getWidth() + 100, mv.getHeight() + 100)));
 
         boolean active = mv.getActiveLayer() == this;
         boolean inactive = !active && Main.pref.getBoolean("draw.data.inactive_color", true);
@@ -256,17 +265,52 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
             g.fill(a);
         }
 
-        PaintVisitor painter;
+        PaintVisitor visitor = createPaintVisitor(g, mv, inactive);
+        visitor.visitUnselected(data, virtual, box);
+        paintStatistics = visitor.getStatistics();
+    }
+
+    /**
+     * Draw the selected and highlighted primitives and the conflicts. They are not
+     * part of the image kept by the map view, so selecting does not repaint all data.
+     */
+    @Override public void paintOverlay(final Graphics2D g, final MapView mv, Bounds box) {
+        boolean inactive = mv.getActiveLayer() != this && Main.pref.getBoolean("draw.data.inactive_color", true);
+        PaintVisitor visitor = createPaintVisitor(g, mv, inactive);
+        visitor.visitSelection(data, box);
+        overlayStatistics = visitor.getStatistics();
+        Main.map.conflictDialog.paintConflicts(g, mv);
+    }
+
+    /**
+     * @return the timings of the last paint of the data, null if not painted yet
+     */
+    public PaintStatistics getPaintStatistics() {
+        return paintStatistics;
+    }
+
+    /**
+     * @return the timings of the last paint of the selection, null if not painted yet
+     */
+    public PaintStatistics getOverlayStatistics() {
+        return overlayStatistics;
+    }
+
+    /**
+     * The painter is kept between paints, so the buffers of the wireframe painter are reused.
+     */
+    private PaintVisitor createPaintVisitor(Graphics2D g, MapView mv, boolean inactive) {
         if (Main.pref.getBoolean("draw.wireframe")) {
-            painter = new SimplePaintVisitor();
-        } else {
+            if (!(painter instanceof SimplePaintVisitor)) {
+                painter = new SimplePaintVisitor();
+            }
+        } else if (!(painter instanceof MapPaintVisitor)) {
             painter = new MapPaintVisitor();
         }
         painter.setGraphics(g);
         painter.setNavigatableComponent(mv);
         painter.setInactive(inactive);
-        painter.visitAll(data, virtual, box);
-        Main.map.conflictDialog.paintConflicts(g, mv);
+        return painter;
     }
 
     @Override public String getToolTipText() {
@@ -609,7 +653,7 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
 
     @Override
     public boolean isChanged() {
-        return isChanged || highlightUpdateCount != data.getHighlightUpdateCount();
+        return isChanged;
     }
 
     /**
@@ -659,13 +703,44 @@ public class OsmDataLayer extends Layer implements Listener, SelectionChangedLis
         DataSet.removeSelectionListener(this);
     }
 
+    /**
+     * Replies false, if the event concerns only primitives far enough away
+     * from the painted area to not change the image. For moved nodes and
+     * changed way nodes the old position is not known, so these always count.
+     */
+    private boolean isPaintedAreaAffected(AbstractDatasetChangedEvent event) {
+        if (paintedArea == null)
+            return true;
+        switch (event.getType()) {
+        case CHANGESET_ID_CHANGED:
+            return false;
+        case PRIMITIVES_ADDED:
+        case PRIMITIVES_REMOVED:
+        case TAGS_CHANGED:
+            for (OsmPrimitive p : event.getPrimitives()) {
+                if (p.getBBox().intersects(paintedArea))
+                    return true;
+                // the style of multipolygons depends on the tags of their members
+                for (OsmPrimitive referrer : p.getReferrers()) {
+                    if (referrer instanceof Relation && referrer.getBBox().intersects(paintedArea))
+                        return true;
+                }
+            }
+            return false;
+        default:
+            return true;
+        }
+    }
+
     public void processDatasetEvent(AbstractDatasetChangedEvent event) {
-        isChanged = true;
+        if (isPaintedAreaAffected(event)) {
+            isChanged = true;
+        }
         setRequiresSaveToFile(true);
         setRequiresUploadToServer(true);
     }
 
     public void selectionChanged(Collection<? extends OsmPrimitive> newSelection) {
-        isChanged = true;
+        // the selection is painted by paintOverlay(), the map view repaints on selection changes
     }
 }
@@ -65,10 +65,8 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.filechooser.FileFilter;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
-import org.openstreetmap.josm.data.gpx.GpxTrack;
-import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
-import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.gui.ExtendedDialog;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
@@ -77,7 +75,6 @@ import org.openstreetmap.josm.io.GpxReader;
 import org.openstreetmap.josm.tools.ExifReader;
 import org.openstreetmap.josm.tools.GBC;
 import org.openstreetmap.josm.tools.ImageProvider;
-import org.openstreetmap.josm.tools.PrimaryDateParser;
 import org.xml.sax.SAXException;
 
 /** This class displays the window to select the GPX file and the offset (timezone + delta).
@@ -101,12 +98,24 @@ public class CorrelateGpxWithImages extends AbstractAction {
         GpxData data;
         File file;
 
+        private GpxTimeIndex timeIndex;
+
         public GpxDataWrapper(String name, GpxData data, File file) {
             this.name = name;
             this.data = data;
             this.file = file;
         }
 
+        /**
+         * @return the times of the track points, read on first use
+         */
+        public GpxTimeIndex getTimeIndex() {
+            if (timeIndex == null) {
+                timeIndex = new GpxTimeIndex(data);
+            }
+            return timeIndex;
+        }
+
         @Override
         public String toString() {
             return name;
@@ -817,7 +826,7 @@ public class CorrelateGpxWithImages extends AbstractAction {
                 return tr("No gpx selected");
 
             final long offset_ms = ((long) (timezone * 3600) + delta) * 1000; // in milliseconds
-            lastNumMatched = matchGpxTrack(dateImgLst, selGpx.data, offset_ms);
+            lastNumMatched = matchGpxTrack(dateImgLst, selGpx.getTimeIndex(), offset_ms);
 
             return trn("<html>Matched <b>{0}</b> of <b>{1}</b> photo to GPX track.</html>",
                     "<html>Matched <b>{0}</b> of <b>{1}</b> photos to GPX track.</html>",
@@ -980,7 +989,6 @@ public class CorrelateGpxWithImages extends AbstractAction {
             GpxData gpx = gpxW.data;
 
             ArrayList<ImageEntry> imgs = getSortedImgList();
-            PrimaryDateParser dateParser = new PrimaryDateParser();
 
             // no images found, exit
             if(imgs.size() <= 0) {
@@ -995,20 +1003,9 @@ public class CorrelateGpxWithImages extends AbstractAction {
 
             long firstGPXDate = -1;
             // Finds first GPX point
-            outer: for (GpxTrack trk : gpx.tracks) {
-                for (GpxTrackSegment segment : trk.getSegments()) {
-                    for (WayPoint curWp : segment.getWayPoints()) {
-                        String curDateWpStr = (String) curWp.attr.get("time");
-                        if (curDateWpStr == null) {
-                            continue;
-                        }
-
-                        try {
-                            firstGPXDate = dateParser.parse(curDateWpStr).getTime()/1000;
-                            break outer;
-                        } catch(Exception e) {}
-                    }
-                }
+            GpxTimeIndex index = gpxW.getTimeIndex();
+            if (index.size() > 0) {
+                firstGPXDate = index.getTime(0)/1000;
             }
 
             // No GPX timestamps found, exit
@@ -1122,77 +1119,60 @@ public class CorrelateGpxWithImages extends AbstractAction {
      * Match a list of photos to a gpx track with a given offset.
      * All images need a exifTime attribute and the List must be sorted according to these times.
      */
-    private int matchGpxTrack(ArrayList<ImageEntry> images, GpxData selectedGpx, long offset) {
-        int ret = 0;
-
-        PrimaryDateParser dateParser = new PrimaryDateParser();
-
-        for (GpxTrack trk : selectedGpx.tracks) {
-            for (GpxTrackSegment segment : trk.getSegments()) {
-
-                long prevWpTime = 0;
-                WayPoint prevWp = null;
-
-                for (WayPoint curWp : segment.getWayPoints()) {
-
-                    String curWpTimeStr = (String) curWp.attr.get("time");
-                    if (curWpTimeStr != null) {
-
-                        try {
-                            long curWpTime = dateParser.parse(curWpTimeStr).getTime() + offset;
-                            ret += matchPoints(images, prevWp, prevWpTime, curWp, curWpTime, offset);
-
-                            prevWp = curWp;
-                            prevWpTime = curWpTime;
+    private int matchGpxTrack(ArrayList<ImageEntry> images, GpxTimeIndex index, long offset) {
+        if (images.isEmpty())
+            return 0;
+        long[] imageTimes = new long[images.size()];
+        for (int i = 0; i < imageTimes.length; i++) {
+            imageTimes[i] = images.get(i).getExifTime().getTime();
+        }
+        long firstImageTime = imageTimes[0];
+        long lastImageTime = imageTimes[imageTimes.length - 1];
 
-                        } catch(ParseException e) {
-                            System.err.println("Error while parsing date \"" + curWpTimeStr + '"');
-                            e.printStackTrace();
-                            prevWp = null;
-                            prevWpTime = 0;
-                        }
-                    } else {
-                        prevWp = null;
-                        prevWpTime = 0;
-                    }
-                }
+        int ret = 0;
+        for (int r = 0; r < index.getRunCount(); r++) {
+            int start = index.getRunStart(r);
+            int end = index.getRunEnd(r);
+            int from = start;
+            int to = end;
+            if (index.isSorted(r)) {
+                // Points before the first photo match nothing. Behind the last photo, only
+                // the first point is needed to interpolate up to it.
+                from = index.search(start, end, firstImageTime - offset);
+                to = Math.min(end, index.search(from, end, lastImageTime - offset + 1) + 1);
+            }
+            for (int k = from; k < to; k++) {
+                ret += matchPoints(images, imageTimes, index, k, k > start, offset);
             }
         }
         return ret;
     }
 
-    private int matchPoints(ArrayList<ImageEntry> images, WayPoint prevWp, long prevWpTime,
-            WayPoint curWp, long curWpTime, long offset) {
+    /**
+     * Matches the photos taken between point <code>k</code> of the index and the previous one.
+     * @param hasPrevious false, if point <code>k</code> is the first of its run
+     */
+    private int matchPoints(ArrayList<ImageEntry> images, long[] imageTimes, GpxTimeIndex index, int k,
+            boolean hasPrevious, long offset) {
+        long curWpTime = index.getTime(k) + offset;
+        long prevWpTime = hasPrevious ? index.getTime(k - 1) + offset : 0;
+
         // Time between the track point and the previous one, 5 sec if first point, i.e. photos take
         // 5 sec before the first track point can be assumed to be take at the starting position
         long interval = prevWpTime > 0 ? ((long)Math.abs(curWpTime - prevWpTime)) : 5*1000;
         int ret = 0;
 
         // i is the index of the timewise last photo that has the same or earlier EXIF time
-        int i = getLastIndexOfListBefore(images, curWpTime);
+        int i = getLastIndexOfListBefore(imageTimes, curWpTime);
 
         // no photos match
         if (i < 0)
             return 0;
 
+        // position and speed are only computed when a photo matches
+        LatLon curWpPos = null;
+        LatLon prevWpPos = null;
         Double speed = null;
-        Double prevElevation = null;
-        Double curElevation = null;
-
-        if (prevWp != null) {
-            double distance = prevWp.getCoor().greatCircleDistance(curWp.getCoor());
-            // This is in km/h, 3.6 * m/s
-            if (curWpTime > prevWpTime) {
-                speed = 3600 * distance / (curWpTime - prevWpTime);
-            }
-            try {
-                prevElevation = new Double((String) prevWp.attr.get("ele"));
-            } catch(Exception e) {}
-        }
-
-        try {
-            curElevation = new Double((String) curWp.attr.get("ele"));
-        } catch (Exception e) {}
 
         // First trackpoint, then interval is set to five seconds, i.e. photos up to five seconds
         // before the first point will be geotagged with the starting point
@@ -1202,15 +1182,22 @@ public class CorrelateGpxWithImages extends AbstractAction {
                     break;
                 }
                 final ImageEntry curImg = images.get(i);
-                if (curImg.getExifTime().getTime() > curWpTime
-                        || curImg.getExifTime().getTime() < curWpTime - interval) {
+                if (imageTimes[i] > curWpTime
+                        || imageTimes[i] < curWpTime - interval) {
                     break;
                 }
                 if(curImg.tmp.getPos() == null) {
-                    curImg.tmp.setPos(curWp.getCoor());
+                    if (curWpPos == null) {
+                        curWpPos = index.getCoor(k);
+                        if (hasPrevious) {
+                            prevWpPos = index.getCoor(k - 1);
+                        }
+                        speed = getSpeed(prevWpPos, prevWpTime, curWpPos, curWpTime);
+                    }
+                    curImg.tmp.setPos(curWpPos);
                     curImg.tmp.setSpeed(speed);
-                    curImg.tmp.setElevation(curElevation);
-                    curImg.tmp.setGpsTime(new Date(curImg.getExifTime().getTime() - offset));
+                    curImg.tmp.setElevation(index.getElevation(k));
+                    curImg.tmp.setGpsTime(new Date(imageTimes[i] - offset));
                     ret++;
                 }
                 i--;
@@ -1225,21 +1212,28 @@ public class CorrelateGpxWithImages extends AbstractAction {
                 break;
             }
             ImageEntry curImg = images.get(i);
-            long imgTime = curImg.getExifTime().getTime();
+            long imgTime = imageTimes[i];
             if (imgTime < prevWpTime) {
                 break;
             }
 
             if(curImg.tmp.getPos() == null) {
+                if (curWpPos == null) {
+                    curWpPos = index.getCoor(k);
+                    prevWpPos = index.getCoor(k - 1);
+                    speed = getSpeed(prevWpPos, prevWpTime, curWpPos, curWpTime);
+                }
                 // The values of timeDiff are between 0 and 1, it is not seconds but a dimensionless
                 // variable
                 double timeDiff = (double)(imgTime - prevWpTime) / interval;
-                curImg.tmp.setPos(prevWp.getCoor().interpolate(curWp.getCoor(), timeDiff));
+                curImg.tmp.setPos(prevWpPos.interpolate(curWpPos, timeDiff));
                 curImg.tmp.setSpeed(speed);
+                Double curElevation = index.getElevation(k);
+                Double prevElevation = index.getElevation(k - 1);
                 if (curElevation != null && prevElevation != null) {
                     curImg.setElevation(prevElevation + (curElevation - prevElevation) * timeDiff);
                 }
-                curImg.tmp.setGpsTime(new Date(curImg.getExifTime().getTime() - offset));
+                curImg.tmp.setGpsTime(new Date(imgTime - offset));
 
                 ret++;
             }
@@ -1248,15 +1242,28 @@ public class CorrelateGpxWithImages extends AbstractAction {
         return ret;
     }
 
-    private int getLastIndexOfListBefore(ArrayList<ImageEntry> images, long searchedTime) {
-        int lstSize= images.size();
+    /**
+     * @return the speed between two track points in km/h, null if unknown
+     */
+    private static Double getSpeed(LatLon prevWpPos, long prevWpTime, LatLon curWpPos, long curWpTime) {
+        if (prevWpPos != null) {
+            double distance = prevWpPos.greatCircleDistance(curWpPos);
+            // This is in km/h, 3.6 * m/s
+            if (curWpTime > prevWpTime)
+                return 3600 * distance / (curWpTime - prevWpTime);
+        }
+        return null;
+    }
+
+    private int getLastIndexOfListBefore(long[] imageTimes, long searchedTime) {
+        int lstSize= imageTimes.length;
 
         // No photos or the first photo taken is later than the search period
-        if(lstSize == 0 || searchedTime < images.get(0).getExifTime().getTime())
+        if(lstSize == 0 || searchedTime < imageTimes[0])
             return -1;
 
         // The search period is later than the last photo
-        if (searchedTime > images.get(lstSize - 1).getExifTime().getTime())
+        if (searchedTime > imageTimes[lstSize - 1])
             return lstSize-1;
 
         // The searched index is somewhere in the middle, do a binary search from the beginning
@@ -1265,18 +1272,17 @@ public class CorrelateGpxWithImages extends AbstractAction {
         int endIndex= lstSize-1;
         while (endIndex - startIndex > 1) {
             curIndex= (endIndex + startIndex) / 2;
-            if (searchedTime > images.get(curIndex).getExifTime().getTime()) {
+            if (searchedTime > imageTimes[curIndex]) {
                 startIndex= curIndex;
             } else {
                 endIndex= curIndex;
             }
         }
-        if (searchedTime < images.get(endIndex).getExifTime().getTime())
+        if (searchedTime < imageTimes[endIndex])
             return startIndex;
 
         // This final loop is to check if photos with the exact same EXIF time follows
-        while ((endIndex < (lstSize-1)) && (images.get(endIndex).getExifTime().getTime()
-                == images.get(endIndex + 1).getExifTime().getTime())) {
+        while ((endIndex < (lstSize-1)) && (imageTimes[endIndex] == imageTimes[endIndex + 1])) {
             endIndex++;
         }
         return endIndex;
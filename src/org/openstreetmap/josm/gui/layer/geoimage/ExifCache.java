@@ -0,0 +1,178 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.io.CacheFiles;
+
+/**
+ * Remembers the EXIF values of images between sessions, so that a directory
+ * that has been loaded before is read again without opening the images.
+ *
+ * The values of all images of a directory are stored in one file of the
+ * <code>geoimage-exif</code> cache. An entry is only used if size and
+ * modification time of the image are still the same.
+ */
+class ExifCache {
+
+    private static final int VERSION = 1;
+
+    private static class Entry {
+        long length;
+        long lastModified;
+        Date time;
+        LatLon coor;
+        Double imgDir;
+    }
+
+    private final CacheFiles cache;
+    /** the entries of every directory that has been used so far, by file name */
+    private final Map<File, Map<String, Entry>> directories = new HashMap<File, Map<String, Entry>>();
+    private final Set<File> changed = new HashSet<File>();
+
+    public ExifCache() {
+        cache = new CacheFiles("geoimage-exif", false);
+        cache.setExpire(CacheFiles.EXPIRE_NEVER, false);
+    }
+
+    private static String getIdent(File directory) {
+        return directory.getAbsolutePath();
+    }
+
+    private Map<String, Entry> getDirectory(File directory) {
+        Map<String, Entry> entries = directories.get(directory);
+        if (entries == null) {
+            entries = read(cache.getData(getIdent(directory)));
+            directories.put(directory, entries);
+        }
+        return entries;
+    }
+
+    private static Map<String, Entry> read(byte[] data) {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        if (data == null)
+            return entries;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != VERSION)
+                return entries;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                Entry e = new Entry();
+                e.length = in.readLong();
+                e.lastModified = in.readLong();
+                if (in.readBoolean()) {
+                    e.time = new Date(in.readLong());
+                }
+                if (in.readBoolean()) {
+                    double lat = in.readDouble();
+                    e.coor = new LatLon(lat, in.readDouble());
+                }
+                if (in.readBoolean()) {
+                    e.imgDir = in.readDouble();
+                }
+                entries.put(name, e);
+            }
+        } catch (IOException e) {
+            System.err.println("Error while reading EXIF cache: " + e);
+            entries.clear();
+        }
+        return entries;
+    }
+
+    private static byte[] write(File directory, Map<String, Entry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        // forget the images that are gone
+        for (Iterator<String> it = entries.keySet().iterator(); it.hasNext();) {
+            if (!new File(directory, it.next()).exists()) {
+                it.remove();
+            }
+        }
+        out.writeInt(VERSION);
+        out.writeInt(entries.size());
+        for (Map.Entry<String, Entry> me : entries.entrySet()) {
+            Entry e = me.getValue();
+            out.writeUTF(me.getKey());
+            out.writeLong(e.length);
+            out.writeLong(e.lastModified);
+            out.writeBoolean(e.time != null);
+            if (e.time != null) {
+                out.writeLong(e.time.getTime());
+            }
+            out.writeBoolean(e.coor != null);
+            if (e.coor != null) {
+                out.writeDouble(e.coor.lat());
+                out.writeDouble(e.coor.lon());
+            }
+            out.writeBoolean(e.imgDir != null);
+            if (e.imgDir != null) {
+                out.writeDouble(e.imgDir);
+            }
+        }
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Sets the EXIF values of an image from the cache.
+     * @return false, if the image is not in the cache or has been changed since
+     */
+    public boolean get(ImageEntry image) {
+        File file = image.getFile().getAbsoluteFile();
+        Entry e = getDirectory(file.getParentFile()).get(file.getName());
+        if (e == null || e.length != file.length() || e.lastModified != file.lastModified())
+            return false;
+        image.setExifTime(e.time);
+        if (e.coor != null) {
+            image.setExifCoor(e.coor);
+            image.setPos(e.coor);
+        }
+        if (e.imgDir != null) {
+            image.setExifImgDir(e.imgDir);
+        }
+        return true;
+    }
+
+    /**
+     * Stores the EXIF values of an image, see {@link #save()}.
+     */
+    public void put(ImageEntry image) {
+        File file = image.getFile().getAbsoluteFile();
+        Entry e = new Entry();
+        e.length = file.length();
+        e.lastModified = file.lastModified();
+        e.time = image.getExifTime();
+        e.coor = image.getExifCoor();
+        e.imgDir = image.getExifImgDir();
+        getDirectory(file.getParentFile()).put(file.getName(), e);
+        changed.add(file.getParentFile());
+    }
+
+    /**
+     * Writes the directories with new or changed entries to disk.
+     */
+    public void save() {
+        for (File directory : changed) {
+            try {
+                cache.saveData(getIdent(directory), write(directory, directories.get(directory)));
+            } catch (IOException e) {
+                System.err.println("Error while writing EXIF cache: " + e);
+            }
+        }
+        changed.clear();
+    }
+}
@@ -31,6 +31,14 @@ import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.Action;
 import javax.swing.Icon;
@@ -42,6 +50,8 @@ import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.RenameLayerAction;
 import org.openstreetmap.josm.actions.mapmode.MapMode;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.EastNorthIndex;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.visitor.BoundingXYVisitor;
 import org.openstreetmap.josm.gui.ExtendedDialog;
@@ -80,6 +90,9 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
     private BufferedImage offscreenBuffer;
     boolean updateOffscreenBuffer = true;
 
+    /** The images by position, created again when they have changed */
+    private EastNorthIndex<ImageEntry> index = null;
+
     /** Loads a set of images, while displaying a dialog that indicates what the plugin is currently doing.
      * In facts, this object is instantiated with a list of files. These files may be JPEG files or
      * directories. In case of directories, they are scanned to find all the images they contain.
@@ -120,11 +133,10 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
             progressMonitor.subTask(tr("Read photos..."));
             progressMonitor.setTicksCount(files.size());
 
-            progressMonitor.subTask(tr("Read photos..."));
-            progressMonitor.setTicksCount(files.size());
-
             // read the image files
             List<ImageEntry> data = new ArrayList<ImageEntry>(files.size());
+            List<ImageEntry> notCached = new ArrayList<ImageEntry>();
+            ExifCache cache = Main.pref.getBoolean("geoimage.noExifCache", false) ? null : new ExifCache();
 
             for (File f : files) {
 
@@ -132,27 +144,76 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
                     break;
                 }
 
-                progressMonitor.subTask(tr("Reading {0}...", f.getName()));
-                progressMonitor.worked(1);
-
                 ImageEntry e = new ImageEntry();
-
-                // Changed to silently cope with no time info in exif. One case
-                // of person having time that couldn't be parsed, but valid GPS info
-
-                try {
-                    e.setExifTime(ExifReader.readTime(f));
-                } catch (ParseException e1) {
-                    e.setExifTime(null);
-                }
                 e.setFile(f);
-                extractExif(e);
+                if (cache != null && cache.get(e)) {
+                    progressMonitor.worked(1);
+                } else {
+                    notCached.add(e);
+                }
                 data.add(e);
             }
+            List<ImageEntry> read = readExif(notCached);
+            if (cancelled) {
+                // keep the photos that have been read so far
+                notCached.removeAll(new HashSet<ImageEntry>(read));
+                data.removeAll(new HashSet<ImageEntry>(notCached));
+            }
+            if (cache != null) {
+                for (ImageEntry e : read) {
+                    cache.put(e);
+                }
+                cache.save();
+            }
             layer = new GeoImageLayer(data, gpxLayer);
             files.clear();
         }
 
+        /**
+         * Reads the EXIF data of the images on a pool of <code>geoimage.exif.threads</code> threads
+         * (by default one per processor), as most of the time is spent waiting for the disk.
+         * @return the images that have been read without error
+         */
+        private List<ImageEntry> readExif(List<ImageEntry> images) throws IOException {
+            List<ImageEntry> read = new ArrayList<ImageEntry>(images.size());
+            if (images.isEmpty() || cancelled)
+                return read;
+            int threads = Main.pref.getInteger("geoimage.exif.threads", Runtime.getRuntime().availableProcessors());
+            threads = Math.max(1, Math.min(threads, images.size()));
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try {
+                CompletionService<ImageEntry> completion = new ExecutorCompletionService<ImageEntry>(pool);
+                for (final ImageEntry e : images) {
+                    completion.submit(new Callable<ImageEntry>() {
+                        public ImageEntry call() {
+                            extractExif(e);
+                            return e;
+                        }
+                    });
+                }
+                for (int i = 0; i < images.size(); i++) {
+                    Future<ImageEntry> task;
+                    while ((task = completion.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                        if (cancelled)
+                            return read;
+                    }
+                    try {
+                        ImageEntry e = task.get();
+                        progressMonitor.subTask(tr("Reading {0}...", e.getFile().getName()));
+                        read.add(e);
+                    } catch (ExecutionException e) {
+                        e.getCause().printStackTrace();
+                    }
+                    progressMonitor.worked(1);
+                }
+                return read;
+            } catch (InterruptedException e) {
+                throw new IOException(tr("Reading photos was interrupted."));
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
         private void addRecursiveFiles(Collection<File> files, Collection<File> sel) {
             boolean nullFile = false;
 
@@ -336,6 +397,7 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
 
         data.addAll(l.data);
         Collections.sort(data);
+        index = null;
 
         // Supress the double photos.
         if (data.size() > 1) {
@@ -409,16 +471,15 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
                 tempG.fillRect(0, 0, width, height);
                 tempG.setComposite(saveComp);
 
-                for (ImageEntry e : data) {
-                    if (e.getPos() == null) {
-                        continue;
-                    }
+                for (ImageEntry e : getVisibleImages(mv)) {
                     Point p = mv.getPoint(e.getPos());
-                    if (e.thumbnail != null) {
-                        Dimension d = scaledDimension(e.thumbnail);
+                    // the thumbnail may be evicted by another thread
+                    Image thumbnail = e.thumbnail;
+                    if (thumbnail != null) {
+                        Dimension d = scaledDimension(thumbnail);
                         Rectangle target = new Rectangle(p.x - d.width / 2, p.y - d.height / 2, d.width, d.height);
                         if (clip.intersects(target)) {
-                            tempG.drawImage(e.thumbnail, target.x, target.y, target.width, target.height, null);
+                            tempG.drawImage(thumbnail, target.x, target.y, target.width, target.height, null);
                         }
                     }
                     else { // thumbnail not loaded yet
@@ -432,10 +493,7 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
             g.drawImage(offscreenBuffer, 0, 0, null);
         }
         else {
-            for (ImageEntry e : data) {
-                if (e.getPos() == null) {
-                    continue;
-                }
+            for (ImageEntry e : getVisibleImages(mv)) {
                 Point p = mv.getPoint(e.getPos());
                 icon.paintIcon(mv, g,
                         p.x - icon.getIconWidth() / 2,
@@ -449,8 +507,9 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
             if (e.getPos() != null) {
                 Point p = mv.getPoint(e.getPos());
 
-                if (e.thumbnail != null) {
-                    Dimension d = scaledDimension(e.thumbnail);
+                Image thumbnail = e.thumbnail;
+                if (thumbnail != null) {
+                    Dimension d = scaledDimension(thumbnail);
                     g.setColor(new Color(128, 0, 0, 122));
                     g.fillRect(p.x - d.width / 2, p.y - d.height / 2, d.width, d.height);
                 } else {
@@ -488,6 +547,30 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
         }
     }
 
+    /**
+     * @return the images with a position in a rectangle of the map view (in screen coordinates),
+     * in the order of the layer
+     */
+    private List<ImageEntry> getImagesIn(MapView mv, Rectangle r) {
+        if (index == null || !index.isUpToDate() || index.size() != data.size()) {
+            index = new EastNorthIndex<ImageEntry>(data) {
+                @Override
+                protected EastNorth getEastNorth(ImageEntry e) {
+                    return e.getPos() == null ? null : e.getPos().getEastNorth();
+                }
+            };
+        }
+        return index.search(mv.getEastNorth(r.x, r.y + r.height), mv.getEastNorth(r.x + r.width, r.y));
+    }
+
+    /**
+     * @return the images whose thumbnail or icon may be visible
+     */
+    private List<ImageEntry> getVisibleImages(MapView mv) {
+        int margin = Math.max(ThumbsLoader.maxSize, Math.max(icon.getIconWidth(), icon.getIconHeight()));
+        return getImagesIn(mv, new Rectangle(-margin, -margin, mv.getWidth() + 2 * margin, mv.getHeight() + 2 * margin));
+    }
+
     @Override
     public void visitBoundingBox(BoundingXYVisitor v) {
         for (ImageEntry e : data) {
@@ -496,10 +579,10 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
     }
 
     /*
-     * Extract gps from image exif
+     * Extract time and gps from image exif
      *
-     * If successful, fills in the LatLon and EastNorth attributes of passed in
-     * image;
+     * If successful, fills in the time, LatLon and EastNorth attributes of passed in
+     * image; the file is read only once for all of them.
      */
 
     private static void extractExif(ImageEntry e) {
@@ -519,6 +602,15 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
             return;
         }
 
+        // Changed to silently cope with no time info in exif. One case
+        // of person having time that couldn't be parsed, but valid GPS info
+
+        try {
+            e.setExifTime(ExifReader.readTime(metadata));
+        } catch (ParseException e1) {
+            e.setExifTime(null);
+        }
+
         try {
             // longitude
 
@@ -703,15 +795,18 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
                 if (!isVisible())
                     return;
 
-                for (int i = data.size() - 1; i >= 0; --i) {
-                    ImageEntry e = data.get(i);
-                    if (e.getPos() == null) {
-                        continue;
-                    }
+                Point click = ev.getPoint();
+                List<ImageEntry> candidates = getImagesIn(Main.map.mapView, new Rectangle(
+                        click.x - ThumbsLoader.maxSize, click.y - ThumbsLoader.maxSize,
+                        2 * ThumbsLoader.maxSize, 2 * ThumbsLoader.maxSize));
+                // the image painted last is on top
+                for (int k = candidates.size() - 1; k >= 0; --k) {
+                    ImageEntry e = candidates.get(k);
                     Point p = Main.map.mapView.getPoint(e.getPos());
                     Rectangle r;
-                    if (e.thumbnail != null) {
-                        Dimension d = scaledDimension(e.thumbnail);
+                    Image thumbnail = e.thumbnail;
+                    if (thumbnail != null) {
+                        Dimension d = scaledDimension(thumbnail);
                         r = new Rectangle(p.x - d.width / 2, p.y - d.height / 2, d.width, d.height);
                     } else {
                         r = new Rectangle(p.x - icon.getIconWidth() / 2,
@@ -719,8 +814,8 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
                                 icon.getIconWidth(),
                                 icon.getIconHeight());
                     }
-                    if (r.contains(ev.getPoint())) {
-                        currentPhoto = i;
+                    if (r.contains(click)) {
+                        currentPhoto = data.indexOf(e);
                         ImageViewerDialog.showImage(GeoImageLayer.this, e);
                         Main.map.repaint();
                         break;
@@ -756,7 +851,7 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
             public void layerRemoved(Layer oldLayer) {
                 if (oldLayer == GeoImageLayer.this) {
                     if (thumbsloader != null) {
-                        thumbsloader.stop = true;
+                        thumbsloader.stop();
                     }
                     Main.map.mapView.removeMouseListener(mouseAdapter);
                     MapFrame.removeMapModeChangeListener(mapModeListener);
@@ -773,6 +868,9 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
     public void propertyChange(PropertyChangeEvent evt) {
         if ("center".equals(evt.getPropertyName()) || "scale".equals(evt.getPropertyName())) {
             updateOffscreenBuffer = true;
+            if (thumbsloader != null) {
+                thumbsloader.viewChanged();
+            }
         }
     }
 
@@ -787,6 +885,7 @@ public class GeoImageLayer extends Layer implements PropertyChangeListener {
     }
 
     public void updateBufferAndRepaint() {
+        index = null;
         updateOffscreenBuffer = true;
         Main.map.mapView.repaint();
     }
@@ -0,0 +1,204 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import java.text.ParseException;
+import java.util.Arrays;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.CompactGpxTrackSegment;
+import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.GpxTrack;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
+import org.openstreetmap.josm.data.gpx.WayPoint;
+import org.openstreetmap.josm.tools.PrimaryDateParser;
+
+/**
+ * The track points of a GPX data set that have a valid time, with time,
+ * position and elevation in arrays. The times are parsed once, so photos can
+ * be correlated again with a different offset without touching the way points.
+ *
+ * The points are kept in track order and grouped in runs: a run is a part of
+ * a track segment between points without time. Photos are only interpolated
+ * between neighbouring points of a run. Most runs are sorted by time, these
+ * can be searched with {@link #search(int, int, long)}.
+ */
+class GpxTimeIndex {
+
+    private int size;
+    /** milliseconds since the epoch */
+    private long[] time = new long[64];
+    private double[] lat = new double[64];
+    private double[] lon = new double[64];
+    /** NaN if unknown */
+    private double[] ele = new double[64];
+
+    private int runCount;
+    /** the index of the first point of every run, followed by the number of points */
+    private int[] runs = new int[16];
+    private boolean[] sorted = new boolean[16];
+
+    public GpxTimeIndex(GpxData data) {
+        PrimaryDateParser dateParser = new PrimaryDateParser();
+        for (GpxTrack trk : data.tracks) {
+            for (GpxTrackSegment segment : trk.getSegments()) {
+                startRun();
+                if (segment instanceof CompactGpxTrackSegment) {
+                    // read the arrays of the segment, without creating way points
+                    CompactGpxTrackSegment compact = (CompactGpxTrackSegment) segment;
+                    for (int i = 0; i < compact.size(); i++) {
+                        long t;
+                        if (compact.hasTime(i)) {
+                            t = Math.round(compact.getTime(i) * 1000);
+                        } else {
+                            t = parseTime((String) compact.getAttribute(i, "time"), dateParser);
+                        }
+                        double e = compact.getElevation(i);
+                        if (Double.isNaN(e)) {
+                            e = parseElevation(compact.getAttribute(i, "ele"));
+                        }
+                        add(t, compact.getLat(i), compact.getLon(i), e);
+                    }
+                } else {
+                    for (WayPoint wpt : segment.getWayPoints()) {
+                        long t = parseTime((String) wpt.attr.get("time"), dateParser);
+                        LatLon ll = wpt.getCoor();
+                        add(t, ll.lat(), ll.lon(), parseElevation(wpt.attr.get("ele")));
+                    }
+                }
+            }
+        }
+        startRun();
+    }
+
+    /**
+     * @return the time of a track point in milliseconds,
+     * <code>Long.MIN_VALUE</code> if the point has no valid time
+     */
+    private static long parseTime(String timeStr, PrimaryDateParser dateParser) {
+        if (timeStr == null)
+            return Long.MIN_VALUE;
+        try {
+            return dateParser.parse(timeStr).getTime();
+        } catch(ParseException e) {
+            System.err.println("Error while parsing date \"" + timeStr + '"');
+            e.printStackTrace();
+            return Long.MIN_VALUE;
+        }
+    }
+
+    private static double parseElevation(Object ele) {
+        try {
+            return new Double((String) ele);
+        } catch(Exception e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * Ends the current run, if it has any points.
+     */
+    private void startRun() {
+        if (runs[runCount] == size)
+            return;
+        if (runCount + 2 > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+            sorted = Arrays.copyOf(sorted, sorted.length * 2);
+        }
+        sorted[runCount] = true;
+        for (int k = runs[runCount] + 1; k < size; k++) {
+            if (time[k] < time[k - 1]) {
+                sorted[runCount] = false;
+                break;
+            }
+        }
+        runCount++;
+        runs[runCount] = size;
+    }
+
+    private void add(long t, double lat, double lon, double ele) {
+        if (t == Long.MIN_VALUE) {
+            // points without time are not used, and the points around them are not connected
+            startRun();
+            return;
+        }
+        if (size == time.length) {
+            int capacity = size * 2;
+            time = Arrays.copyOf(time, capacity);
+            this.lat = Arrays.copyOf(this.lat, capacity);
+            this.lon = Arrays.copyOf(this.lon, capacity);
+            this.ele = Arrays.copyOf(this.ele, capacity);
+        }
+        time[size] = t;
+        this.lat[size] = lat;
+        this.lon[size] = lon;
+        this.ele[size] = ele;
+        size++;
+    }
+
+    /**
+     * @return the number of points with time
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the time of point <code>k</code> in milliseconds since the epoch
+     */
+    public long getTime(int k) {
+        return time[k];
+    }
+
+    public LatLon getCoor(int k) {
+        return new LatLon(lat[k], lon[k]);
+    }
+
+    /**
+     * @return the elevation of point <code>k</code>, null if unknown
+     */
+    public Double getElevation(int k) {
+        return Double.isNaN(ele[k]) ? null : ele[k];
+    }
+
+    public int getRunCount() {
+        return runCount;
+    }
+
+    /**
+     * @return the index of the first point of run <code>r</code>
+     */
+    public int getRunStart(int r) {
+        return runs[r];
+    }
+
+    /**
+     * @return the index after the last point of run <code>r</code>
+     */
+    public int getRunEnd(int r) {
+        return runs[r + 1];
+    }
+
+    /**
+     * @return true, if the times of run <code>r</code> never decrease
+     */
+    public boolean isSorted(int r) {
+        return sorted[r];
+    }
+
+    /**
+     * Binary search in a sorted run.
+     * @return the index of the first point between <code>from</code> (inclusive) and <code>to</code>
+     * (exclusive) with a time of at least <code>t</code>, <code>to</code> if there is none
+     */
+    public int search(int from, int to, long t) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            if (time[mid] < t) {
+                from = mid + 1;
+            } else {
+                to = mid;
+            }
+        }
+        return from;
+    }
+}
@@ -9,10 +9,12 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.MediaTracker;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
@@ -20,7 +22,19 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import javax.swing.JComponent;
 
@@ -31,8 +45,11 @@ public class ImageDisplay extends JComponent {
     /** The file that is currently displayed */
     private File file = null;
 
-    /** The image currently displayed */
-    private Image image = null;
+    /** The image currently displayed, decoded to fit the display */
+    private LoadedImage image = null;
+
+    /** The visible part of the current image at a higher resolution, once the display is zoomed in */
+    private LoadedImage tile = null;
 
     /** The image currently displayed */
     private boolean errorLoading = false;
@@ -44,9 +61,6 @@ public class ImageDisplay extends JComponent {
     /** When a selection is done, the rectangle of the selection (in image coordinates) */
     private Rectangle selectedRect = null;
 
-    /** The tracker to load the images */
-    private MediaTracker tracker = new MediaTracker(this);
-
     private String osdText = null;
 
     private static int DRAG_BUTTON = Main.pref.getBoolean("geoimage.agpifo-style-drag-and-zoom", false) ? 1 : 3;
@@ -56,49 +70,120 @@ public class ImageDisplay extends JComponent {
     private class LoadImageRunnable implements Runnable {
 
         File file = null;
+        Preview preview = null;
 
-        public LoadImageRunnable(File file) {
+        public LoadImageRunnable(File file, Preview preview) {
             this.file = file;
+            this.preview = preview;
         }
 
         public void run() {
-            Image img = Toolkit.getDefaultToolkit().createImage(file.getPath());
-            tracker.addImage(img, 1);
+            // waits for the end of loading, if the image is being prefetched
+            LoadedImage img = preview.get();
 
-            // Wait for the end of loading
-            while (! tracker.checkID(1, true)) {
-                if (this.file != ImageDisplay.this.file) {
+            synchronized(ImageDisplay.this) {
+                if (this.file != ImageDisplay.this.file)
                     // The file has changed
-                    tracker.removeImage(img);
                     return;
-                }
-                try {
-                    Thread.sleep(5);
-                } catch (InterruptedException e) {
+                if (img == null) {
+                    errorLoading = true;
+                } else {
+                    ImageDisplay.this.image = img;
+                    visibleRect = new Rectangle(0, 0, img.width, img.height);
+                    selectedRect = null;
                 }
             }
+            ImageDisplay.this.repaint();
+        }
+    }
 
-            boolean error = tracker.isErrorID(1);
-            if (img.getWidth(null) == 0 || img.getHeight(null) == 0) {
-                error = true;
-            }
+    /**
+     * An image, or a part of it, decoded at a lower resolution.
+     */
+    private static class LoadedImage {
+        final File file;
+        final Image image;
+        /** the size of the whole image, at full resolution */
+        final int width, height;
+        /** the part of the image that has been decoded (in image coordinates) */
+        final Rectangle region;
+        /** every <code>subsampling</code>th pixel has been decoded in both directions */
+        final int subsampling;
+        /** false, if the image can only be loaded as a whole */
+        final boolean regionsSupported;
+
+        public LoadedImage(File file, Image image, int width, int height, Rectangle region, int subsampling,
+                boolean regionsSupported) {
+            this.file = file;
+            this.image = image;
+            this.width = width;
+            this.height = height;
+            this.region = region;
+            this.subsampling = subsampling;
+            this.regionsSupported = regionsSupported;
+        }
 
-            synchronized(ImageDisplay.this) {
-                if (this.file != ImageDisplay.this.file) {
-                    // The file has changed
-                    tracker.removeImage(img);
-                    return;
+        /**
+         * @return the part of <code>image</code> that shows <code>rect</code> (in image coordinates)
+         */
+        public Rectangle getSourceRect(Rectangle rect) {
+            int x = (rect.x - region.x) / subsampling;
+            int y = (rect.y - region.y) / subsampling;
+            return new Rectangle(x, y,
+                    (rect.x + rect.width - region.x + subsampling - 1) / subsampling - x,
+                    (rect.y + rect.height - region.y + subsampling - 1) / subsampling - y);
+        }
+    }
+
+    /**
+     * The image of a file, decoded just fine enough to fill the display when it is
+     * zoomed to best fit. It is decoded by the first thread that needs it, so a
+     * prefetched image is not decoded again when it is displayed.
+     */
+    private class Preview {
+        private final File file;
+        private final Dimension size;
+        private boolean done = false;
+        private LoadedImage image = null;
+
+        public Preview(File file, Dimension size) {
+            this.file = file;
+            this.size = size;
+        }
+
+        public synchronized LoadedImage get() {
+            if (!done) {
+                image = readImage(file, size);
+                if (image == null) {
+                    image = loadWithToolkit(file);
                 }
-                ImageDisplay.this.image = img;
-                visibleRect = new Rectangle(0, 0, img.getWidth(null), img.getHeight(null));
-                selectedRect = null;
-                errorLoading = error;
+                done = true;
             }
-            tracker.removeImage(img);
-            ImageDisplay.this.repaint();
+            return image;
         }
     }
 
+    /** The number of images that are kept decoded: the current one, the prefetched ones and the last one */
+    private static final int PREVIEW_CACHE_SIZE = 4;
+
+    /** The recently displayed and prefetched images, the most recently used last */
+    private final Map<File, Preview> previews = new LinkedHashMap<File, Preview>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<File, Preview> eldest) {
+            return size() > PREVIEW_CACHE_SIZE;
+        }
+    };
+
+    /** Prefetches the images that will probably be displayed next */
+    private final ExecutorService prefetchWorker = Executors.newSingleThreadExecutor();
+
+    /** Decodes the visible part of the current image when it is zoomed in */
+    private final ExecutorService tileWorker = Executors.newSingleThreadExecutor();
+
+    /** The part of the current image that has last been requested from the tile worker, and its subsampling */
+    private Rectangle requestedRegion = null;
+    private int requestedSubsampling = 0;
+
     private class ImgDisplayMouseListener implements MouseListener, MouseWheelListener, MouseMotionListener {
 
         boolean mouseIsDragging = false;
@@ -109,7 +194,7 @@ public class ImageDisplay extends JComponent {
          * at the same place */
         public void mouseWheelMoved(MouseWheelEvent e) {
             File file;
-            Image image;
+            LoadedImage image;
             Rectangle visibleRect;
 
             synchronized (ImageDisplay.this) {
@@ -182,7 +267,7 @@ public class ImageDisplay extends JComponent {
         public void mouseClicked(MouseEvent e) {
             // Move the center to the clicked point.
             File file;
-            Image image;
+            LoadedImage image;
             Rectangle visibleRect;
 
             synchronized (ImageDisplay.this) {
@@ -223,7 +308,7 @@ public class ImageDisplay extends JComponent {
                 return;
             }
 
-            Image image;
+            LoadedImage image;
             Rectangle visibleRect;
 
             synchronized (ImageDisplay.this) {
@@ -255,7 +340,7 @@ public class ImageDisplay extends JComponent {
                 return;
 
             File file;
-            Image image;
+            LoadedImage image;
             Rectangle visibleRect;
 
             synchronized (ImageDisplay.this) {
@@ -303,7 +388,7 @@ public class ImageDisplay extends JComponent {
                 return;
 
             File file;
-            Image image;
+            LoadedImage image;
 
             synchronized (ImageDisplay.this) {
                 file = ImageDisplay.this.file;
@@ -394,16 +479,60 @@ public class ImageDisplay extends JComponent {
     }
 
     public void setImage(File file) {
+        Preview preview = null;
         synchronized(this) {
             this.file = file;
             image = null;
+            tile = null;
+            requestedRegion = null;
             selectedRect = null;
             errorLoading = false;
+            if (file != null) {
+                preview = getPreview(file);
+            }
         }
         repaint();
         if (file != null) {
-            new Thread(new LoadImageRunnable(file)).start();
+            new Thread(new LoadImageRunnable(file, preview)).start();
+        }
+    }
+
+    /**
+     * Decodes images in the background, so they are displayed at once when they are
+     * selected. Only the last {@link #PREVIEW_CACHE_SIZE} images are kept, so
+     * there should be at most two or three of them.
+     */
+    public void prefetch(File... files) {
+        for (File f : files) {
+            final Preview preview;
+            synchronized(this) {
+                preview = getPreview(f);
+            }
+            prefetchWorker.execute(new Runnable() {
+                public void run() {
+                    synchronized(ImageDisplay.this) {
+                        if (!previews.containsValue(preview))
+                            // dropped in the meantime
+                            return;
+                    }
+                    preview.get();
+                }
+            });
+        }
+    }
+
+    private Preview getPreview(File file) {
+        Preview preview = previews.get(file);
+        if (preview == null) {
+            Dimension size = getSize();
+            if (size.width <= 0 || size.height <= 0) {
+                // not shown yet
+                size = Toolkit.getDefaultToolkit().getScreenSize();
+            }
+            preview = new Preview(file, size);
+            previews.put(file, preview);
         }
+        return preview;
     }
 
     public void setOsdText(String text) {
@@ -412,13 +541,15 @@ public class ImageDisplay extends JComponent {
 
     @Override
     public void paintComponent(Graphics g) {
-        Image image;
+        LoadedImage image;
         File file;
+        LoadedImage tile;
         Rectangle visibleRect;
         boolean errorLoading;
 
         synchronized(this) {
             image = this.image;
+            tile = this.tile;
             file = this.file;
             visibleRect = this.visibleRect;
             errorLoading = this.errorLoading;
@@ -447,10 +578,25 @@ public class ImageDisplay extends JComponent {
                     (int) ((size.height - noImageSize.getHeight()) / 2));
         } else {
             Rectangle target = calculateDrawImageRectangle(visibleRect);
-            g.drawImage(image,
+            LoadedImage drawn = image;
+            if (tile != null && tile.subsampling < image.subsampling && tile.region.contains(visibleRect)) {
+                drawn = tile;
+            }
+            Rectangle source = drawn.getSourceRect(visibleRect);
+            if (g instanceof Graphics2D) {
+                ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            }
+            g.drawImage(drawn.image,
                     target.x, target.y, target.x + target.width, target.y + target.height,
-                    visibleRect.x, visibleRect.y, visibleRect.x + visibleRect.width, visibleRect.y + visibleRect.height,
+                    source.x, source.y, source.x + source.width, source.y + source.height,
                     null);
+            if (image.regionsSupported && target.width > 0) {
+                int subsampling = Math.max(1, visibleRect.width / target.width);
+                if (subsampling < drawn.subsampling) {
+                    requestTile(image, visibleRect, subsampling);
+                }
+            }
             if (selectedRect != null) {
                 Point topLeft = img2compCoord(visibleRect, selectedRect.x, selectedRect.y);
                 Point bottomRight = img2compCoord(visibleRect,
@@ -503,6 +649,126 @@ public class ImageDisplay extends JComponent {
         }
     }
 
+    /**
+     * Decodes the visible part of the image, and some space around it for panning,
+     * at a higher resolution in the background.
+     */
+    private void requestTile(final LoadedImage image, Rectangle visibleRect, final int subsampling) {
+        final Rectangle region;
+        synchronized(this) {
+            if (image != this.image)
+                return;
+            if (requestedRegion != null && requestedSubsampling <= subsampling && requestedRegion.contains(visibleRect))
+                // already requested
+                return;
+            region = new Rectangle(visibleRect.x - visibleRect.width / 2, visibleRect.y - visibleRect.height / 2,
+                    visibleRect.width * 2, visibleRect.height * 2).intersection(
+                            new Rectangle(0, 0, image.width, image.height));
+            requestedRegion = region;
+            requestedSubsampling = subsampling;
+        }
+        tileWorker.execute(new Runnable() {
+            public void run() {
+                synchronized(ImageDisplay.this) {
+                    if (region != requestedRegion)
+                        // the display has moved on
+                        return;
+                }
+                LoadedImage tile = readImage(image.file, region, subsampling);
+                synchronized(ImageDisplay.this) {
+                    if (image != ImageDisplay.this.image || tile == null)
+                        return;
+                    ImageDisplay.this.tile = tile;
+                }
+                repaint();
+            }
+        });
+    }
+
+    /**
+     * Decodes an image with ImageIO, either the whole image, subsampled so that it
+     * still fills <code>size</code>, or a part of it with the given subsampling.
+     *
+     * @param region the part to decode (in image coordinates), null for the whole image
+     * @param size the size of the display, if the whole image is decoded
+     * @param subsampling the subsampling, if only a part is decoded
+     * @return null, if ImageIO can not read the file
+     */
+    private static LoadedImage readImage(File file, Rectangle region, Dimension size, int subsampling) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(file);
+            if (in == null)
+                return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return null;
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (width <= 0 || height <= 0)
+                return null;
+            if (region == null) {
+                region = new Rectangle(0, 0, width, height);
+                // at best fit, the display shows about one pixel out of this many
+                subsampling = Math.max(1, Math.max(width / size.width, height / size.height));
+            }
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            BufferedImage img = reader.read(0, param);
+            return new LoadedImage(file, img, width, height, region, subsampling, true);
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // e.g. unsupported color spaces
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    private static LoadedImage readImage(File file, Dimension size) {
+        return readImage(file, null, size, 0);
+    }
+
+    private static LoadedImage readImage(File file, Rectangle region, int subsampling) {
+        return readImage(file, region, null, subsampling);
+    }
+
+    /**
+     * Loads the whole image at full resolution, for the files ImageIO can not read.
+     */
+    private LoadedImage loadWithToolkit(File file) {
+        Image img = Toolkit.getDefaultToolkit().createImage(file.getPath());
+        MediaTracker tracker = new MediaTracker(this);
+        tracker.addImage(img, 1);
+        try {
+            tracker.waitForID(1);
+            if (tracker.isErrorID(1))
+                return null;
+        } catch (InterruptedException e) {
+            return null;
+        } finally {
+            tracker.removeImage(img);
+        }
+        int width = img.getWidth(null);
+        int height = img.getHeight(null);
+        if (width <= 0 || height <= 0)
+            return null;
+        return new LoadedImage(file, img, width, height, new Rectangle(0, 0, width, height), 1, false);
+    }
+
     private final Point img2compCoord(Rectangle visibleRect, int xImg, int yImg) {
         Rectangle drawRect = calculateDrawImageRectangle(visibleRect);
         return new Point(drawRect.x + ((xImg - visibleRect.x) * drawRect.width) / visibleRect.width,
@@ -554,7 +820,7 @@ public class ImageDisplay extends JComponent {
 
     public void zoomBestFitOrOne() {
         File file;
-        Image image;
+        LoadedImage image;
         Rectangle visibleRect;
 
         synchronized (this) {
@@ -566,9 +832,9 @@ public class ImageDisplay extends JComponent {
         if (image == null)
             return;
 
-        if (visibleRect.width != image.getWidth(null) || visibleRect.height != image.getHeight(null)) {
+        if (visibleRect.width != image.width || visibleRect.height != image.height) {
             // The display is not at best fit. => Zoom to best fit
-            visibleRect = new Rectangle(0, 0, image.getWidth(null), image.getHeight(null));
+            visibleRect = new Rectangle(0, 0, image.width, image.height);
 
         } else {
             // The display is at best fit => zoom to 1:1
@@ -586,27 +852,27 @@ public class ImageDisplay extends JComponent {
         repaint();
     }
 
-    private final void checkVisibleRectPos(Image image, Rectangle visibleRect) {
+    private final void checkVisibleRectPos(LoadedImage image, Rectangle visibleRect) {
         if (visibleRect.x < 0) {
             visibleRect.x = 0;
         }
         if (visibleRect.y < 0) {
             visibleRect.y = 0;
         }
-        if (visibleRect.x + visibleRect.width > image.getWidth(null)) {
-            visibleRect.x = image.getWidth(null) - visibleRect.width;
+        if (visibleRect.x + visibleRect.width > image.width) {
+            visibleRect.x = image.width - visibleRect.width;
         }
-        if (visibleRect.y + visibleRect.height > image.getHeight(null)) {
-            visibleRect.y = image.getHeight(null) - visibleRect.height;
+        if (visibleRect.y + visibleRect.height > image.height) {
+            visibleRect.y = image.height - visibleRect.height;
         }
     }
 
-    private void checkVisibleRectSize(Image image, Rectangle visibleRect) {
-        if (visibleRect.width > image.getWidth(null)) {
-            visibleRect.width = image.getWidth(null);
+    private void checkVisibleRectSize(LoadedImage image, Rectangle visibleRect) {
+        if (visibleRect.width > image.width) {
+            visibleRect.width = image.width;
         }
-        if (visibleRect.height > image.getHeight(null)) {
-            visibleRect.height = image.getHeight(null);
+        if (visibleRect.height > image.height) {
+            visibleRect.height = image.height;
         }
     }
 }
@@ -21,7 +21,8 @@ final public class ImageEntry implements Comparable<ImageEntry>, Cloneable {
     private LatLon exifCoor;
     private Double exifImgDir;
     private Date exifTime;
-    Image thumbnail;
+    /** set by the {@link ThumbsLoader} threads */
+    volatile Image thumbnail;
 
     /** The following values are computed from the correlation with the gpx track */
     private CachedLatLon pos;
@@ -15,6 +15,9 @@ import java.awt.GridBagLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.WindowEvent;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.AbstractAction;
 import javax.swing.Box;
@@ -251,6 +254,7 @@ public class ImageViewerDialog extends ToggleDialog {
             //}
 
             imgDisplay.setOsdText(osd.toString());
+            prefetchNeighbours(layer, entry);
         } else {
             imgDisplay.setImage(null);
             imgDisplay.setOsdText("");
@@ -267,6 +271,26 @@ public class ImageViewerDialog extends ToggleDialog {
 
     }
 
+    /**
+     * Decodes the next and the previous image in the background, so stepping
+     * through the images does not wait for them to be loaded.
+     */
+    private void prefetchNeighbours(GeoImageLayer layer, ImageEntry entry) {
+        if (layer == null || layer.data == null)
+            return;
+        int i = layer.data.indexOf(entry);
+        if (i < 0)
+            return;
+        List<File> files = new ArrayList<File>(2);
+        if (i + 1 < layer.data.size()) {
+            files.add(layer.data.get(i + 1).getFile());
+        }
+        if (i > 0) {
+            files.add(layer.data.get(i - 1).getFile());
+        }
+        imgDisplay.prefetch(files.toArray(new File[files.size()]));
+    }
+
     /**
      * When pressing the Toggle button always show the docked dialog.
      */
@@ -6,27 +6,70 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.MediaTracker;
 import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.Toolkit;
 import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
 import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.io.CacheFiles;
 
+/**
+ * Creates the thumbnails of a layer on a pool of <code>geoimage.thumbs.threads</code>
+ * threads (by default one per processor).
+ *
+ * The photos in the current view are loaded first, the others afterwards as long
+ * as there is room in memory: at most <code>geoimage.thumbs.memory</code>
+ * thumbnails are kept. If more are needed for the view, those that have not
+ * been visible for the longest time are dropped and loaded again when they
+ * come into view.
+ *
+ * JPEGs are decoded by ImageIO with subsampling, so only about twice the
+ * thumbnail size is read into memory instead of the whole photo.
+ */
 public class ThumbsLoader implements Runnable {
     public static final int maxSize = 120;
     public static final int minSize = 22;
-    volatile boolean stop = false;
+    private volatile boolean stopped = false;
     List<ImageEntry> data;
     GeoImageLayer layer;
-    MediaTracker tracker;
     CacheFiles cache;
     boolean cacheOff = Main.pref.getBoolean("geoimage.noThumbnailCache", false);
 
+    /** the images whose thumbnail has not been loaded */
+    private final LinkedHashSet<ImageEntry> pending;
+    /** the loaded thumbnails, the ones visible most recently last */
+    private final LinkedHashMap<ImageEntry, Boolean> loaded = new LinkedHashMap<ImageEntry, Boolean>(16, 0.75f, true);
+    private final int memory = Math.max(1, Main.pref.getInteger("geoimage.thumbs.memory", 1000));
+    /** true, if the view has changed since the visible images have been determined */
+    private boolean viewChanged = true;
+    /** true, if a thumbnail has been loaded since the last repaint */
+    private boolean changed = false;
+    /** the number of thumbnails being loaded */
+    private int loading = 0;
+
     public ThumbsLoader(GeoImageLayer layer) {
         this.layer = layer;
         this.data = new ArrayList<ImageEntry>(layer.data);
+        pending = new LinkedHashSet<ImageEntry>(data);
         if (!cacheOff) {
             cache = new CacheFiles("geoimage-thumbnails", false);
             cache.setExpire(CacheFiles.EXPIRE_NEVER, false);
@@ -34,34 +77,165 @@ public class ThumbsLoader implements Runnable {
         }
     }
 
+    /**
+     * Stops loading, thumbnails that are being loaded are dropped.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * Called when the map view moves, to load the thumbnails that came into view first.
+     */
+    public synchronized void viewChanged() {
+        viewChanged = true;
+        notifyAll();
+    }
+
     public void run() {
         System.err.println("Load Thumbnails");
-        tracker = new MediaTracker(Main.map.mapView);
-        for (int i = 0; i < data.size(); i++) {
-            if (stop) return;
-
-            System.err.print("fetching image "+i);
+        int threads = Main.pref.getInteger("geoimage.thumbs.threads", Runtime.getRuntime().availableProcessors());
+        threads = Math.max(1, threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Semaphore free = new Semaphore(threads);
+        LinkedList<ImageEntry> visible = new LinkedList<ImageEntry>();
+        long lastRepaint = 0;
+        try {
+            while (!stopped) {
+                lastRepaint = repaintIfChanged(lastRepaint);
+                // wait for a free thread
+                if (!free.tryAcquire(250, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                ImageEntry next;
+                synchronized (this) {
+                    if (viewChanged) {
+                        viewChanged = false;
+                        visible = getVisible();
+                    }
+                    next = getNext(visible);
+                    if (next == null) {
+                        free.release();
+                        if (pending.isEmpty() && loading == 0 && data.size() <= memory) {
+                            // all thumbnails are loaded and none will be dropped
+                            break;
+                        }
+                        // wait for the view to change or a thumbnail to be done
+                        wait(250);
+                        continue;
+                    }
+                    loading++;
+                }
+                pool.execute(new LoadTask(next, free));
+            }
+        } catch (InterruptedException e) {
+            // stop loading
+        } finally {
+            pool.shutdownNow();
+            repaintIfChanged(0);
+        }
+    }
 
-            data.get(i).thumbnail = loadThumb(data.get(i));
+    private long repaintIfChanged(long lastRepaint) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            if (!changed || now - lastRepaint < 250)
+                return lastRepaint;
+            changed = false;
+        }
+        if (Main.map != null && Main.map.mapView != null) {
+            layer.updateOffscreenBuffer = true;
+            Main.map.mapView.repaint();
+        }
+        return now;
+    }
 
-            if (Main.map != null && Main.map.mapView != null) {
-                layer.updateOffscreenBuffer = true;
-                Main.map.mapView.repaint();
+    /**
+     * @return the images in the current view, at most as many as fit into memory;
+     * their thumbnails become the most recently used ones
+     */
+    private LinkedList<ImageEntry> getVisible() {
+        LinkedList<ImageEntry> visible = new LinkedList<ImageEntry>();
+        if (Main.map == null || Main.map.mapView == null)
+            return visible;
+        Bounds view = Main.map.mapView.getLatLonBounds(
+                new Rectangle(0, 0, Main.map.mapView.getWidth(), Main.map.mapView.getHeight()));
+        for (ImageEntry e : data) {
+            LatLon pos = e.getPos();
+            if (pos != null && view.contains(pos)) {
+                visible.add(e);
+                if (visible.size() == memory) {
+                    break;
+                }
             }
         }
-        layer.updateOffscreenBuffer = true;
-        Main.map.mapView.repaint();
-        (new Thread() {             // clean up the garbage - shouldn't hurt
-            @Override
-            public void run() {
-                try {
-                    Thread.sleep(200);
+        for (ImageEntry e : visible) {
+            loaded.get(e);
+        }
+        return visible;
+    }
+
+    /**
+     * @return the next image to load: one in view, or any other one as long as there is room;
+     * null, if there is nothing to do
+     */
+    private ImageEntry getNext(LinkedList<ImageEntry> visible) {
+        while (!visible.isEmpty()) {
+            ImageEntry e = visible.removeFirst();
+            if (pending.remove(e))
+                return e;
+        }
+        if (pending.isEmpty() || loaded.size() + loading >= memory)
+            return null;
+        Iterator<ImageEntry> it = pending.iterator();
+        ImageEntry e = it.next();
+        it.remove();
+        return e;
+    }
+
+    private synchronized void loaded(ImageEntry entry, BufferedImage thumbnail) {
+        loading--;
+        notifyAll();
+        if (stopped)
+            return;
+        entry.thumbnail = thumbnail;
+        if (thumbnail == null)
+            return;
+        loaded.put(entry, true);
+        if (loaded.size() > memory) {
+            // drop the thumbnail that has not been in view for the longest time
+            Iterator<ImageEntry> it = loaded.keySet().iterator();
+            ImageEntry oldest = it.next();
+            it.remove();
+            oldest.thumbnail = null;
+            pending.add(oldest);
+        }
+        changed = true;
+    }
+
+    private class LoadTask implements Runnable {
+        private final ImageEntry entry;
+        private final Semaphore free;
+
+        public LoadTask(ImageEntry entry, Semaphore free) {
+            this.entry = entry;
+            this.free = free;
+        }
+
+        public void run() {
+            BufferedImage thumbnail = null;
+            try {
+                if (!stopped) {
+                    thumbnail = loadThumb(entry);
                 }
-                catch (InterruptedException ie) {}
-                System.gc();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                loaded(entry, thumbnail);
+                free.release();
             }
-        }).start();
-
+        }
     }
 
     private BufferedImage loadThumb(ImageEntry entry) {
@@ -69,49 +243,104 @@ public class ThumbsLoader implements Runnable {
 
         if (!cacheOff) {
             BufferedImage cached = cache.getImg(cacheIdent);
-            if(cached != null) {
-                System.err.println(" from cache");
+            if(cached != null)
                 return cached;
+        }
+
+        BufferedImage scaledBI = readScaled(entry.getFile());
+        if (scaledBI == null) {
+            scaledBI = loadWithToolkit(entry.getFile());
+        }
+        if (scaledBI == null) {
+            System.err.println("Invalid image " + entry.getFile());
+            return null;
+        }
+
+        if (!cacheOff) {
+            synchronized (cache) {
+                cache.saveImg(cacheIdent, scaledBI);
+            }
+        }
+        return scaledBI;
+    }
+
+    /**
+     * Reads a subsampled image with ImageIO and scales it to the thumbnail size.
+     * @return null, if ImageIO can not read the file
+     */
+    private static BufferedImage readScaled(File file) {
+        ImageInputStream in = null;
+        ImageReader reader = null;
+        try {
+            in = ImageIO.createImageInputStream(file);
+            if (in == null)
+                return null;
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext())
+                return null;
+            reader = readers.next();
+            reader.setInput(in, true, true);
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            if (width <= 0 || height <= 0)
+                return null;
+            // keep twice the thumbnail size, for a smooth result when scaling down
+            int subsampling = Math.max(1, Math.max(width, height) / (2 * maxSize));
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return scale(reader.read(0, param));
+        } catch (IOException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // e.g. unsupported color spaces
+            return null;
+        } finally {
+            if (reader != null) {
+                reader.dispose();
+            }
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
             }
         }
+    }
 
-        Image img = Toolkit.getDefaultToolkit().createImage(entry.getFile().getPath());
+    /**
+     * Loads the whole image the way it was done before ImageIO was used, for the
+     * files ImageIO can not read.
+     */
+    private static BufferedImage loadWithToolkit(File file) {
+        Image img = Toolkit.getDefaultToolkit().createImage(file.getPath());
+        MediaTracker tracker = new MediaTracker(Main.map.mapView);
         tracker.addImage(img, 0);
         try {
             tracker.waitForID(0);
         } catch (InterruptedException e) {
-            System.err.println(" InterruptedException");
             return null;
         }
-        if (tracker.isErrorID(1) || img.getWidth(null) <= 0 || img.getHeight(null) <= 0) {
-            System.err.println(" Invalid image");
-            return null;
+        try {
+            if (tracker.isErrorID(0) || img.getWidth(null) <= 0 || img.getHeight(null) <= 0)
+                return null;
+            return scale(img);
+        } finally {
+            tracker.removeImage(img);
+            img.flush();
         }
+    }
+
+    private static BufferedImage scale(Image img) {
         Rectangle targetSize = ImageDisplay.calculateDrawImageRectangle(
                 new Rectangle(0, 0, img.getWidth(null), img.getHeight(null)),
                 new Rectangle(0, 0, maxSize, maxSize));
+        if (targetSize.width <= 0 || targetSize.height <= 0)
+            return null;
         BufferedImage scaledBI = new BufferedImage(targetSize.width, targetSize.height, BufferedImage.TYPE_INT_RGB);
         Graphics2D g = scaledBI.createGraphics();
-        while (!g.drawImage(img, 0, 0, targetSize.width, targetSize.height, null))
-        {
-            try {
-                Thread.sleep(10);
-            } catch(InterruptedException ie) {}
-        }
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(img, 0, 0, targetSize.width, targetSize.height, null);
         g.dispose();
-        tracker.removeImage(img);
-
-        if (scaledBI.getWidth() <= 0 || scaledBI.getHeight() <= 0) {
-            System.err.println(" Invalid image");
-            return null;
-        }
-
-        if (!cacheOff) {
-            cache.saveImg(cacheIdent, scaledBI);
-        }
-
-        System.err.println("");
         return scaledBI;
     }
-
 }
@@ -9,6 +9,7 @@ import java.awt.Color;
 import java.awt.Component;
 import java.awt.Graphics2D;
 import java.awt.Point;
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
@@ -29,6 +30,8 @@ import javax.swing.SwingUtilities;
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.RenameLayerAction;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.EastNorth;
+import org.openstreetmap.josm.data.coor.EastNorthIndex;
 import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.GpxLink;
@@ -60,6 +63,7 @@ public class MarkerLayer extends Layer {
      */
     public final Collection<Marker> data;
     private boolean mousePressed = false;
+    private EastNorthIndex<Marker> index = null;
     public GpxLayer fromLayer = null;
 
     @SuppressWarnings("unchecked")
@@ -107,7 +111,7 @@ public class MarkerLayer extends Layer {
                             return;
                         boolean mousePressedInButton = false;
                         if (e.getPoint() != null) {
-                            for (Marker mkr : data) {
+                            for (Marker mkr : getMarkersAt(Main.map.mapView, e.getPoint())) {
                                 if (mkr.containsPoint(e.getPoint())) {
                                     mousePressedInButton = true;
                                     break;
@@ -128,7 +132,7 @@ public class MarkerLayer extends Layer {
                         if (!isVisible())
                             return;
                         if (ev.getPoint() != null) {
-                            for (Marker mkr : data) {
+                            for (Marker mkr : getMarkersAt(Main.map.mapView, ev.getPoint())) {
                                 if (mkr.containsPoint(ev.getPoint())) {
                                     mkr.actionPerformed(new ActionEvent(this, 0, null));
                                 }
@@ -160,19 +164,52 @@ public class MarkerLayer extends Layer {
         if (mousePressed) {
             boolean mousePressedTmp = mousePressed;
             Point mousePos = mv.getMousePosition(); // Get mouse position only when necessary (it's the slowest part of marker layer painting)
-            for (Marker mkr : data) {
-                if (mousePos != null && mkr.containsPoint(mousePos)) {
-                    mkr.paint(g, mv, mousePressedTmp, showTextOrIcon);
-                    mousePressedTmp = false;
+            if (mousePos != null) {
+                for (Marker mkr : getMarkersAt(mv, mousePos)) {
+                    if (mkr.containsPoint(mousePos)) {
+                        mkr.paint(g, mv, mousePressedTmp, showTextOrIcon);
+                        mousePressedTmp = false;
+                    }
                 }
             }
         } else {
-            for (Marker mkr : data) {
+            // the labels are painted right of the markers, so look further to the left
+            Rectangle view = new Rectangle(-LABEL_MARGIN, -MARGIN,
+                    mv.getWidth() + LABEL_MARGIN + MARGIN, mv.getHeight() + 2 * MARGIN);
+            for (Marker mkr : getMarkersIn(mv, view)) {
                 mkr.paint(g, mv, false, showTextOrIcon);
             }
         }
     }
 
+    /** The distance (in pixels) from the position of a marker that its symbol or button may cover */
+    private static final int MARGIN = 64;
+    /** The distance (in pixels) from the position of a marker that its label may cover */
+    private static final int LABEL_MARGIN = 300;
+
+    /**
+     * @return the markers with a position in a rectangle of the map view (in screen coordinates),
+     * in the order they are painted
+     */
+    private List<Marker> getMarkersIn(MapView mv, Rectangle r) {
+        if (index == null || !index.isUpToDate() || index.size() != data.size()) {
+            index = new EastNorthIndex<Marker>(data) {
+                @Override
+                protected EastNorth getEastNorth(Marker mkr) {
+                    return mkr.getEastNorth();
+                }
+            };
+        }
+        return index.search(mv.getEastNorth(r.x, r.y + r.height), mv.getEastNorth(r.x + r.width, r.y));
+    }
+
+    /**
+     * @return the markers that may contain a point of the map view, see {@link Marker#containsPoint(Point)}
+     */
+    private List<Marker> getMarkersAt(MapView mv, Point p) {
+        return getMarkersIn(mv, new Rectangle(p.x - MARGIN, p.y - MARGIN, 2 * MARGIN, 2 * MARGIN));
+    }
+
     @Override public String getToolTipText() {
         return data.size()+" "+trn("marker", "markers", data.size());
     }
@@ -180,6 +217,7 @@ public class MarkerLayer extends Layer {
     @Override public void mergeFrom(Layer from) {
         MarkerLayer layer = (MarkerLayer)from;
         data.addAll(layer.data);
+        index = null;
     }
 
     @Override public boolean isMergable(Layer other) {
@@ -299,6 +337,7 @@ public class MarkerLayer extends Layer {
         // replace the collection
         data.clear();
         data.addAll(newData);
+        index = null;
         return ret;
     }
 
@@ -20,6 +20,7 @@ import org.openstreetmap.josm.actions.mapmode.MapMode;
 import org.openstreetmap.josm.actions.mapmode.PlayHeadDragMode;
 import org.openstreetmap.josm.data.coor.EastNorth;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.CompactGpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.GpxTrack;
 import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.WayPoint;
@@ -305,33 +306,53 @@ public class PlayHeadMarker extends Marker {
         /* find the pair of track points for this position (adjusted by the syncOffset)
          * and interpolate between them
          */
-        WayPoint w1 = null;
-        WayPoint w2 = null;
+        double t1 = 0, t2 = 0;
+        LatLon c1 = null, c2 = null;
 
         for (GpxTrack track : trackLayer.data.tracks) {
             for (GpxTrackSegment trackseg : track.getSegments()) {
-                for (WayPoint w: trackseg.getWayPoints()) {
-                    if (audioTime < w.time) {
-                        w2 = w;
-                        break;
+                if (trackseg instanceof CompactGpxTrackSegment) {
+                    // read the arrays, without creating a way point for every point
+                    CompactGpxTrackSegment compact = (CompactGpxTrackSegment) trackseg;
+                    int last = -1;
+                    for (int i = 0; i < compact.size(); i++) {
+                        if (audioTime < compact.getTime(i)) {
+                            t2 = compact.getTime(i);
+                            c2 = new LatLon(compact.getLat(i), compact.getLon(i));
+                            break;
+                        }
+                        last = i;
+                    }
+                    if (last >= 0) {
+                        t1 = compact.getTime(last);
+                        c1 = new LatLon(compact.getLat(last), compact.getLon(last));
+                    }
+                } else {
+                    for (WayPoint w: trackseg.getWayPoints()) {
+                        if (audioTime < w.time) {
+                            t2 = w.time;
+                            c2 = w.getCoor();
+                            break;
+                        }
+                        t1 = w.time;
+                        c1 = w.getCoor();
                     }
-                    w1 = w;
                 }
-                if (w2 != null) {
+                if (c2 != null) {
                     break;
                 }
             }
-            if (w2 != null) {
+            if (c2 != null) {
                 break;
             }
         }
 
-        if (w1 == null)
+        if (c1 == null)
             return;
-        setEastNorth(w2 == null ?
-                w1.getEastNorth() :
-                    w1.getEastNorth().interpolate(w2.getEastNorth(),
-                            (audioTime - w1.time)/(w2.time - w1.time)));
+        EastNorth e1 = Main.proj.latlon2eastNorth(c1);
+        setEastNorth(c2 == null ?
+                e1 :
+                    e1.interpolate(Main.proj.latlon2eastNorth(c2), (audioTime - t1)/(t2 - t1)));
         time = audioTime;
         Main.map.mapView.repaint();
     }
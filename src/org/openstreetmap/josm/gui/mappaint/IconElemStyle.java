@@ -30,6 +30,11 @@ public class IconElemStyle extends ElemStyle
         annotate = true;
     }
 
+    /**
+     * @deprecated the painter takes the disabled variant of {@link #icon} from the
+     * {@link org.openstreetmap.josm.data.osm.visitor.paint.IconCache}
+     */
+    @Deprecated
     public ImageIcon getDisabledIcon() {
         if (disabledIcon != null)
             return disabledIcon;
@@ -37,12 +42,13 @@ public class IconElemStyle extends ElemStyle
             return null;
         return disabledIcon = new ImageIcon(GrayFilter.createDisabledImage(icon.getImage()));
     }
+
     @Override
     public void paintPrimitive(OsmPrimitive primitive, MapPaintSettings settings, MapPainter painter, boolean selected, boolean member) {
         if (painter.isShowIcons()) {
             Node n = (Node) primitive;
             String name = painter.isShowNames() && annotate?painter.getNodeName(n):null;
-            painter.drawNodeIcon(n, (painter.isInactive() || n.isDisabled())?getDisabledIcon():icon, selected, member, name);
+            painter.drawNodeIcon(n, icon, painter.isInactive() || n.isDisabled(), selected, member, name);
         } else {
             SimpleNodeElemStyle.INSTANCE.paintPrimitive(primitive, settings, painter, selected, member);
         }
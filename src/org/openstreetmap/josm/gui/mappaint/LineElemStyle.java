@@ -176,7 +176,7 @@ public class LineElemStyle extends ElemStyle implements Comparable<LineElemStyle
         }
 
         Color markColor = null;
-        if(w.isHighlighted()) {
+        if(painter.isHighlighted(w)) {
             markColor = paintSettings.getHighlightColor();
         } else if (selected) {
             markColor = member ? paintSettings.getRelationSelectedColor() : paintSettings.getSelectedColor();
@@ -27,7 +27,7 @@ public class SimpleNodeElemStyle extends ElemStyle {
         String name = painter.isShowNames()?painter.getNodeName(n):null;
 
 
-        if (n.isHighlighted()) {
+        if (painter.isHighlighted(n)) {
             painter.drawNode(n, settings.getHighlightColor(), settings.getSelectedNodeSize(), settings.isFillSelectedNode(), name);
         } else {
 
@@ -8,6 +8,15 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.zip.GZIPInputStream;
 
 import javax.swing.JOptionPane;
@@ -15,6 +24,7 @@ import javax.swing.SwingUtilities;
 
 import org.openstreetmap.josm.Main;
 import org.openstreetmap.josm.actions.ExtensionFileFilter;
+import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
 import org.openstreetmap.josm.gui.layer.markerlayer.MarkerLayer;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
@@ -26,50 +36,134 @@ public class GpxImporter extends FileImporter {
         super(new ExtensionFileFilter("gpx,gpx.gz", "gpx", tr("GPX Files") + " (*.gpx *.gpx.gz)"));
     }
 
+    /**
+     * GPX files are read in parallel, see {@link #importData(List, ProgressMonitor)}.
+     */
+    @Override
+    public boolean isBatchImporter() {
+        return true;
+    }
+
     @Override public void importData(final File file, ProgressMonitor progressMonitor) throws IOException {
-        final String fn = file.getName();
+        addLayers(file, read(file));
+    }
 
+    /**
+     * Reads the files on a pool of <code>gpx.import.threads</code> threads (by default one per
+     * processor). The layers are added in the order of the files, each as soon as the file and
+     * the ones before it are read, so the first tracks can be looked at while the others are
+     * still loading.
+     *
+     * @throws IOException if some of the files could not be read; the layers of the other
+     * files have been added nevertheless
+     */
+    @Override public void importData(List<File> files, ProgressMonitor progressMonitor) throws IOException {
+        int threads = Main.pref.getInteger("gpx.import.threads", Runtime.getRuntime().availableProcessors());
+        threads = Math.max(1, Math.min(threads, files.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        progressMonitor.beginTask(null, files.size());
+        StringBuilder errors = new StringBuilder();
         try {
-            InputStream is;
-            if (file.getName().endsWith(".gpx.gz")) {
-                is = new GZIPInputStream(new FileInputStream(file));
-            } else {
-                is = new FileInputStream(file);
-            }
-            final GpxReader r = new GpxReader(is);
-            final boolean parsedProperly = r.parse(true);
-            r.data.storageFile = file;
-            final GpxLayer gpxLayer = new GpxLayer(r.data, fn, true);
-
-            // FIXME: remove UI stuff from the IO subsystem
-            //
-            Runnable task = new Runnable() {
-                public void run() {
-                    if (r.data.hasRoutePoints() || r.data.hasTrackPoints()) {
-                        Main.main.addLayer(gpxLayer);
+            List<Future<ReadResult>> tasks = new ArrayList<Future<ReadResult>>(files.size());
+            for (final File file : files) {
+                tasks.add(pool.submit(new Callable<ReadResult>() {
+                    public ReadResult call() throws IOException {
+                        return read(file);
                     }
-                    if (Main.pref.getBoolean("marker.makeautomarkers", true) && !r.data.waypoints.isEmpty()) {
-                        MarkerLayer ml = new MarkerLayer(r.data, tr("Markers from {0}", fn), file, gpxLayer);
-                        if (ml.data.size() > 0) {
-                            Main.main.addLayer(ml);
+                }));
+            }
+            for (int i = 0; i < files.size(); i++) {
+                File file = files.get(i);
+                try {
+                    ReadResult result = null;
+                    while (result == null) {
+                        try {
+                            result = tasks.get(i).get(100, TimeUnit.MILLISECONDS);
+                        } catch (TimeoutException e) {
+                            if (progressMonitor.isCancelled())
+                                return;
                         }
                     }
-                    if (!parsedProperly) {
-                        JOptionPane.showMessageDialog(null, tr("Error occured while parsing gpx file {0}. Only part of the file will be available", file.getName()));
-                    }
+                    addLayers(file, result);
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    errors.append("<br>").append(tr("{0}: {1}", file.getName(), e.getCause().getMessage()));
                 }
-            };
-            if (SwingUtilities.isEventDispatchThread()) {
-                task.run();
+                progressMonitor.worked(1);
+            }
+        } catch (InterruptedException e) {
+            throw new IOException(tr("Reading GPX files was interrupted."));
+        } finally {
+            pool.shutdownNow();
+            progressMonitor.finishTask();
+        }
+        if (errors.length() > 0)
+            throw new IOException(tr("Some of the files could not be read:") + errors);
+    }
+
+    private static class ReadResult {
+        public final GpxData data;
+        public final boolean parsedProperly;
+
+        public ReadResult(GpxData data, boolean parsedProperly) {
+            this.data = data;
+            this.parsedProperly = parsedProperly;
+        }
+    }
+
+    private ReadResult read(File file) throws IOException {
+        System.out.println("Open file: " + file.getAbsolutePath() + " (" + file.length() + " bytes)");
+        InputStream is = null;
+        try {
+            if (file.getName().endsWith(".gpx.gz")) {
+                is = new GZIPInputStream(new FileInputStream(file));
             } else {
-                SwingUtilities.invokeLater(task);
+                is = new FileInputStream(file);
             }
+            GpxReader r = new GpxReader(is);
+            boolean parsedProperly = r.parse(true);
+            r.data.storageFile = file;
+            return new ReadResult(r.data, parsedProperly);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
             throw new IOException(tr("File \"{0}\" does not exist", file.getName()));
         } catch (SAXException e) {
             e.printStackTrace();
             throw new IOException(tr("Parsing file \"{0}\" failed", file.getName()));
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
+
+    private void addLayers(final File file, final ReadResult result) {
+        final String fn = file.getName();
+        final GpxData data = result.data;
+        final GpxLayer gpxLayer = new GpxLayer(data, fn, true);
+
+        // FIXME: remove UI stuff from the IO subsystem
+        //
+        Runnable task = new Runnable() {
+            public void run() {
+                if (data.hasRoutePoints() || data.hasTrackPoints()) {
+                    Main.main.addLayer(gpxLayer);
+                }
+                if (Main.pref.getBoolean("marker.makeautomarkers", true) && !data.waypoints.isEmpty()) {
+                    MarkerLayer ml = new MarkerLayer(data, tr("Markers from {0}", fn), file, gpxLayer);
+                    if (ml.data.size() > 0) {
+                        Main.main.addLayer(ml);
+                    }
+                }
+                if (!result.parsedProperly) {
+                    JOptionPane.showMessageDialog(null, tr("Error occured while parsing gpx file {0}. Only part of the file will be available", file.getName()));
+                }
+            }
+        };
+        if (SwingUtilities.isEventDispatchThread()) {
+            task.run();
+        } else {
+            SwingUtilities.invokeLater(task);
         }
     }
 }
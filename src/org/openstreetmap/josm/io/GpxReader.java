@@ -19,9 +19,11 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.parsers.SAXParserFactory;
 
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.CompactGpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.GpxData;
 import org.openstreetmap.josm.data.gpx.GpxLink;
 import org.openstreetmap.josm.data.gpx.GpxRoute;
+import org.openstreetmap.josm.data.gpx.GpxTrackSegment;
 import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
 import org.openstreetmap.josm.data.gpx.WayPoint;
 import org.xml.sax.Attributes;
@@ -46,9 +48,9 @@ public class GpxReader {
     private class Parser extends DefaultHandler {
 
         private GpxData currentData;
-        private Collection<Collection<WayPoint>> currentTrack;
+        private Collection<GpxTrackSegment> currentTrack;
         private Map<String, Object> currentTrackAttr;
-        private Collection<WayPoint> currentTrackSeg;
+        private CompactGpxTrackSegment.Builder currentTrackSeg;
         private GpxRoute currentRoute;
         private WayPoint currentWayPoint;
 
@@ -100,7 +102,7 @@ public class GpxReader {
                 } else if (qName.equals("trk")) {
                     states.push(currentState);
                     currentState = State.trk;
-                    currentTrack = new ArrayList<Collection<WayPoint>>();
+                    currentTrack = new ArrayList<GpxTrackSegment>();
                     currentTrackAttr = new HashMap<String, Object>();
                 } else if (qName.equals("extensions")) {
                     states.push(currentState);
@@ -122,7 +124,7 @@ public class GpxReader {
                 if (qName.equals("trkseg")) {
                     states.push(currentState);
                     currentState = State.trkseg;
-                    currentTrackSeg = new ArrayList<WayPoint>();
+                    currentTrackSeg = new CompactGpxTrackSegment.Builder();
                 } else if (qName.equals("link")) {
                     states.push(currentState);
                     currentState = State.link;
@@ -304,13 +306,15 @@ public class GpxReader {
             case trkseg:
                 if (qName.equals("trkseg")) {
                     currentState = states.pop();
-                    currentTrack.add(currentTrackSeg);
+                    if (currentTrackSeg.size() > 0) {
+                        currentTrack.add(currentTrackSeg.build());
+                    }
                 }
                 break;
             case trk:
                 if (qName.equals("trk")) {
                     currentState = states.pop();
-                    currentData.tracks.add(new ImmutableGpxTrack(currentTrack, currentTrackAttr));
+                    currentData.tracks.add(new ImmutableGpxTrack(currentTrackAttr, currentTrack));
                 } else if (qName.equals("name") || qName.equals("cmt")
                         || qName.equals("desc") || qName.equals("src")
                         || qName.equals("type") || qName.equals("number")
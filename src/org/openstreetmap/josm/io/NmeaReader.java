@@ -2,14 +2,14 @@
 
 package org.openstreetmap.josm.io;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -132,6 +132,9 @@ public class NmeaReader {
 
     public GpxData data;
 
+    /** size of the blocks read from the input */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     //  private final static SimpleDateFormat GGATIMEFMT =
     //      new SimpleDateFormat("HHmmss.SSS");
     private final static SimpleDateFormat RMCTIMEFMT =
@@ -139,6 +142,26 @@ public class NmeaReader {
     private final static SimpleDateFormat RMCTIMEFMTSTD =
         new SimpleDateFormat("ddMMyyHHmmss");
 
+    private static final Charset ASCII = Charset.forName("ISO-8859-1");
+
+    private static final byte[] TYPE_GPGGA = NMEA_TYPE.GPGGA.getType().getBytes(ASCII);
+    private static final byte[] TYPE_GPVTG = NMEA_TYPE.GPVTG.getType().getBytes(ASCII);
+    private static final byte[] TYPE_GPGSA = NMEA_TYPE.GPGSA.getType().getBytes(ASCII);
+    private static final byte[] TYPE_GPRMC = NMEA_TYPE.GPRMC.getType().getBytes(ASCII);
+
+    private static final double[] POW10 = new double[23];
+    private static final float[] FLOAT_POW10 = new float[11];
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) {
+            POW10[i] = POW10[i - 1] * 10;
+        }
+        FLOAT_POW10[0] = 1;
+        for (int i = 1; i < FLOAT_POW10.length; i++) {
+            FLOAT_POW10[i] = FLOAT_POW10[i - 1] * 10;
+        }
+    }
+
     private Date readTime(String p)
     {
         Date d = RMCTIMEFMT.parse(p, new ParsePosition(0));
@@ -150,6 +173,59 @@ public class NmeaReader {
         return d;
     }
 
+    /** date and time up to the minute of the last time read, see {@link #readTime(byte[], int)} */
+    private long timeKey = -1;
+    /** the time of {@link #timeKey} in milliseconds */
+    private long timeKeyMillis;
+
+    /**
+     * Reads the time from a date (ddMMyy) and the time field of the current
+     * sentence (HHmmss.SSS). Gives the same result as {@link #readTime(String)}
+     * with both concatenated. The usual layout is computed directly, the
+     * formatter is only used once per minute (for the time zone).
+     */
+    private Date readTime(byte[] date, int field) {
+        int from = fieldStart[field];
+        int to = fieldEnd[field];
+        int length = to - from;
+        if (date.length == 6 && (length == 6 || (length >= 8 && length <= 10 && sentence[from + 6] == '.'))) {
+            long key = 0;
+            boolean digits = true;
+            for (int i = 0; i < 6; i++) {
+                digits &= isDigit(date[i]);
+                key = key * 10 + date[i] - '0';
+            }
+            for (int i = from; i < from + 4; i++) {
+                digits &= isDigit(sentence[i]);
+                key = key * 10 + sentence[i] - '0';
+            }
+            int seconds = 0;
+            for (int i = from + 4; i < from + 6; i++) {
+                digits &= isDigit(sentence[i]);
+                seconds = seconds * 10 + sentence[i] - '0';
+            }
+            // like the lenient formatter, the digits after the dot are milliseconds
+            int millis = 0;
+            for (int i = from + 7; i < to; i++) {
+                digits &= isDigit(sentence[i]);
+                millis = millis * 10 + sentence[i] - '0';
+            }
+            if (digits && seconds < 60) {
+                if (key != timeKey) {
+                    String minute = new String(date, ASCII) + new String(sentence, from, 4, ASCII) + "00";
+                    Date d = RMCTIMEFMTSTD.parse(minute, new ParsePosition(0));
+                    if (d != null) {
+                        timeKey = key;
+                        timeKeyMillis = d.getTime();
+                    }
+                }
+                if (key == timeKey)
+                    return new Date(timeKeyMillis + seconds * 1000 + millis);
+            }
+        }
+        return readTime(new String(date, ASCII) + getString(field));
+    }
+
     // functons for reading the error stats
     public NMEAParserState ps;
 
@@ -169,6 +245,12 @@ public class NmeaReader {
         return ps.success;
     }
 
+    /**
+     * Reads the input in blocks of bytes. Sentences are parsed from the bytes
+     * directly: the checksum is computed while splitting, and numbers and
+     * times are only converted to strings where they are stored as such.
+     * The input is expected to be ASCII.
+     */
     public NmeaReader(InputStream source, File relativeMarkerPath) {
 
         // create the data tree
@@ -176,36 +258,41 @@ public class NmeaReader {
         Collection<Collection<WayPoint>> currentTrack = new ArrayList<Collection<WayPoint>>();
 
         try {
-            BufferedReader rd =
-                new BufferedReader(new InputStreamReader(source));
-
-            StringBuffer sb = new StringBuffer(1024);
-            int loopstart_char = rd.read();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int count = source.read(buffer);
             ps = new NMEAParserState();
-            if(loopstart_char == -1)
+            if(count == -1)
                 //TODO tell user about the problem?
                 return;
-            sb.append((char)loopstart_char);
-            ps.p_Date="010100"; // TODO date problem
+            int pos = 0;
+            sentenceLength = 0;
+            sentence[sentenceLength++] = buffer[pos++];
+            ps.p_Date = "010100".getBytes(ASCII); // TODO date problem
             while(true) {
                 // don't load unparsable files completely to memory
-                if(sb.length()>=1020) {
-                    sb.delete(0, sb.length()-1);
+                if(sentenceLength>=1020) {
+                    sentence[0] = sentence[sentenceLength - 1];
+                    sentenceLength = 1;
                 }
-                int c = rd.read();
-                if(c=='$') {
-                    ParseNMEASentence(sb.toString(), ps);
-                    sb.delete(0, sb.length());
-                    sb.append('$');
-                } else if(c == -1) {
+                if(pos == count) {
+                    count = source.read(buffer);
+                    pos = 0;
+                }
+                if(count == -1) {
                     // EOF: add last WayPoint if it works out
-                    ParseNMEASentence(sb.toString(),ps);
+                    parseNMEASentence(ps);
                     break;
+                }
+                byte c = buffer[pos++];
+                if(c=='$') {
+                    parseNMEASentence(ps);
+                    sentence[0] = '$';
+                    sentenceLength = 1;
                 } else {
-                    sb.append((char)c);
+                    sentence[sentenceLength++] = c;
                 }
             }
-            rd.close();
+            source.close();
             currentTrack.add(ps.waypoints);
             data.tracks.add(new ImmutableGpxTrack(currentTrack, Collections.<String, Object>emptyMap()));
             data.recalculateBounds();
@@ -216,8 +303,8 @@ public class NmeaReader {
     }
     private static class NMEAParserState {
         protected Collection<WayPoint> waypoints = new ArrayList<WayPoint>();
-        protected String p_Time;
-        protected String p_Date;
+        protected byte[] p_Time;
+        protected byte[] p_Date;
         protected WayPoint p_Wp;
 
         protected int success = 0; // number of successfully parsend sentences
@@ -228,50 +315,253 @@ public class NmeaReader {
         protected int zero_coord = 0;
     }
 
+    /** the current sentence */
+    private final byte[] sentence = new byte[1024];
+    private int sentenceLength;
+    /** the fields of the current sentence, like String.split(",") of the part before the checksum */
+    private int[] fieldStart = new int[32];
+    private int[] fieldEnd = new int[32];
+    private int fieldCount;
+
+    /**
+     * Splits the sentence up to <code>end</code> at the commas. As with
+     * <code>String.split</code>, empty fields at the end are dropped.
+     */
+    private void splitFields(int end) {
+        fieldCount = 0;
+        int start = 0;
+        int last = 0;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || sentence[i] == ',') {
+                if (fieldCount == fieldStart.length) {
+                    fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+                    fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+                }
+                fieldStart[fieldCount] = start;
+                fieldEnd[fieldCount] = i;
+                fieldCount++;
+                if (i > start) {
+                    last = fieldCount;
+                }
+                start = i + 1;
+            }
+        }
+        if (fieldCount > 1) {
+            fieldCount = last;
+        }
+    }
+
+    /**
+     * @throws ArrayIndexOutOfBoundsException if there is no such field, like the array of String.split
+     */
+    private void checkField(int field) {
+        if (field >= fieldCount)
+            throw new ArrayIndexOutOfBoundsException(field);
+    }
+
+    private boolean isEmpty(int field) {
+        checkField(field);
+        return fieldStart[field] == fieldEnd[field];
+    }
+
+    private boolean fieldEquals(int field, byte[] value) {
+        checkField(field);
+        int from = fieldStart[field];
+        if (fieldEnd[field] - from != value.length)
+            return false;
+        for (int i = 0; i < value.length; i++) {
+            if (sentence[from + i] != value[i])
+                return false;
+        }
+        return true;
+    }
+
+    private boolean fieldEquals(int field, char value) {
+        checkField(field);
+        return fieldEnd[field] - fieldStart[field] == 1 && sentence[fieldStart[field]] == value;
+    }
+
+    private String getString(int field) {
+        checkField(field);
+        return new String(sentence, fieldStart[field], fieldEnd[field] - fieldStart[field], ASCII);
+    }
+
+    private byte[] getBytes(int field) {
+        checkField(field);
+        return Arrays.copyOfRange(sentence, fieldStart[field], fieldEnd[field]);
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private int hexDigit(int i) {
+        int digit = Character.digit((char) (sentence[i] & 0xff), 16);
+        if (digit < 0)
+            throw new NumberFormatException();
+        return digit;
+    }
+
+    /**
+     * Same as Integer.parseInt of the bytes.
+     */
+    private int parseInt(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (sentence[i] == '-' || sentence[i] == '+')) {
+            negative = sentence[i] == '-';
+            i++;
+        }
+        if (i == to || to - i > 9)
+            return Integer.parseInt(new String(sentence, from, to - from, ASCII));
+        int result = 0;
+        for (; i < to; i++) {
+            if (!isDigit(sentence[i]))
+                return Integer.parseInt(new String(sentence, from, to - from, ASCII));
+            result = result * 10 + sentence[i] - '0';
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Same as Double.parseDouble of the bytes. Plain decimal numbers with up
+     * to 15 digits are exact doubles divided by an exact power of ten, that is
+     * correctly rounded like Double.parseDouble. Anything else is left to it.
+     */
+    private double parseDouble(int from, int to) {
+        int i = from;
+        boolean negative = false;
+        if (i < to && (sentence[i] == '-' || sentence[i] == '+')) {
+            negative = sentence[i] == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < to; i++) {
+            byte b = sentence[i];
+            if (isDigit(b)) {
+                mantissa = mantissa * 10 + b - '0';
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits < 1 || digits > 15)
+            return Double.parseDouble(new String(sentence, from, to - from, ASCII));
+        double result = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+        return negative ? -result : result;
+    }
+
+    private double parseDouble(int field) {
+        checkField(field);
+        return parseDouble(fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * Same as Float.parseFloat of the field, see {@link #parseDouble(int, int)}.
+     */
+    private float parseFloat(int field) {
+        checkField(field);
+        int from = fieldStart[field];
+        int to = fieldEnd[field];
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (int i = from; i < to; i++) {
+            byte b = sentence[i];
+            if (isDigit(b)) {
+                mantissa = mantissa * 10 + b - '0';
+                digits++;
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                digits = -1;
+                break;
+            }
+        }
+        if (digits < 1 || digits > 7 || fraction > 10)
+            return Float.parseFloat(new String(sentence, from, to - from, ASCII));
+        return fraction > 0 ? (float) mantissa / FLOAT_POW10[fraction] : (float) mantissa;
+    }
+
     // Parses split up sentences into WayPoints which are stored
     // in the collection in the NMEAParserState object.
     // Returns true if the input made sence, false otherwise.
-    private boolean ParseNMEASentence(String s, NMEAParserState ps) {
+    private boolean parseNMEASentence(NMEAParserState ps) {
         try {
-            if (s.equals(""))
+            int length = sentenceLength;
+            if (length == 0)
                 throw new NullPointerException();
 
             // checksum check:
             // the bytes between the $ and the * are xored;
             // if there is no * or other meanities it will throw
             // and result in a malformed packet.
-            String[] chkstrings = s.split("\\*");
-            if(chkstrings.length > 1)
-            {
-                byte[] chb = chkstrings[0].getBytes();
+            int star = 0;
+            while (star < length && sentence[star] != '*') {
+                star++;
+            }
+            int next = star + 1;
+            while (next < length && sentence[next] == '*') {
+                next++;
+            }
+            if (next < length) {
+                // the checksum is the first two characters up to the next *
+                int end = next;
+                while (end < length && sentence[end] != '*') {
+                    end++;
+                }
+                if (next != star + 1 || end - next < 2)
+                    throw new StringIndexOutOfBoundsException(); // malformed
+                int checksum;
+                if (sentence[next] == '-' || sentence[next] == '+') {
+                    checksum = hexDigit(next + 1);
+                    if (sentence[next] == '-') {
+                        checksum = -checksum;
+                    }
+                } else {
+                    checksum = hexDigit(next) * 16 + hexDigit(next + 1);
+                }
                 int chk=0;
-                for(int i = 1; i < chb.length; i++) {
-                    chk ^= chb[i];
+                for(int i = 1; i < star; i++) {
+                    chk ^= sentence[i];
                 }
-                if(Integer.parseInt(chkstrings[1].substring(0,2),16) != chk) {
+                if(checksum != chk) {
                     //System.out.println("Checksum error");
                     ps.checksum_errors++;
                     ps.p_Wp=null;
                     return false;
                 }
             } else {
+                if (star == 0 && star < length)
+                    throw new ArrayIndexOutOfBoundsException(0); // only *, malformed
                 ps.no_checksum++;
             }
             // now for the content
-            String[] e = chkstrings[0].split(",");
-            String accu;
+            splitFields(star);
 
             WayPoint currentwp = ps.p_Wp;
-            String currentDate = ps.p_Date;
+            byte[] currentDate = ps.p_Date;
+            String accu;
 
             // handle the packet content
-            if(e[0].equals("$GPGGA")) {
+            if(fieldEquals(0, TYPE_GPGGA)) {
                 // Position
                 LatLon latLon = parseLatLon(
-                        e[GPGGA.LATITUDE_NAME.position],
-                        e[GPGGA.LONGITUDE_NAME.position],
-                        e[GPGGA.LATITUDE.position],
-                        e[GPGGA.LONGITUDE.position]
+                        GPGGA.LATITUDE_NAME.position,
+                        GPGGA.LONGITUDE_NAME.position,
+                        GPGGA.LATITUDE.position,
+                        GPGGA.LONGITUDE.position
                 );
                 if(latLon==null)
                     throw new NullPointerException(); // malformed
@@ -282,14 +572,14 @@ public class NmeaReader {
                 }
 
                 // time
-                accu = e[GPGGA.TIME.position];
-                Date d = readTime(currentDate+accu);
+                int time = GPGGA.TIME.position;
+                Date d = readTime(currentDate, time);
 
-                if((ps.p_Time==null) || (currentwp==null) || !ps.p_Time.equals(accu)) {
+                if((ps.p_Time==null) || (currentwp==null) || !fieldEquals(time, ps.p_Time)) {
                     // this node is newer than the previous, create a new waypoint.
                     // no matter if previous WayPoint was null, we got something
                     // better now.
-                    ps.p_Time=accu;
+                    ps.p_Time=getBytes(time);
                     currentwp = new WayPoint(latLon);
                 }
                 if(!currentwp.attr.containsKey("time")) {
@@ -298,35 +588,29 @@ public class NmeaReader {
                     currentwp.attr.put("time", DateUtils.fromDate(d));
                 }
                 // elevation
-                accu=e[GPGGA.HEIGHT_UNTIS.position];
-                if(accu.equals("M")) {
+                if(fieldEquals(GPGGA.HEIGHT_UNTIS.position, 'M')) {
                     // Ignore heights that are not in meters for now
-                    accu=e[GPGGA.HEIGHT.position];
-                    if(!accu.equals("")) {
-                        Double.parseDouble(accu);
+                    if(!isEmpty(GPGGA.HEIGHT.position)) {
+                        parseDouble(GPGGA.HEIGHT.position);
                         // if it throws it's malformed; this should only happen if the
                         // device sends nonstandard data.
-                        if(!accu.equals("")) {
-                            currentwp.attr.put("ele", accu);
-                        }
+                        currentwp.attr.put("ele", getString(GPGGA.HEIGHT.position));
                     }
                 }
                 // number of sattelites
-                accu=e[GPGGA.SATELLITE_COUNT.position];
                 int sat = 0;
-                if(!accu.equals("")) {
+                if(!isEmpty(GPGGA.SATELLITE_COUNT.position)) {
+                    accu=getString(GPGGA.SATELLITE_COUNT.position);
                     sat = Integer.parseInt(accu);
                     currentwp.attr.put("sat", accu);
                 }
                 // h-dilution
-                accu=e[GPGGA.HDOP.position];
-                if(!accu.equals("")) {
-                    currentwp.attr.put("hdop", Float.parseFloat(accu));
+                if(!isEmpty(GPGGA.HDOP.position)) {
+                    currentwp.attr.put("hdop", parseFloat(GPGGA.HDOP.position));
                 }
                 // fix
-                accu=e[GPGGA.QUALITY.position];
-                if(!accu.equals("")) {
-                    int fixtype = Integer.parseInt(accu);
+                if(!isEmpty(GPGGA.QUALITY.position)) {
+                    int fixtype = parseInt(fieldStart[GPGGA.QUALITY.position], fieldEnd[GPGGA.QUALITY.position]);
                     switch(fixtype) {
                     case 0:
                         currentwp.attr.put("fix", "none");
@@ -345,81 +629,75 @@ public class NmeaReader {
                         break;
                     }
                 }
-            } else if(e[0].equals("$GPVTG")) {
+            } else if(fieldEquals(0, TYPE_GPVTG)) {
                 // COURSE
-                accu = e[GPVTG.COURSE_REF.position];
-                if(accu.equals("T")) {
+                if(fieldEquals(GPVTG.COURSE_REF.position, 'T')) {
                     // other values than (T)rue are ignored
-                    accu = e[GPVTG.COURSE.position];
-                    if(!accu.equals("")) {
-                        Double.parseDouble(accu);
-                        currentwp.attr.put("course", accu);
+                    if(!isEmpty(GPVTG.COURSE.position)) {
+                        parseDouble(GPVTG.COURSE.position);
+                        currentwp.attr.put("course", getString(GPVTG.COURSE.position));
                     }
                 }
                 // SPEED
-                accu = e[GPVTG.SPEED_KMH_UNIT.position];
-                if(accu.startsWith("K")) {
-                    accu = e[GPVTG.SPEED_KMH.position];
-                    if(!accu.equals("")) {
-                        double speed = Double.parseDouble(accu);
+                if(!isEmpty(GPVTG.SPEED_KMH_UNIT.position) && sentence[fieldStart[GPVTG.SPEED_KMH_UNIT.position]] == 'K') {
+                    if(!isEmpty(GPVTG.SPEED_KMH.position)) {
+                        double speed = parseDouble(GPVTG.SPEED_KMH.position);
                         speed /= 3.6; // speed in m/s
                         currentwp.attr.put("speed", Double.toString(speed));
                     }
                 }
-            } else if(e[0].equals("$GPGSA")) {
+            } else if(fieldEquals(0, TYPE_GPGSA)) {
                 // vdop
-                accu=e[GPGSA.VDOP.position];
-                if(!accu.equals("")) {
-                    currentwp.attr.put("vdop", Float.parseFloat(accu));
+                if(!isEmpty(GPGSA.VDOP.position)) {
+                    currentwp.attr.put("vdop", parseFloat(GPGSA.VDOP.position));
                 }
                 // hdop
-                accu=e[GPGSA.HDOP.position];
-                if(!accu.equals("")) {
-                    currentwp.attr.put("hdop", Float.parseFloat(accu));
+                if(!isEmpty(GPGSA.HDOP.position)) {
+                    currentwp.attr.put("hdop", parseFloat(GPGSA.HDOP.position));
                 }
                 // pdop
-                accu=e[GPGSA.PDOP.position];
-                if(!accu.equals("")) {
-                    currentwp.attr.put("pdop", Float.parseFloat(accu));
+                if(!isEmpty(GPGSA.PDOP.position)) {
+                    currentwp.attr.put("pdop", parseFloat(GPGSA.PDOP.position));
                 }
             }
-            else if(e[0].equals("$GPRMC")) {
+            else if(fieldEquals(0, TYPE_GPRMC)) {
                 // coordinates
                 LatLon latLon = parseLatLon(
-                        e[GPRMC.WIDTH_NORTH_NAME.position],
-                        e[GPRMC.LENGTH_EAST_NAME.position],
-                        e[GPRMC.WIDTH_NORTH.position],
-                        e[GPRMC.LENGTH_EAST.position]
+                        GPRMC.WIDTH_NORTH_NAME.position,
+                        GPRMC.LENGTH_EAST_NAME.position,
+                        GPRMC.WIDTH_NORTH.position,
+                        GPRMC.LENGTH_EAST.position
                 );
                 if((latLon.lat()==0.0) && (latLon.lon()==0.0)) {
                     ps.zero_coord++;
                     return false;
                 }
                 // time
-                currentDate = e[GPRMC.DATE.position];
-                String time = e[GPRMC.TIME.position];
+                int time = GPRMC.TIME.position;
+                if(!fieldEquals(GPRMC.DATE.position, currentDate)) {
+                    currentDate = getBytes(GPRMC.DATE.position);
+                }
+                checkField(time);
 
-                Date d = readTime(currentDate+time);
+                Date d = readTime(currentDate, time);
 
-                if((ps.p_Time==null) || (currentwp==null) || !ps.p_Time.equals(time)) {
+                if((ps.p_Time==null) || (currentwp==null) || !fieldEquals(time, ps.p_Time)) {
                     // this node is newer than the previous, create a new waypoint.
-                    ps.p_Time=time;
+                    ps.p_Time=getBytes(time);
                     currentwp = new WayPoint(latLon);
                 }
                 // time: this sentence has complete time so always use it.
                 currentwp.attr.put("time", DateUtils.fromDate(d));
                 // speed
-                accu = e[GPRMC.SPEED.position];
-                if(!accu.equals("") && !currentwp.attr.containsKey("speed")) {
-                    double speed = Double.parseDouble(accu);
+                if(!isEmpty(GPRMC.SPEED.position) && !currentwp.attr.containsKey("speed")) {
+                    double speed = parseDouble(GPRMC.SPEED.position);
                     speed *= 0.514444444; // to m/s
                     currentwp.attr.put("speed", Double.toString(speed));
                 }
                 // course
-                accu = e[GPRMC.COURSE.position];
-                if(!accu.equals("") && !currentwp.attr.containsKey("course")) {
-                    Double.parseDouble(accu);
-                    currentwp.attr.put("course", accu);
+                if(!isEmpty(GPRMC.COURSE.position) && !currentwp.attr.containsKey("course")) {
+                    parseDouble(GPRMC.COURSE.position);
+                    currentwp.attr.put("course", getString(GPRMC.COURSE.position));
                 }
 
                 // TODO fix?
@@ -455,44 +733,69 @@ public class NmeaReader {
         }
     }
 
-    private LatLon parseLatLon(String ns, String ew, String dlat, String dlon)
+    private LatLon parseLatLon(int ns, int ew, int dlat, int dlon)
     throws NumberFormatException {
-        String widthNorth = dlat.trim();
-        String lengthEast = dlon.trim();
+        checkField(Math.max(Math.max(ns, ew), Math.max(dlat, dlon)));
+        // trim like String.trim()
+        int latFrom = fieldStart[dlat], latTo = fieldEnd[dlat];
+        while (latFrom < latTo && (sentence[latFrom] & 0xff) <= ' ') {
+            latFrom++;
+        }
+        while (latTo > latFrom && (sentence[latTo - 1] & 0xff) <= ' ') {
+            latTo--;
+        }
+        int lonFrom = fieldStart[dlon], lonTo = fieldEnd[dlon];
+        while (lonFrom < lonTo && (sentence[lonFrom] & 0xff) <= ' ') {
+            lonFrom++;
+        }
+        while (lonTo > lonFrom && (sentence[lonTo - 1] & 0xff) <= ' ') {
+            lonTo--;
+        }
 
         // return a zero latlon instead of null so it is logged as zero coordinate
         // instead of malformed sentence
-        if(widthNorth.equals("")&&lengthEast.equals("")) return new LatLon(0.0,0.0);
+        if(latFrom == latTo && lonFrom == lonTo) return new LatLon(0.0,0.0);
 
         // The format is xxDDLL.LLLL
         // xx optional whitespace
         // DD (int) degres
         // LL.LLLL (double) latidude
-        int latdegsep = widthNorth.indexOf('.') - 2;
-        if (latdegsep < 0) return null;
+        int latdegsep = indexOf(latFrom, latTo, '.') - 2;
+        if (latdegsep < latFrom) return null;
 
-        int latdeg = Integer.parseInt(widthNorth.substring(0, latdegsep));
-        double latmin = Double.parseDouble(widthNorth.substring(latdegsep));
+        int latdeg = parseInt(latFrom, latdegsep);
+        double latmin = parseDouble(latdegsep, latTo);
         if(latdeg < 0) {
             latmin *= -1.0;
         }
         double lat = latdeg + latmin / 60;
-        if ("S".equals(ns)) {
+        if (fieldEquals(ns, 'S')) {
             lat = -lat;
         }
 
-        int londegsep = lengthEast.indexOf('.') - 2;
-        if (londegsep < 0) return null;
+        int londegsep = indexOf(lonFrom, lonTo, '.') - 2;
+        if (londegsep < lonFrom) return null;
 
-        int londeg = Integer.parseInt(lengthEast.substring(0, londegsep));
-        double lonmin = Double.parseDouble(lengthEast.substring(londegsep));
+        int londeg = parseInt(lonFrom, londegsep);
+        double lonmin = parseDouble(londegsep, lonTo);
         if(londeg < 0) {
             lonmin *= -1.0;
         }
         double lon = londeg + lonmin / 60;
-        if ("W".equals(ew)) {
+        if (fieldEquals(ew, 'W')) {
             lon = -lon;
         }
         return new LatLon(lat, lon);
     }
+
+    /**
+     * @return the position of the first <code>c</code> between <code>from</code> and <code>to</code>, -1 if there is none
+     */
+    private int indexOf(int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (sentence[i] == c)
+                return i;
+        }
+        return -1;
+    }
 }
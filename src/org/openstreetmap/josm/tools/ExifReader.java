@@ -17,10 +17,24 @@ import com.drew.metadata.Tag;
  */
 public class ExifReader {
 
-    @SuppressWarnings("unchecked") public static Date readTime(File filename) throws ParseException {
+    public static Date readTime(File filename) throws ParseException {
+        Metadata metadata;
+        try {
+            metadata = JpegMetadataReader.readMetadata(filename);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+        return readTime(metadata);
+    }
+
+    /**
+     * Reads the time from metadata that has already been read, e.g. to get
+     * more than the time from a file.
+     */
+    @SuppressWarnings("unchecked") public static Date readTime(Metadata metadata) throws ParseException {
         Date date = null;
         try {
-            Metadata metadata = JpegMetadataReader.readMetadata(filename);
             for (Iterator<Directory> dirIt = metadata.getDirectoryIterator(); dirIt.hasNext();) {
                 for (Iterator<Tag> tagIt = dirIt.next().getTagIterator(); tagIt.hasNext();) {
                     Tag tag = tagIt.next();
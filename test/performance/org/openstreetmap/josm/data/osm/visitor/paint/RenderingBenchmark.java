@@ -0,0 +1,354 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.openstreetmap.josm.Main;
+import org.openstreetmap.josm.actions.search.SearchAction.SearchMode;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.Preferences;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Filter;
+import org.openstreetmap.josm.data.osm.FilterMatcher;
+import org.openstreetmap.josm.data.osm.FilterWorker;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.Mercator;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.mappaint.MapPaintStyles;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmReader;
+
+/**
+ * Repeatable timings of the map renderers.
+ *
+ * Every scenario combines a dataset, a zoom level, a renderer (styled or
+ * wireframe) and one paint option. A frame is painted like the data layer
+ * does it: the data without the selection, then the selection overlay, into
+ * an image of the same type as the buffers of the map view. After a number
+ * of warm up frames the time and the allocated bytes of each phase are
+ * measured, the median, minimum and 90th percentile over all measured
+ * frames are reported. The mean time of the render passes of the data phase
+ * is taken from the {@link PaintStatistics} of the visitor.
+ *
+ * Run it with <code>ant perf</code>. The following system properties change
+ * the setup:
+ * <ul>
+ * <li><code>benchmark.warmup</code> - warm up frames per scenario (default 5)</li>
+ * <li><code>benchmark.iterations</code> - measured frames per scenario (default 20)</li>
+ * <li><code>benchmark.filter</code> - regular expression, only matching scenarios are run</li>
+ * <li><code>benchmark.grid</code> - comma separated sizes of the generated grid datasets (default 100,300)</li>
+ * <li><code>benchmark.csv</code> - file to write the results to, for comparing builds</li>
+ * </ul>
+ */
+public class RenderingBenchmark {
+
+    private static final int WIDTH = 1400;
+    private static final int HEIGHT = 1050;
+
+    private static final String[] FILES = {"restriction", "multipolygon", "neubrandenburg"};
+    private static final int[] ZOOMS = {1, 4, 16};
+    private static final String[] RENDERERS = {"mappaint", "wireframe"};
+    private static final String[] OPTIONS = {"plain", "selection", "no-multipolygon", "filter", "antialiasing"};
+
+    /**
+     * Timings of one phase of a frame, e.g. the data without selection.
+     */
+    private static class Phase {
+        private final long[] nanos;
+        private final long[] bytes;
+
+        public Phase(int iterations) {
+            nanos = new long[iterations];
+            bytes = new long[iterations];
+        }
+    }
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final int warmup;
+    private final int iterations;
+    private final Pattern filter;
+    private final BufferedImage img;
+    private final Graphics2D g;
+    private final NavigatableComponent nc;
+    private final List<String> results = new ArrayList<String>();
+
+    public RenderingBenchmark(int warmup, int iterations, Pattern filter) {
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.filter = filter;
+        img = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB_PRE);
+        g = img.createGraphics();
+        g.setClip(0, 0, WIDTH, HEIGHT);
+        nc = new NavigatableComponent();
+        nc.setBounds(0, 0, WIDTH, HEIGHT);
+    }
+
+    /**
+     * Creates a regular grid of <code>size</code> x <code>size</code> nodes with
+     * a street along every row and column and a building in every other cell.
+     */
+    public static DataSet createGrid(int size) {
+        DataSet ds = new DataSet();
+        double step = 0.0002;
+        Node[][] nodes = new Node[size][size];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                nodes[i][j] = new Node(new LatLon(50 + i * step, 10 + j * step));
+                ds.addPrimitive(nodes[i][j]);
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            Way row = new Way();
+            Way column = new Way();
+            for (int j = 0; j < size; j++) {
+                row.addNode(nodes[i][j]);
+                column.addNode(nodes[j][i]);
+            }
+            row.put("highway", i % 10 == 0 ? "primary" : "residential");
+            column.put("highway", "residential");
+            ds.addPrimitive(row);
+            ds.addPrimitive(column);
+        }
+        double d = step / 4;
+        for (int i = 0; i < size - 1; i += 2) {
+            for (int j = 0; j < size - 1; j += 2) {
+                LatLon c = nodes[i][j].getCoor();
+                Node n1 = new Node(new LatLon(c.lat() + d, c.lon() + d));
+                Node n2 = new Node(new LatLon(c.lat() + d, c.lon() + 3 * d));
+                Node n3 = new Node(new LatLon(c.lat() + 3 * d, c.lon() + 3 * d));
+                Node n4 = new Node(new LatLon(c.lat() + 3 * d, c.lon() + d));
+                Way building = new Way();
+                for (Node n : Arrays.asList(n1, n2, n3, n4)) {
+                    ds.addPrimitive(n);
+                    building.addNode(n);
+                }
+                building.addNode(n1);
+                building.put("building", "yes");
+                ds.addPrimitive(building);
+            }
+        }
+        return ds;
+    }
+
+    private static Bounds getBounds(DataSet ds) {
+        double minLat = 90, minLon = 180, maxLat = -90, maxLon = -180;
+        for (Node n : ds.getNodes()) {
+            LatLon ll = n.getCoor();
+            if (ll == null) {
+                continue;
+            }
+            minLat = Math.min(minLat, ll.lat());
+            minLon = Math.min(minLon, ll.lon());
+            maxLat = Math.max(maxLat, ll.lat());
+            maxLon = Math.max(maxLon, ll.lon());
+        }
+        return new Bounds(minLat, minLon, maxLat, maxLon);
+    }
+
+    /**
+     * @return the bounds of <code>1/zoom</code> of the width and height of <code>b</code>, around its center
+     */
+    private static Bounds zoomIn(Bounds b, int zoom) {
+        LatLon c = b.getCenter();
+        double dLat = (b.getMax().lat() - b.getMin().lat()) / zoom / 2;
+        double dLon = (b.getMax().lon() - b.getMin().lon()) / zoom / 2;
+        return new Bounds(c.lat() - dLat, c.lon() - dLon, c.lat() + dLat, c.lon() + dLon);
+    }
+
+    private long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean)
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        return -1;
+    }
+
+    private void setOption(DataSet ds, String option, boolean enable) throws Exception {
+        if ("selection".equals(option)) {
+            if (enable) {
+                // every 50th primitive, the same ones in every run
+                List<OsmPrimitive> selection = new ArrayList<OsmPrimitive>();
+                int i = 0;
+                for (OsmPrimitive osm : ds.allPrimitives()) {
+                    if (i++ % 50 == 0) {
+                        selection.add(osm);
+                    }
+                }
+                ds.setSelected(selection);
+            } else {
+                ds.clearSelection();
+            }
+        } else if ("no-multipolygon".equals(option)) {
+            Main.pref.put("mappaint.multipolygon", !enable);
+        } else if ("filter".equals(option)) {
+            FilterMatcher matcher = new FilterMatcher();
+            if (enable) {
+                Filter f = new Filter("building=* | highway=residential", SearchMode.add, false, false, false);
+                matcher.update(Collections.singletonList(f));
+            }
+            FilterWorker.executeFilters(ds.allPrimitives(), matcher);
+        } else if ("antialiasing".equals(option)) {
+            Main.pref.put("mappaint.use-antialiasing", enable);
+        }
+    }
+
+    private void clear() {
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, WIDTH, HEIGHT);
+        g.setComposite(AlphaComposite.SrcOver);
+    }
+
+    /**
+     * Paints <code>count</code> frames and records the phases, if <code>phases</code> is not null.
+     */
+    private void paint(PaintVisitor visitor, DataSet ds, Bounds bounds, int count, Map<String, Phase> phases,
+            Map<String, Long> passes) {
+        for (int i = 0; i < count; i++) {
+            clear();
+            long t0 = System.nanoTime();
+            long a0 = allocatedBytes();
+            visitor.visitUnselected(ds, true, bounds);
+            long t1 = System.nanoTime();
+            long a1 = allocatedBytes();
+            if (passes != null) {
+                for (PaintStatistics.Pass pass : visitor.getStatistics().getPasses()) {
+                    Long sum = passes.get(pass.getName());
+                    passes.put(pass.getName(), (sum == null ? 0 : sum) + pass.getNanos());
+                }
+            }
+            visitor.visitSelection(ds, bounds);
+            long t2 = System.nanoTime();
+            long a2 = allocatedBytes();
+            if (phases != null) {
+                record(phases.get("data"), i, t1 - t0, a1 - a0);
+                record(phases.get("selection"), i, t2 - t1, a2 - a1);
+                record(phases.get("frame"), i, t2 - t0, a2 - a0);
+            }
+        }
+    }
+
+    private static void record(Phase phase, int i, long nanos, long bytes) {
+        phase.nanos[i] = nanos;
+        phase.bytes[i] = bytes;
+    }
+
+    private static long percentile(long[] values, int p) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[Math.min(sorted.length - 1, sorted.length * p / 100)];
+    }
+
+    public void run(String name, DataSet ds) throws Exception {
+        Bounds all = getBounds(ds);
+        for (int zoom : ZOOMS) {
+            Bounds bounds = zoomIn(all, zoom);
+            for (String renderer : RENDERERS) {
+                for (String option : OPTIONS) {
+                    String scenario = name + "/" + zoom + "x/" + renderer + "/" + option;
+                    if (filter != null && !filter.matcher(scenario).find()) {
+                        continue;
+                    }
+                    run(scenario, ds, bounds, renderer, option);
+                }
+            }
+        }
+    }
+
+    private void run(String scenario, DataSet ds, Bounds bounds, String renderer, String option) throws Exception {
+        setOption(ds, option, true);
+        try {
+            nc.zoomTo(bounds);
+            PaintVisitor visitor = "wireframe".equals(renderer) ? new SimplePaintVisitor() : new MapPaintVisitor();
+            visitor.setGraphics(g);
+            visitor.setNavigatableComponent(nc);
+            visitor.setInactive(false);
+
+            paint(visitor, ds, bounds, warmup, null, null);
+
+            Map<String, Phase> phases = new LinkedHashMap<String, Phase>();
+            for (String phase : new String[] {"data", "selection", "frame"}) {
+                phases.put(phase, new Phase(iterations));
+            }
+            Map<String, Long> passes = new LinkedHashMap<String, Long>();
+            paint(visitor, ds, bounds, iterations, phases, passes);
+
+            for (Map.Entry<String, Phase> e : phases.entrySet()) {
+                Phase p = e.getValue();
+                String line = String.format(Locale.ENGLISH, "%-48s %-9s %9.2f %9.2f %9.2f %12d",
+                        scenario, e.getKey(), percentile(p.nanos, 50) / 1e6, percentile(p.nanos, 0) / 1e6,
+                        percentile(p.nanos, 90) / 1e6, percentile(p.bytes, 50));
+                System.out.println(line);
+                results.add(String.format(Locale.ENGLISH, "%s,%s,%.3f,%.3f,%.3f,%d", scenario, e.getKey(),
+                        percentile(p.nanos, 50) / 1e6, percentile(p.nanos, 0) / 1e6,
+                        percentile(p.nanos, 90) / 1e6, percentile(p.bytes, 50)));
+            }
+            // mean time of the passes of the data phase
+            for (Map.Entry<String, Long> e : passes.entrySet()) {
+                System.out.println(String.format(Locale.ENGLISH, "%-48s   %-16s %9.2f", scenario, e.getKey(),
+                        e.getValue() / 1e6 / iterations));
+                results.add(String.format(Locale.ENGLISH, "%s,pass:%s,%.3f,,,", scenario, e.getKey(),
+                        e.getValue() / 1e6 / iterations));
+            }
+        } finally {
+            setOption(ds, option, false);
+        }
+    }
+
+    public void writeCsv(String fileName) throws IOException {
+        PrintWriter out = new PrintWriter(new FileWriter(fileName));
+        try {
+            out.println("scenario,phase,median_ms,min_ms,p90_ms,median_bytes");
+            for (String line : results) {
+                out.println(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Main.proj = new Mercator();
+        Main.pref = new Preferences();
+        Main.pref.load();
+        MapPaintStyles.readFromPreferences();
+
+        String filterText = System.getProperty("benchmark.filter");
+        RenderingBenchmark benchmark = new RenderingBenchmark(
+                Integer.getInteger("benchmark.warmup", 5),
+                Integer.getInteger("benchmark.iterations", 20),
+                filterText == null || filterText.length() == 0 ? null : Pattern.compile(filterText));
+
+        System.out.println(String.format("%-48s %-9s %9s %9s %9s %12s",
+                "scenario", "phase", "median ms", "min ms", "p90 ms", "bytes"));
+        for (String file : FILES) {
+            benchmark.run(file, OsmReader.parseDataSet(new FileInputStream("data_nodist/" + file + ".osm"),
+                    NullProgressMonitor.INSTANCE));
+        }
+        for (String size : System.getProperty("benchmark.grid", "100,300").split(",")) {
+            int n = Integer.parseInt(size.trim());
+            benchmark.run("grid" + n, createGrid(n));
+        }
+
+        String csv = System.getProperty("benchmark.csv");
+        if (csv != null && csv.length() > 0) {
+            benchmark.writeCsv(csv);
+        }
+    }
+}
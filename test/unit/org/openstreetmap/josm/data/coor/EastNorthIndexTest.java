@@ -0,0 +1,69 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.coor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class EastNorthIndexTest {
+
+    private static class Index extends EastNorthIndex<EastNorth> {
+        public Index(List<EastNorth> objects) {
+            super(objects);
+        }
+
+        @Override
+        protected EastNorth getEastNorth(EastNorth en) {
+            return en;
+        }
+    }
+
+    private static List<EastNorth> search(List<EastNorth> points, EastNorth min, EastNorth max) {
+        List<EastNorth> result = new ArrayList<EastNorth>();
+        for (EastNorth en : points) {
+            if (en != null && en.east() >= min.east() && en.east() <= max.east()
+                    && en.north() >= min.north() && en.north() <= max.north()) {
+                result.add(en);
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void searchRandom() {
+        Random random = new Random(42);
+        List<EastNorth> points = new ArrayList<EastNorth>();
+        for (int i = 0; i < 5000; i++) {
+            if (i % 100 == 0) {
+                points.add(null);
+            } else if (i % 3 == 0) {
+                // clusters at the same position
+                points.add(new EastNorth(i % 7, i % 11));
+            } else {
+                points.add(new EastNorth(random.nextDouble() * 100, random.nextDouble() * 100));
+            }
+        }
+        Index index = new Index(points);
+        Assert.assertEquals(points.size(), index.size());
+        for (int k = 0; k < 200; k++) {
+            double east = random.nextDouble() * 110 - 5;
+            double north = random.nextDouble() * 110 - 5;
+            double size = random.nextDouble() * 30;
+            EastNorth min = new EastNorth(east, north);
+            EastNorth max = new EastNorth(east + size, north + size);
+            Assert.assertEquals(search(points, min, max), index.search(min, max));
+        }
+        // all, in the original order
+        Assert.assertEquals(search(points, new EastNorth(0, 0), new EastNorth(100, 100)),
+                index.search(new EastNorth(0, 0), new EastNorth(100, 100)));
+    }
+
+    @Test
+    public void searchEmpty() {
+        Index index = new Index(new ArrayList<EastNorth>());
+        Assert.assertTrue(index.search(new EastNorth(0, 0), new EastNorth(1, 1)).isEmpty());
+    }
+}
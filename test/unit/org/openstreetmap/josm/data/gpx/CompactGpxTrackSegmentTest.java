@@ -0,0 +1,69 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+public class CompactGpxTrackSegmentTest {
+
+    private static WayPoint point(double lat, double lon, String time, String ele) {
+        WayPoint wpt = new WayPoint(new LatLon(lat, lon));
+        if (time != null) {
+            wpt.attr.put("time", time);
+            wpt.setTime();
+        }
+        if (ele != null) {
+            wpt.attr.put("ele", ele);
+        }
+        return wpt;
+    }
+
+    private static List<WayPoint> points() {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        points.add(point(48.1, 11.5, "2010-05-01T10:00:00Z", "512"));
+        points.add(point(48.2, 11.6, "2010-05-01T10:00:01.250Z", "512.30"));
+        points.add(point(48.3, 11.7, "2010-05-01T12:00:01+02:00", "513.4"));
+        points.add(point(48.4, 11.8, null, "-3"));
+        WayPoint wpt = point(48.5, 11.9, "2010-05-01T10:00:03.1Z", null);
+        wpt.attr.put("hdop", 1.5f);
+        wpt.attr.put("name", "x");
+        points.add(wpt);
+        return points;
+    }
+
+    @Test
+    public void wayPoints() {
+        List<WayPoint> points = points();
+        CompactGpxTrackSegment segment = new CompactGpxTrackSegment(points);
+        Assert.assertEquals(points.size(), segment.size());
+        int i = 0;
+        for (WayPoint wpt : segment.getWayPoints()) {
+            WayPoint expected = points.get(i++);
+            Assert.assertEquals(expected.getCoor(), wpt.getCoor());
+            Assert.assertEquals(expected.time, wpt.time, 0);
+            Assert.assertEquals(expected.attr, wpt.attr);
+        }
+    }
+
+    @Test
+    public void arrays() {
+        CompactGpxTrackSegment segment = new CompactGpxTrackSegment(points());
+        Assert.assertTrue(segment.hasTime(0));
+        Assert.assertTrue(segment.hasTime(1));
+        // not in the format written by JOSM
+        Assert.assertFalse(segment.hasTime(2));
+        Assert.assertEquals("2010-05-01T12:00:01+02:00", segment.getAttribute(2, "time"));
+        Assert.assertFalse(segment.hasTime(3));
+        Assert.assertEquals(512, segment.getElevation(0), 0);
+        Assert.assertTrue(Double.isNaN(segment.getElevation(1)));
+        Assert.assertEquals("512.30", segment.getAttribute(1, "ele"));
+        Assert.assertEquals(-3, segment.getElevation(3), 0);
+        Assert.assertEquals(1.5f, segment.getHdop(4), 0);
+        Assert.assertTrue(Float.isNaN(segment.getHdop(0)));
+        Assert.assertEquals("x", segment.getAttribute(4, "name"));
+    }
+}
@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.gpx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+
+public class GpxSegmentIndexTest {
+
+    /**
+     * A segment going east along the equator, one point every 0.001 degrees.
+     */
+    private static GpxSegmentIndex createIndex(int count) {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        for (int i = 0; i < count; i++) {
+            points.add(new WayPoint(new LatLon(0, i * 0.001)));
+        }
+        return new GpxSegmentIndex(new ImmutableGpxTrackSegment(points));
+    }
+
+    @Test
+    public void wholeSegment() {
+        GpxSegmentIndex index = createIndex(1000);
+        Assert.assertArrayEquals(new int[] {0, 1000}, index.getVisibleRanges(new Bounds(-1, -1, 1, 2)));
+    }
+
+    @Test
+    public void outside() {
+        GpxSegmentIndex index = createIndex(1000);
+        Assert.assertEquals(0, index.getVisibleRanges(new Bounds(1, -1, 2, 2)).length);
+    }
+
+    @Test
+    public void partOfSegment() {
+        GpxSegmentIndex index = createIndex(10000);
+        // point 5000 is in chunk 78, which starts with the last point of chunk 77
+        int[] ranges = index.getVisibleRanges(new Bounds(-1, 4.9995, 1, 5.0005));
+        Assert.assertArrayEquals(new int[] {78 * 64 - 1, 79 * 64}, ranges);
+    }
+
+    @Test
+    public void lineBetweenChunks() {
+        GpxSegmentIndex index = createIndex(1000);
+        // between point 127 and 128, the first and the second chunk
+        int[] ranges = index.getVisibleRanges(new Bounds(-1, 0.1272, 1, 0.1275));
+        Assert.assertArrayEquals(new int[] {127, 192}, ranges);
+    }
+
+    @Test
+    public void twoRanges() {
+        List<WayPoint> points = new ArrayList<WayPoint>();
+        // there and back again
+        for (int i = 0; i < 1000; i++) {
+            points.add(new WayPoint(new LatLon(0, i * 0.001)));
+        }
+        for (int i = 999; i >= 0; i--) {
+            points.add(new WayPoint(new LatLon(0, i * 0.001)));
+        }
+        GpxSegmentIndex index = new GpxSegmentIndex(new ImmutableGpxTrackSegment(points));
+        int[] ranges = index.getVisibleRanges(new Bounds(-1, -0.0005, 1, 0.0005));
+        Assert.assertArrayEquals(new int[] {0, 64, 1983, 2000}, ranges);
+    }
+
+    @Test
+    public void simplified() {
+        // about 111 m between the points
+        GpxSegmentIndex index = createIndex(1000);
+        Assert.assertNull(index.getSimplified(0.5));
+        Assert.assertNull(index.getSimplified(1.5));
+        Assert.assertArrayEquals(index.getSimplified(200), index.getSimplified(128));
+        int[] points = index.getSimplified(1024);
+        // keeps every 8th point (512 m level, deviation below 1024 m), plus the last one
+        Assert.assertEquals(0, points[0]);
+        Assert.assertEquals(999, points[points.length - 1]);
+        for (int i = 1; i < points.length - 1; i++) {
+            Assert.assertEquals(8, points[i] - points[i - 1]);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.data.osm.visitor.paint;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PolygonClipTest {
+
+    private static final Rectangle CLIP = new Rectangle(0, 0, 100, 100);
+
+    private static Polygon polygon(int... coordinates) {
+        Polygon p = new Polygon();
+        for (int i = 0; i < coordinates.length; i += 2) {
+            p.addPoint(coordinates[i], coordinates[i + 1]);
+        }
+        return p;
+    }
+
+    /**
+     * Checks that the clipped polygon covers the same pixels within the clip rectangle.
+     */
+    private static void assertSameFill(Polygon original, Polygon clipped) {
+        for (int x = CLIP.x; x < CLIP.x + CLIP.width; x++) {
+            for (int y = CLIP.y; y < CLIP.y + CLIP.height; y++) {
+                boolean expected = original.contains(x + 0.5, y + 0.5);
+                boolean actual = clipped != null && clipped.contains(x + 0.5, y + 0.5);
+                Assert.assertEquals("pixel " + x + "," + y, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void inside() {
+        Polygon p = polygon(10, 10, 90, 10, 90, 90, 10, 90);
+        Assert.assertSame(p, PolygonClip.clip(p, CLIP));
+    }
+
+    @Test
+    public void outside() {
+        Assert.assertNull(PolygonClip.clip(polygon(200, 200, 300, 200, 300, 300), CLIP));
+    }
+
+    @Test
+    public void duplicates() {
+        Polygon p = polygon(10, 10, 10, 10, 90, 10, 90, 90, 90, 90, 90, 90, 10, 90, 10, 10);
+        Polygon clipped = PolygonClip.clip(p, CLIP);
+        Assert.assertEquals(4, clipped.npoints);
+        assertSameFill(p, clipped);
+    }
+
+    @Test
+    public void covering() {
+        Polygon p = polygon(-1000, -1000, 1000, -1000, 1000, 1000, -1000, 1000);
+        Polygon clipped = PolygonClip.clip(p, CLIP);
+        Assert.assertEquals(4, clipped.npoints);
+        Assert.assertEquals(CLIP, clipped.getBounds());
+    }
+
+    @Test
+    public void diamond() {
+        Polygon p = polygon(50, -50, 150, 50, 50, 150, -50, 50);
+        assertSameFill(p, PolygonClip.clip(p, CLIP));
+    }
+
+    @Test
+    public void concave() {
+        // a U crossing the left and right border
+        Polygon p = polygon(-50, 20, 150, 20, 150, 80, 70, 80, 70, 40, 30, 40, 30, 80, -50, 80);
+        assertSameFill(p, PolygonClip.clip(p, CLIP));
+    }
+
+    @Test
+    public void hole() {
+        // outer ring and a hole crossing the top border, joined like the polygons of multipolygons
+        Polygon p = polygon(-100, -100, 200, -100, 200, 200, -100, 200, -100, -100,
+                40, -20, 60, -20, 60, 40, 40, 40, 40, -20, -100, -100);
+        assertSameFill(p, PolygonClip.clip(p, CLIP));
+    }
+}
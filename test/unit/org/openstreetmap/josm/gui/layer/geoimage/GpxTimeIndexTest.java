@@ -0,0 +1,82 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.gui.layer.geoimage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.gpx.GpxData;
+import org.openstreetmap.josm.data.gpx.ImmutableGpxTrack;
+import org.openstreetmap.josm.data.gpx.WayPoint;
+
+public class GpxTimeIndexTest {
+
+    private static WayPoint point(String time, String ele) {
+        WayPoint wpt = new WayPoint(new LatLon(48, 11));
+        if (time != null) {
+            wpt.attr.put("time", time);
+        }
+        if (ele != null) {
+            wpt.attr.put("ele", ele);
+        }
+        return wpt;
+    }
+
+    private static GpxTimeIndex createIndex() {
+        List<WayPoint> first = new ArrayList<WayPoint>();
+        first.add(point("2010-05-01T10:00:00Z", "512"));
+        first.add(point("2010-05-01T10:00:02Z", null));
+        first.add(point(null, "1"));
+        first.add(point("2010-05-01T10:00:05Z", "x"));
+        first.add(point("2010-05-01T10:00:04Z", null));
+        List<WayPoint> second = new ArrayList<WayPoint>();
+        second.add(point("invalid", null));
+        second.add(point("2010-05-01T10:00:06Z", null));
+        second.add(point("2010-05-01T10:00:06Z", null));
+        second.add(point("2010-05-01T10:00:07Z", null));
+        Collection<Collection<WayPoint>> segments = new ArrayList<Collection<WayPoint>>();
+        segments.add(first);
+        segments.add(second);
+        GpxData data = new GpxData();
+        data.tracks.add(new ImmutableGpxTrack(segments, Collections.<String, Object>emptyMap()));
+        return new GpxTimeIndex(data);
+    }
+
+    @Test
+    public void runs() {
+        GpxTimeIndex index = createIndex();
+        Assert.assertEquals(7, index.size());
+        Assert.assertEquals(3, index.getRunCount());
+        Assert.assertEquals(0, index.getRunStart(0));
+        Assert.assertEquals(2, index.getRunEnd(0));
+        Assert.assertTrue(index.isSorted(0));
+        Assert.assertEquals(4, index.getRunEnd(1));
+        Assert.assertFalse(index.isSorted(1));
+        Assert.assertEquals(7, index.getRunEnd(2));
+        Assert.assertTrue(index.isSorted(2));
+    }
+
+    @Test
+    public void values() {
+        GpxTimeIndex index = createIndex();
+        long start = index.getTime(0);
+        Assert.assertEquals(2000, index.getTime(1) - start);
+        Assert.assertEquals(512, index.getElevation(0), 0);
+        Assert.assertNull(index.getElevation(1));
+        Assert.assertNull(index.getElevation(2));
+    }
+
+    @Test
+    public void search() {
+        GpxTimeIndex index = createIndex();
+        long start = index.getTime(0);
+        Assert.assertEquals(4, index.search(4, 7, start));
+        Assert.assertEquals(4, index.search(4, 7, start + 6000));
+        Assert.assertEquals(6, index.search(4, 7, start + 6001));
+        Assert.assertEquals(7, index.search(4, 7, start + 8000));
+    }
+}